@@ -33,6 +33,11 @@ LOCAL_RESOURCE_DIR := $(LOCAL_PATH)/res \
     frameworks/support/v7/appcompat/res \
     frameworks/support/v7/recyclerview/res
 
+# Pre-built search index snapshots, see tests/app/.../search/IndexSnapshotGenerator.java
+ifneq ($(wildcard $(LOCAL_PATH)/search_snapshot/search_index/*.snapshot),)
+    LOCAL_ASSET_DIR := $(LOCAL_PATH)/search_snapshot
+endif
+
 LOCAL_PACKAGE_NAME := Settings
 LOCAL_CERTIFICATE := platform
 LOCAL_PRIVILEGED_MODULE := true
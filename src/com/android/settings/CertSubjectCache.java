@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.Context;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The subject shown for each CA certificate, by alias, kept on disk so that the trusted
+ * credentials screen doesn't parse every certificate each time it opens. A subject is only
+ * used while the digest of the certificate it was read from still matches.
+ */
+class CertSubjectCache {
+
+    private static final String TAG = "CertSubjectCache";
+
+    private static final String FILE_NAME = "cert_subjects";
+    private static final int VERSION = 1;
+    // Past this, the subjects of the certificates not seen since the process started are dropped.
+    private static final int MAX_ENTRIES = 1024;
+
+    private static CertSubjectCache sInstance;
+
+    private final AtomicFile mFile;
+    private final ArrayMap<String, Subject> mSubjects = new ArrayMap<>();
+    private final ArraySet<String> mUsed = new ArraySet<>();
+    private boolean mDirty;
+
+    private CertSubjectCache(Context context) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+        read();
+    }
+
+    /**
+     * Returns the cache, reading it from disk the first time. Not to be called on the main thread.
+     */
+    static synchronized CertSubjectCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new CertSubjectCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    static byte[] digest(byte[] encoded) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(encoded);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns the subject of the certificate, or null if it isn't known for that digest.
+     */
+    synchronized Subject getSubject(String alias, byte[] digest) {
+        final Subject subject = mSubjects.get(alias);
+        if (subject == null || !Arrays.equals(subject.digest, digest)) {
+            return null;
+        }
+        mUsed.add(alias);
+        return subject;
+    }
+
+    synchronized void putSubject(String alias, Subject subject) {
+        mSubjects.put(alias, subject);
+        mUsed.add(alias);
+        mDirty = true;
+    }
+
+    /**
+     * Write the subjects to disk, if any was added.
+     */
+    void save() {
+        final ArrayMap<String, Subject> subjects;
+        synchronized (this) {
+            if (!mDirty) {
+                return;
+            }
+            if (mSubjects.size() > MAX_ENTRIES) {
+                mSubjects.retainAll(mUsed);
+            }
+            subjects = new ArrayMap<>(mSubjects);
+            mDirty = false;
+        }
+        synchronized (mFile) {
+            FileOutputStream out = null;
+            try {
+                out = mFile.startWrite();
+                final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+                data.writeInt(VERSION);
+                data.writeInt(subjects.size());
+                for (int i = 0; i < subjects.size(); i++) {
+                    final Subject subject = subjects.valueAt(i);
+                    data.writeUTF(subjects.keyAt(i));
+                    data.writeInt(subject.digest.length);
+                    data.write(subject.digest);
+                    data.writeUTF(subject.primary);
+                    data.writeUTF(subject.secondary);
+                }
+                data.flush();
+                mFile.finishWrite(out);
+            } catch (IOException e) {
+                Log.w(TAG, "Problem writing " + mFile.getBaseFile(), e);
+                if (out != null) {
+                    mFile.failWrite(out);
+                }
+            }
+        }
+    }
+
+    private void read() {
+        if (!mFile.getBaseFile().exists()) {
+            return;
+        }
+        FileInputStream stream = null;
+        try {
+            stream = mFile.openRead();
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            final int N = in.readInt();
+            for (int i = 0; i < N; i++) {
+                final String alias = in.readUTF();
+                final byte[] digest = new byte[in.readInt()];
+                in.readFully(digest);
+                mSubjects.put(alias, new Subject(digest, in.readUTF(), in.readUTF()));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Problem reading " + mFile.getBaseFile(), e);
+            mSubjects.clear();
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // Ignored
+                }
+            }
+        }
+    }
+
+    static class Subject {
+        final byte[] digest;
+        final String primary;
+        final String secondary;
+
+        Subject(byte[] digest, String primary, String secondary) {
+            this.digest = digest;
+            this.primary = primary;
+            this.secondary = secondary;
+        }
+    }
+}
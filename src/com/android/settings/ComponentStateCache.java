@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.ArrayMap;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Remembers the enabled state Settings last gave to its own components, so that it only goes
+ * to the {@link PackageManager} for the components whose state has to change.
+ *
+ * The states are dropped when the APK or the build changes, as they may have been reset.
+ */
+public class ComponentStateCache {
+
+    private static final String PREFS_NAME = "component_states";
+    private static final String KEY_STAMP = "stamp";
+
+    private static ComponentStateCache sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final ArrayMap<String, Integer> mStates = new ArrayMap<>();
+    // System features can't change while the process lives.
+    private final ArrayMap<String, Boolean> mFeatures = new ArrayMap<>();
+
+    private ComponentStateCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        final String stamp = Build.FINGERPRINT + ":"
+                + new File(context.getApplicationInfo().sourceDir).lastModified();
+        if (!stamp.equals(mPrefs.getString(KEY_STAMP, null))) {
+            mPrefs.edit().clear().putString(KEY_STAMP, stamp).apply();
+            return;
+        }
+        for (Map.Entry<String, ?> entry : mPrefs.getAll().entrySet()) {
+            if (entry.getValue() instanceof Integer) {
+                mStates.put(entry.getKey(), (Integer) entry.getValue());
+            }
+        }
+    }
+
+    public static synchronized ComponentStateCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ComponentStateCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public synchronized boolean hasSystemFeature(PackageManager pm, String feature) {
+        Boolean hasFeature = mFeatures.get(feature);
+        if (hasFeature == null) {
+            hasFeature = pm.hasSystemFeature(feature);
+            mFeatures.put(feature, hasFeature);
+        }
+        return hasFeature;
+    }
+
+    /**
+     * Whether the component was last given the given enabled state.
+     */
+    public synchronized boolean isApplied(ComponentName component, int state) {
+        final Integer applied = mStates.get(component.flattenToShortString());
+        return applied != null && applied == state;
+    }
+
+    /**
+     * Remember the enabled state just given to each of the components.
+     */
+    public synchronized void setApplied(ArrayMap<ComponentName, Integer> states) {
+        if (states.isEmpty()) {
+            return;
+        }
+        final SharedPreferences.Editor editor = mPrefs.edit();
+        for (int i = 0; i < states.size(); i++) {
+            final String key = states.keyAt(i).flattenToShortString();
+            mStates.put(key, states.valueAt(i));
+            editor.putInt(key, states.valueAt(i));
+        }
+        editor.apply();
+    }
+}
@@ -41,6 +41,7 @@ import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceManager;
 import android.text.TextUtils;
 import android.transition.TransitionManager;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -1052,56 +1053,60 @@ public class SettingsActivity extends SettingsDrawerActivity
         PackageManager pm = getPackageManager();
         final UserManager um = UserManager.get(this);
         final boolean isAdmin = um.isAdminUser();
+        final ComponentStateCache cache = ComponentStateCache.get(this);
+        final ArrayMap<ComponentName, Boolean> tiles = new ArrayMap<>();
 
         String packageName = getPackageName();
-        setTileEnabled(new ComponentName(packageName, WifiSettingsActivity.class.getName()),
-                pm.hasSystemFeature(PackageManager.FEATURE_WIFI), isAdmin, pm);
+        putTileEnabled(tiles,
+                new ComponentName(packageName, WifiSettingsActivity.class.getName()),
+                cache.hasSystemFeature(pm, PackageManager.FEATURE_WIFI), isAdmin);
 
-        setTileEnabled(new ComponentName(packageName,
+        putTileEnabled(tiles, new ComponentName(packageName,
                 Settings.BluetoothSettingsActivity.class.getName()),
-                pm.hasSystemFeature(PackageManager.FEATURE_BLUETOOTH), isAdmin, pm);
+                cache.hasSystemFeature(pm, PackageManager.FEATURE_BLUETOOTH), isAdmin);
 
-        setTileEnabled(new ComponentName(packageName,
+        putTileEnabled(tiles, new ComponentName(packageName,
                 Settings.DataUsageSummaryActivity.class.getName()),
-                Utils.isBandwidthControlEnabled(), isAdmin, pm);
+                Utils.isBandwidthControlEnabled(), isAdmin);
 
-        setTileEnabled(new ComponentName(packageName,
+        putTileEnabled(tiles, new ComponentName(packageName,
                 Settings.SimSettingsActivity.class.getName()),
-                Utils.showSimCardTile(this), isAdmin, pm);
+                Utils.showSimCardTile(this), isAdmin);
 
-        setTileEnabled(new ComponentName(packageName,
+        putTileEnabled(tiles, new ComponentName(packageName,
                 Settings.PowerUsageSummaryActivity.class.getName()),
-                mBatteryPresent, isAdmin, pm);
+                mBatteryPresent, isAdmin);
 
-        setTileEnabled(new ComponentName(packageName,
+        putTileEnabled(tiles, new ComponentName(packageName,
                 Settings.UserSettingsActivity.class.getName()),
                 UserHandle.MU_ENABLED && UserManager.supportsMultipleUsers()
-                && !Utils.isMonkeyRunning(), isAdmin, pm);
+                && !Utils.isMonkeyRunning(), isAdmin);
 
-        setTileEnabled(new ComponentName(packageName,
+        putTileEnabled(tiles, new ComponentName(packageName,
                         Settings.WirelessSettingsActivity.class.getName()),
-                !UserManager.isDeviceInDemoMode(this), isAdmin, pm);
+                !UserManager.isDeviceInDemoMode(this), isAdmin);
 
-        setTileEnabled(new ComponentName(packageName,
+        putTileEnabled(tiles, new ComponentName(packageName,
                         Settings.DateTimeSettingsActivity.class.getName()),
-                !UserManager.isDeviceInDemoMode(this), isAdmin, pm);
+                !UserManager.isDeviceInDemoMode(this), isAdmin);
         NfcAdapter adapter = NfcAdapter.getDefaultAdapter(this);
-        setTileEnabled(new ComponentName(packageName,
+        putTileEnabled(tiles, new ComponentName(packageName,
                         Settings.PaymentSettingsActivity.class.getName()),
-                pm.hasSystemFeature(PackageManager.FEATURE_NFC)
-                        && pm.hasSystemFeature(PackageManager.FEATURE_NFC_HOST_CARD_EMULATION)
-                        && adapter != null && adapter.isEnabled(), isAdmin, pm);
+                cache.hasSystemFeature(pm, PackageManager.FEATURE_NFC)
+                        && cache.hasSystemFeature(pm,
+                                PackageManager.FEATURE_NFC_HOST_CARD_EMULATION)
+                        && adapter != null && adapter.isEnabled(), isAdmin);
 
-        setTileEnabled(new ComponentName(packageName,
+        putTileEnabled(tiles, new ComponentName(packageName,
                 Settings.PrintSettingsActivity.class.getName()),
-                pm.hasSystemFeature(PackageManager.FEATURE_PRINTING), isAdmin, pm);
+                cache.hasSystemFeature(pm, PackageManager.FEATURE_PRINTING), isAdmin);
 
         final boolean showDev = mDevelopmentPreferences.getBoolean(
                     DevelopmentSettings.PREF_SHOW, android.os.Build.TYPE.equals("eng"))
                 && !um.hasUserRestriction(UserManager.DISALLOW_DEBUGGING_FEATURES);
-        setTileEnabled(new ComponentName(packageName,
+        putTileEnabled(tiles, new ComponentName(packageName,
                         Settings.DevelopmentSettingsActivity.class.getName()),
-                showDev, isAdmin, pm);
+                showDev, isAdmin);
 
         // Reveal development-only quick settings tiles
         DevelopmentTiles.setTilesEnabled(this, showDev);
@@ -1114,7 +1119,7 @@ public class SettingsActivity extends SettingsDrawerActivity
                     ComponentName component = tile.intent.getComponent();
                     if (packageName.equals(component.getPackageName()) && !ArrayUtils.contains(
                             SETTINGS_FOR_RESTRICTED, component.getClassName())) {
-                        setTileEnabled(component, false, isAdmin, pm);
+                        putTileEnabled(tiles, component, false, isAdmin);
                     }
                 }
             }
@@ -1122,8 +1127,8 @@ public class SettingsActivity extends SettingsDrawerActivity
 
         String backupIntent = getResources().getString(R.string.config_backup_settings_intent);
         boolean useDefaultBackup = TextUtils.isEmpty(backupIntent);
-        setTileEnabled(new ComponentName(packageName,
-                Settings.PrivacySettingsActivity.class.getName()), useDefaultBackup, isAdmin, pm);
+        putTileEnabled(tiles, new ComponentName(packageName,
+                Settings.PrivacySettingsActivity.class.getName()), useDefaultBackup, isAdmin);
         boolean hasBackupActivity = false;
         if (!useDefaultBackup) {
             try {
@@ -1133,18 +1138,38 @@ public class SettingsActivity extends SettingsDrawerActivity
                 Log.e(LOG_TAG, "Invalid backup intent URI!", e);
             }
         }
-        setTileEnabled(new ComponentName(packageName,
-                BackupSettingsActivity.class.getName()), hasBackupActivity, isAdmin, pm);
+        putTileEnabled(tiles, new ComponentName(packageName,
+                BackupSettingsActivity.class.getName()), hasBackupActivity, isAdmin);
 
+        applyTileStates(tiles, cache);
     }
 
-    private void setTileEnabled(ComponentName component, boolean enabled, boolean isAdmin,
-                                PackageManager pm) {
+    private void putTileEnabled(ArrayMap<ComponentName, Boolean> tiles, ComponentName component,
+            boolean enabled, boolean isAdmin) {
         if (UserHandle.MU_ENABLED && !isAdmin && getPackageName().equals(component.getPackageName())
                 && !ArrayUtils.contains(SETTINGS_FOR_RESTRICTED, component.getClassName())) {
             enabled = false;
         }
-        setTileEnabled(component, enabled);
+        tiles.put(component, enabled);
+    }
+
+    /**
+     * Only set the state of the tiles which didn't get it last time, all at once.
+     */
+    private void applyTileStates(ArrayMap<ComponentName, Boolean> tiles,
+            ComponentStateCache cache) {
+        final ArrayMap<ComponentName, Integer> applied = new ArrayMap<>();
+        for (int i = 0; i < tiles.size(); i++) {
+            final ComponentName component = tiles.keyAt(i);
+            final boolean enabled = tiles.valueAt(i);
+            final int state = enabled ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                    : PackageManager.COMPONENT_ENABLED_STATE_DISABLED;
+            if (!cache.isApplied(component, state)) {
+                setTileEnabled(component, enabled);
+                applied.put(component, state);
+            }
+        }
+        cache.setApplied(applied);
     }
 
     private void getMetaData() {
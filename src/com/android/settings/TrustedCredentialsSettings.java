@@ -62,12 +62,17 @@ import com.android.internal.logging.MetricsProto.MetricsEvent;
 import com.android.internal.util.ParcelableString;
 import com.android.internal.widget.LockPatternUtils;
 
-import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.IntConsumer;
 
 public class TrustedCredentialsSettings extends OptionsMenuFragment
@@ -86,6 +91,9 @@ public class TrustedCredentialsSettings extends OptionsMenuFragment
     private static final String USER_ACTION = "com.android.settings.TRUSTED_CREDENTIALS_USER";
     private static final int REQUEST_CONFIRM_CREDENTIALS = 1;
 
+    // Certificates are loaded by batches of this many, on as many threads as there are cores.
+    private static final int LOAD_BATCH_SIZE = 16;
+
     @Override
     protected int getMetricsCategory() {
         return MetricsEvent.TRUSTED_CREDENTIALS;
@@ -648,7 +656,26 @@ public class TrustedCredentialsSettings extends OptionsMenuFragment
             mTab = tab;
         }
 
-        private class AliasLoader extends AsyncTask<Void, Integer, SparseArray<List<CertHolder>>> {
+        /**
+         * Certificates of a profile loaded together, to be shown while the others load.
+         */
+        private class CertBatch {
+            private final int mProfileId;
+            private final List<CertHolder> mCertHolders;
+            private final int mProgress;
+            private final int mMax;
+
+            private CertBatch(int profileId, List<CertHolder> certHolders, int progress,
+                    int max) {
+                mProfileId = profileId;
+                mCertHolders = certHolders;
+                mProgress = progress;
+                mMax = max;
+            }
+        }
+
+        private class AliasLoader
+                extends AsyncTask<Void, CertBatch, SparseArray<List<CertHolder>>> {
             private ProgressBar mProgressBar;
             private View mContentView;
             private Context mContext;
@@ -677,6 +704,7 @@ public class TrustedCredentialsSettings extends OptionsMenuFragment
             @Override protected SparseArray<List<CertHolder>> doInBackground(Void... params) {
                 SparseArray<List<CertHolder>> certHoldersByProfile =
                         new SparseArray<List<CertHolder>>();
+                ExecutorService executor = null;
                 try {
                     List<UserHandle> profiles = mUserManager.getUserProfiles();
                     final int n = profiles.size();
@@ -704,35 +732,54 @@ public class TrustedCredentialsSettings extends OptionsMenuFragment
                         max += aliases.size();
                         aliasesByProfileId.put(profileId, aliases);
                     }
+
+                    // Then the certificates are fetched, parsed and checked by batches on a pool
+                    // of threads, while this thread hands them over to the list as they come.
+                    final CertSubjectCache cache = CertSubjectCache.get(mContext);
+                    executor = Executors.newFixedThreadPool(
+                            Runtime.getRuntime().availableProcessors());
+                    final CompletionService<CertBatch> completionService =
+                            new ExecutorCompletionService<CertBatch>(executor);
+                    int batches = 0;
                     for (int i = 0; i < n; ++i) {
                         UserHandle profile = profiles.get(i);
-                        int profileId = profile.getIdentifier();
+                        final int profileId = profile.getIdentifier();
                         List<ParcelableString> aliases = aliasesByProfileId.get(profileId);
-                        if (isCancelled()) {
-                            return new SparseArray<List<CertHolder>>();
-                        }
                         KeyChainConnection keyChainConnection = mKeyChainConnectionByProfileId.get(
                                 profileId);
+                        certHoldersByProfile.put(profileId, new ArrayList<CertHolder>());
                         if (shouldSkipProfile(profile) || aliases == null
                                 || keyChainConnection == null) {
-                            certHoldersByProfile.put(profileId, new ArrayList<CertHolder>(0));
                             continue;
                         }
-                        IKeyChainService service = keyChainConnection.getService();
-                        List<CertHolder> certHolders = new ArrayList<CertHolder>(max);
+                        final IKeyChainService service = keyChainConnection.getService();
                         final int aliasMax = aliases.size();
-                        for (int j = 0; j < aliasMax; ++j) {
-                            String alias = aliases.get(j).string;
-                            byte[] encodedCertificate = service.getEncodedCaCertificate(alias,
-                                    true);
-                            X509Certificate cert = KeyChain.toCertificate(encodedCertificate);
-                            certHolders.add(new CertHolder(service, mAdapter,
-                                    mTab, alias, cert, profileId));
-                            publishProgress(++progress, max);
+                        for (int j = 0; j < aliasMax; j += LOAD_BATCH_SIZE) {
+                            final List<ParcelableString> batch =
+                                    aliases.subList(j, Math.min(j + LOAD_BATCH_SIZE, aliasMax));
+                            completionService.submit(new Callable<CertBatch>() {
+                                @Override
+                                public CertBatch call() throws RemoteException {
+                                    return loadCertBatch(service, cache, profileId, batch);
+                                }
+                            });
+                            batches++;
+                        }
+                    }
+                    for (int i = 0; i < batches; ++i) {
+                        if (isCancelled()) {
+                            return new SparseArray<List<CertHolder>>();
                         }
-                        Collections.sort(certHolders);
-                        certHoldersByProfile.put(profileId, certHolders);
+                        final CertBatch batch = completionService.take().get();
+                        progress += batch.mMax;
+                        certHoldersByProfile.get(batch.mProfileId).addAll(batch.mCertHolders);
+                        publishProgress(new CertBatch(batch.mProfileId, batch.mCertHolders,
+                                progress, max));
+                    }
+                    for (int i = 0; i < certHoldersByProfile.size(); ++i) {
+                        Collections.sort(certHoldersByProfile.valueAt(i));
                     }
+                    cache.save();
                     return certHoldersByProfile;
                 } catch (RemoteException e) {
                     Log.e(TAG, "Remote exception while loading aliases.", e);
@@ -740,15 +787,74 @@ public class TrustedCredentialsSettings extends OptionsMenuFragment
                 } catch (InterruptedException e) {
                     Log.e(TAG, "InterruptedException while loading aliases.", e);
                     return new SparseArray<List<CertHolder>>();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Exception while loading certificates.", e);
+                    return new SparseArray<List<CertHolder>>();
+                } finally {
+                    if (executor != null) {
+                        executor.shutdownNow();
+                    }
+                }
+            }
+
+            /**
+             * Fetch the certificates of the aliases and read their subject, from the cache when
+             * they didn't change. Called on a worker thread.
+             *
+             * @return the batch, with the number of aliases in it as max.
+             */
+            private CertBatch loadCertBatch(IKeyChainService service, CertSubjectCache cache,
+                    int profileId, List<ParcelableString> aliases) throws RemoteException {
+                final List<CertHolder> certHolders = new ArrayList<CertHolder>(aliases.size());
+                for (ParcelableString parcelableAlias : aliases) {
+                    if (isCancelled()) {
+                        break;
+                    }
+                    final String alias = parcelableAlias.string;
+                    final byte[] encodedCertificate = service.getEncodedCaCertificate(alias, true);
+                    if (encodedCertificate == null) {
+                        Log.w(TAG, "No certificate for alias " + alias);
+                        continue;
+                    }
+                    final byte[] digest = CertSubjectCache.digest(encodedCertificate);
+                    CertSubjectCache.Subject subject = cache.getSubject(alias, digest);
+                    if (subject == null) {
+                        subject = CertHolder.readSubject(
+                                KeyChain.toCertificate(encodedCertificate), digest);
+                        cache.putSubject(alias, subject);
+                    }
+                    boolean deleted;
+                    try {
+                        deleted = mTab.deleted(service, alias);
+                    } catch (RemoteException e) {
+                        Log.e(TAG, "Remote exception while checking if alias " + alias
+                                + " is deleted.", e);
+                        deleted = false;
+                    }
+                    certHolders.add(new CertHolder(mAdapter, mTab, alias, encodedCertificate,
+                            subject, deleted, profileId));
                 }
+                return new CertBatch(profileId, certHolders, 0, aliases.size());
             }
-            @Override protected void onProgressUpdate(Integer... progressAndMax) {
-                int progress = progressAndMax[0];
-                int max = progressAndMax[1];
-                if (max != mProgressBar.getMax()) {
-                    mProgressBar.setMax(max);
+
+            @Override protected void onProgressUpdate(CertBatch... batches) {
+                final CertBatch batch = batches[0];
+                if (batch.mMax != mProgressBar.getMax()) {
+                    mProgressBar.setMax(batch.mMax);
+                }
+                mProgressBar.setProgress(batch.mProgress);
+                if (batch.mCertHolders.isEmpty()) {
+                    return;
+                }
+                // Show the certificates loaded so far, the list doesn't wait for the others.
+                final List<CertHolder> certHolders = mCertHoldersByUserId.get(batch.mProfileId);
+                if (certHolders != null) {
+                    certHolders.addAll(batch.mCertHolders);
+                    Collections.sort(certHolders);
+                    mAdapter.notifyDataSetChanged();
+                    mProgressBar.setVisibility(View.GONE);
+                    mContentView.setVisibility(View.VISIBLE);
                 }
-                mProgressBar.setProgress(progress);
             }
             @Override protected void onPostExecute(SparseArray<List<CertHolder>> certHolders) {
                 mCertHoldersByUserId.clear();
@@ -807,62 +913,56 @@ public class TrustedCredentialsSettings extends OptionsMenuFragment
 
     /* package */ static class CertHolder implements Comparable<CertHolder> {
         public int mProfileId;
-        private final IKeyChainService mService;
         private final GroupAdapter mAdapter;
         private final Tab mTab;
         private final String mAlias;
-        private final X509Certificate mX509Cert;
+        private final byte[] mEncodedCert;
 
-        private final SslCertificate mSslCert;
         private final String mSubjectPrimary;
         private final String mSubjectSecondary;
         private boolean mDeleted;
 
-        private CertHolder(IKeyChainService service,
-                           GroupAdapter adapter,
+        private CertHolder(GroupAdapter adapter,
                            Tab tab,
                            String alias,
-                           X509Certificate x509Cert,
+                           byte[] encodedCert,
+                           CertSubjectCache.Subject subject,
+                           boolean deleted,
                            int profileId) {
             mProfileId = profileId;
-            mService = service;
             mAdapter = adapter;
             mTab = tab;
             mAlias = alias;
-            mX509Cert = x509Cert;
+            mEncodedCert = encodedCert;
+            mSubjectPrimary = subject.primary;
+            mSubjectSecondary = subject.secondary;
+            mDeleted = deleted;
+        }
 
-            mSslCert = new SslCertificate(x509Cert);
+        private static CertSubjectCache.Subject readSubject(X509Certificate x509Cert,
+                byte[] digest) {
+            final SslCertificate sslCert = new SslCertificate(x509Cert);
 
-            String cn = mSslCert.getIssuedTo().getCName();
-            String o = mSslCert.getIssuedTo().getOName();
-            String ou = mSslCert.getIssuedTo().getUName();
+            String cn = sslCert.getIssuedTo().getCName();
+            String o = sslCert.getIssuedTo().getOName();
+            String ou = sslCert.getIssuedTo().getUName();
             // if we have a O, use O as primary subject, secondary prefer CN over OU
             // if we don't have an O, use CN as primary, empty secondary
             // if we don't have O or CN, use DName as primary, empty secondary
             if (!o.isEmpty()) {
                 if (!cn.isEmpty()) {
-                    mSubjectPrimary = o;
-                    mSubjectSecondary = cn;
+                    return new CertSubjectCache.Subject(digest, o, cn);
                 } else {
-                    mSubjectPrimary = o;
-                    mSubjectSecondary = ou;
+                    return new CertSubjectCache.Subject(digest, o, ou);
                 }
             } else {
                 if (!cn.isEmpty()) {
-                    mSubjectPrimary = cn;
-                    mSubjectSecondary = "";
+                    return new CertSubjectCache.Subject(digest, cn, "");
                 } else {
-                    mSubjectPrimary = mSslCert.getIssuedTo().getDName();
-                    mSubjectSecondary = "";
+                    return new CertSubjectCache.Subject(digest,
+                            sslCert.getIssuedTo().getDName(), "");
                 }
             }
-            try {
-                mDeleted = mTab.deleted(mService, mAlias);
-            } catch (RemoteException e) {
-                Log.e(TAG, "Remote exception while checking if alias " + mAlias + " is deleted.",
-                        e);
-                mDeleted = false;
-            }
         }
         @Override public int compareTo(CertHolder o) {
             int primary = this.mSubjectPrimary.compareToIgnoreCase(o.mSubjectPrimary);
@@ -983,14 +1083,12 @@ public class TrustedCredentialsSettings extends OptionsMenuFragment
                         mCertHolder.mProfileId);
                 IKeyChainService service = keyChainConnection.getService();
                 if (mCertHolder.mDeleted) {
-                    byte[] bytes = mCertHolder.mX509Cert.getEncoded();
-                    service.installCaCertificate(bytes);
+                    service.installCaCertificate(mCertHolder.mEncodedCert);
                     return true;
                 } else {
                     return service.deleteCaCertificate(mCertHolder.mAlias);
                 }
-            } catch (CertificateEncodingException | SecurityException | IllegalStateException
-                    | RemoteException e) {
+            } catch (SecurityException | IllegalStateException | RemoteException e) {
                 Log.w(TAG, "Error while toggling alias " + mCertHolder.mAlias, e);
                 return false;
             }
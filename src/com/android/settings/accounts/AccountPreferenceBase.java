@@ -17,17 +17,15 @@
 
 package com.android.settings.accounts;
 
+import android.accounts.Account;
 import android.accounts.AuthenticatorDescription;
 import android.app.Activity;
-import android.content.ContentResolver;
 import android.content.Context;
-import android.content.SyncStatusObserver;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.content.res.Resources.Theme;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.support.v7.preference.PreferenceScreen;
@@ -50,10 +48,8 @@ abstract class AccountPreferenceBase extends SettingsPreferenceFragment
     public static final String AUTHORITIES_FILTER_KEY = "authorities";
     public static final String ACCOUNT_TYPES_FILTER_KEY = "account_types";
 
-    private final Handler mHandler = new Handler();
-
     private UserManager mUm;
-    private Object mStatusChangeListenerHandle;
+    private SyncStateRepository mSyncStateRepository;
     protected AuthenticatorHelper mAuthenticatorHelper;
     protected UserHandle mUserHandle;
 
@@ -68,6 +64,7 @@ abstract class AccountPreferenceBase extends SettingsPreferenceFragment
         mUserHandle = Utils.getSecureTargetUser(activity.getActivityToken(), mUm, getArguments(),
                 activity.getIntent().getExtras());
         mAuthenticatorHelper = new AuthenticatorHelper(activity, mUserHandle, this);
+        mSyncStateRepository = SyncStateRepository.get(activity);
     }
 
     /**
@@ -92,6 +89,27 @@ abstract class AccountPreferenceBase extends SettingsPreferenceFragment
 
     }
 
+    /**
+     * Returns the sync state of the accounts of the user, as last read.
+     */
+    protected SyncStateRepository.Snapshot getSyncState() {
+        return mSyncStateRepository.getSnapshot(mUserHandle.getIdentifier());
+    }
+
+    /**
+     * Returns the sync state of the account, as last read.
+     */
+    protected SyncStateRepository.Snapshot getSyncState(Account account) {
+        return mSyncStateRepository.getSnapshot(mUserHandle.getIdentifier(), account);
+    }
+
+    /**
+     * Read the sync state again next time, as the accounts or their sync settings changed.
+     */
+    protected void invalidateSyncState() {
+        mSyncStateRepository.invalidate(mUserHandle.getIdentifier());
+    }
+
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
@@ -105,27 +123,21 @@ abstract class AccountPreferenceBase extends SettingsPreferenceFragment
     @Override
     public void onResume() {
         super.onResume();
-        mStatusChangeListenerHandle = ContentResolver.addStatusChangeListener(
-                ContentResolver.SYNC_OBSERVER_TYPE_ACTIVE
-                | ContentResolver.SYNC_OBSERVER_TYPE_STATUS
-                | ContentResolver.SYNC_OBSERVER_TYPE_SETTINGS,
-                mSyncStatusObserver);
+        mSyncStateRepository.addListener(mUserHandle.getIdentifier(), mSyncStateListener);
         onSyncStateUpdated();
     }
 
     @Override
     public void onPause() {
         super.onPause();
-        ContentResolver.removeStatusChangeListener(mStatusChangeListenerHandle);
+        mSyncStateRepository.removeListener(mSyncStateListener);
     }
 
-    private SyncStatusObserver mSyncStatusObserver = new SyncStatusObserver() {
-        public void onStatusChanged(int which) {
-            mHandler.post(new Runnable() {
-                public void run() {
-                    onSyncStateUpdated();
-                }
-            });
+    private final SyncStateRepository.Listener mSyncStateListener =
+            new SyncStateRepository.Listener() {
+        @Override
+        public void onSyncStateChanged() {
+            onSyncStateUpdated();
         }
     };
 
@@ -31,8 +31,6 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentSender;
 import android.content.SyncAdapterType;
-import android.content.SyncInfo;
-import android.content.SyncStatusInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.content.pm.UserInfo;
@@ -62,7 +60,6 @@ import com.android.settingslib.RestrictedLockUtils;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 
 import static com.android.settingslib.RestrictedLockUtils.EnforcedAdmin;
 
@@ -84,6 +81,8 @@ public class AccountSyncSettings extends AccountPreferenceBase {
     private ArrayList<SyncStateSwitchPreference> mSwitches =
                 new ArrayList<SyncStateSwitchPreference>();
     private ArrayList<SyncAdapterType> mInvisibleAdapters = Lists.newArrayList();
+    // The sync state the switches show, null when they have to be updated from scratch.
+    private SyncStateRepository.Snapshot mShownSyncState;
 
     @Override
     public Dialog onCreateDialog(final int id) {
@@ -355,6 +354,10 @@ public class AccountSyncSettings extends AccountPreferenceBase {
             String authority = syncPref.getAuthority();
             Account account = syncPref.getAccount();
             final int userId = mUserHandle.getIdentifier();
+            // The switch may not get the state it was toggled to, read and show the state as is
+            // next time, without waiting for the sync state to settle.
+            invalidateSyncState();
+            mShownSyncState = null;
             String packageName = syncPref.getPackageName();
 
             boolean syncAutomatically = ContentResolver.getSyncAutomaticallyAsUser(account,
@@ -473,15 +476,6 @@ public class AccountSyncSettings extends AccountPreferenceBase {
         }
     }
 
-    private boolean isSyncing(List<SyncInfo> currentSyncs, Account account, String authority) {
-        for (SyncInfo syncInfo : currentSyncs) {
-            if (syncInfo.account.equals(account) && syncInfo.authority.equals(authority)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     @Override
     protected void onSyncStateUpdated() {
         if (!isResumed()) return;
@@ -495,12 +489,20 @@ public class AccountSyncSettings extends AccountPreferenceBase {
     private void setFeedsState() {
         // iterate over all the preferences, setting the state properly for each
         Date date = new Date();
-        final int userId = mUserHandle.getIdentifier();
-        List<SyncInfo> currentSyncs = ContentResolver.getCurrentSyncsAsUser(userId);
+        final SyncStateRepository.Snapshot snapshot = getSyncState(mAccount);
+        final SyncStateRepository.Snapshot shownSyncState = mShownSyncState;
+        if (snapshot == shownSyncState) {
+            return;
+        }
         boolean syncIsFailing = false;
 
         // Refresh the sync status switches - some syncs may have become active.
-        updateAccountSwitches();
+        final boolean updateAll = shownSyncState == null
+                || shownSyncState.masterSyncAutomatically != snapshot.masterSyncAutomatically
+                || !snapshot.hasSameAdapters(shownSyncState, mAccount);
+        if (updateAll) {
+            updateAccountSwitches(snapshot);
+        }
 
         for (int i = 0, count = getPreferenceScreen().getPreferenceCount(); i < count; i++) {
             Preference pref = getPreferenceScreen().getPreference(i);
@@ -512,27 +514,30 @@ public class AccountSyncSettings extends AccountPreferenceBase {
             String authority = syncPref.getAuthority();
             Account account = syncPref.getAccount();
 
-            SyncStatusInfo status = ContentResolver.getSyncStatusAsUser(account, authority, userId);
-            boolean syncEnabled = ContentResolver.getSyncAutomaticallyAsUser(account, authority,
-                    userId);
-            boolean authorityIsPending = status == null ? false : status.pending;
-            boolean initialSync = status == null ? false : status.initialize;
-
-            boolean activelySyncing = isSyncing(currentSyncs, account, authority);
-            boolean lastSyncFailed = status != null
-                    && status.lastFailureTime != 0
-                    && status.getLastFailureMesgAsInt(0)
-                       != ContentResolver.SYNC_ERROR_SYNC_ALREADY_IN_PROGRESS;
-            if (!syncEnabled) lastSyncFailed = false;
+            final SyncStateRepository.AuthorityState state =
+                    snapshot.getState(account, authority);
+            if (state == null) {
+                continue;
+            }
+            boolean syncEnabled = state.syncAutomatically;
+            boolean authorityIsPending = state.pending;
+            boolean initialSync = state.initialize;
+
+            boolean activelySyncing = state.syncing;
+            boolean lastSyncFailed = syncEnabled && state.lastSyncFailed();
             if (lastSyncFailed && !activelySyncing && !authorityIsPending) {
                 syncIsFailing = true;
             }
+            // Only update the switches whose state changed
+            if (!updateAll && state.equals(shownSyncState.getState(account, authority))) {
+                continue;
+            }
             if (Log.isLoggable(TAG, Log.VERBOSE)) {
                 Log.d(TAG, "Update sync status: " + account + " " + authority +
                         " active = " + activelySyncing + " pend =" +  authorityIsPending);
             }
 
-            final long successEndTime = (status == null) ? 0 : status.lastSuccessTime;
+            final long successEndTime = state.lastSuccessTime;
             if (!syncEnabled) {
                 syncPref.setSummary(R.string.sync_disabled);
             } else if (activelySyncing) {
@@ -544,7 +549,7 @@ public class AccountSyncSettings extends AccountPreferenceBase {
             } else {
                 syncPref.setSummary("");
             }
-            int syncState = ContentResolver.getIsSyncableAsUser(account, authority, userId);
+            int syncState = state.syncable;
 
             syncPref.setActive(activelySyncing && (syncState >= 0) &&
                     !initialSync);
@@ -552,11 +557,11 @@ public class AccountSyncSettings extends AccountPreferenceBase {
                     !initialSync);
 
             syncPref.setFailed(lastSyncFailed);
-            final boolean oneTimeSyncMode = !ContentResolver.getMasterSyncAutomaticallyAsUser(
-                userId);
+            final boolean oneTimeSyncMode = !snapshot.masterSyncAutomatically;
             syncPref.setOneTimeSyncMode(oneTimeSyncMode);
             syncPref.setChecked(oneTimeSyncMode || syncEnabled);
         }
+        mShownSyncState = snapshot;
         mErrorInfoView.setVisibility(syncIsFailing ? View.VISIBLE : View.GONE);
     }
 
@@ -568,7 +573,8 @@ public class AccountSyncSettings extends AccountPreferenceBase {
             finish();
             return;
         }
-        updateAccountSwitches();
+        invalidateSyncState();
+        mShownSyncState = null;
         onSyncStateUpdated();
     }
 
@@ -586,11 +592,10 @@ public class AccountSyncSettings extends AccountPreferenceBase {
         return false;
     }
 
-    private void updateAccountSwitches() {
+    private void updateAccountSwitches(SyncStateRepository.Snapshot snapshot) {
         mInvisibleAdapters.clear();
 
-        SyncAdapterType[] syncAdapters = ContentResolver.getSyncAdapterTypesAsUser(
-                mUserHandle.getIdentifier());
+        SyncAdapterType[] syncAdapters = snapshot.getSyncAdapters();
         ArrayList<SyncAdapterType> authorities = new ArrayList<>();
         for (int i = 0, n = syncAdapters.length; i < n; i++) {
             final SyncAdapterType sa = syncAdapters[i];
@@ -616,8 +621,9 @@ public class AccountSyncSettings extends AccountPreferenceBase {
         for (int j = 0, m = authorities.size(); j < m; j++) {
             final SyncAdapterType syncAdapter = authorities.get(j);
             // We could check services here....
-            int syncState = ContentResolver.getIsSyncableAsUser(mAccount, syncAdapter.authority,
-                    mUserHandle.getIdentifier());
+            final SyncStateRepository.AuthorityState state =
+                    snapshot.getState(mAccount, syncAdapter.authority);
+            int syncState = state != null ? state.syncable : -1;
             if (Log.isLoggable(TAG, Log.VERBOSE)) {
                 Log.d(TAG, "  found authority " + syncAdapter.authority + " " + syncState);
             }
@@ -24,8 +24,6 @@ import android.app.Activity;
 import android.content.ContentResolver;
 import android.content.Intent;
 import android.content.SyncAdapterType;
-import android.content.SyncInfo;
-import android.content.SyncStatusInfo;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
@@ -57,7 +55,6 @@ import com.android.settingslib.accounts.AuthenticatorHelper;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
-import java.util.List;
 
 import static android.content.Intent.EXTRA_USER;
 
@@ -86,6 +83,8 @@ public class ManageAccountsSettings extends AccountPreferenceBase
     // Temporary hack, to deal with backward compatibility 
     // mFirstAccount is used for the injected preferences
     private Account mFirstAccount;
+    // The sync state the account preferences show, to only update those that changed
+    private SyncStateRepository.Snapshot mShownSyncState;
 
     @Override
     protected int getMetricsCategory() {
@@ -254,16 +253,19 @@ public class ManageAccountsSettings extends AccountPreferenceBase
         // Catch any delayed delivery of update messages
         if (getActivity() == null || getActivity().isFinishing()) return;
 
-        final int userId = mUserHandle.getIdentifier();
-
-        // iterate over all the preferences, setting the state properly for each
-        List<SyncInfo> currentSyncs = ContentResolver.getCurrentSyncsAsUser(userId);
+        final SyncStateRepository.Snapshot snapshot = getSyncState();
+        final SyncStateRepository.Snapshot shownSyncState = mShownSyncState;
+        if (snapshot == shownSyncState) {
+            return;
+        }
+        final boolean updateAll = shownSyncState == null
+                || shownSyncState.masterSyncAutomatically != snapshot.masterSyncAutomatically;
 
         boolean anySyncFailed = false; // true if sync on any account failed
         Date date = new Date();
 
         // only track userfacing sync adapters when deciding if account is synced or not
-        final SyncAdapterType[] syncAdapters = ContentResolver.getSyncAdapterTypesAsUser(userId);
+        final SyncAdapterType[] syncAdapters = snapshot.getSyncAdapters();
         HashSet<String> userFacing = new HashSet<String>();
         for (int k = 0, n = syncAdapters.length; k < n; k++) {
             final SyncAdapterType sa = syncAdapters[k];
@@ -284,25 +286,29 @@ public class ManageAccountsSettings extends AccountPreferenceBase
             boolean syncIsFailing = false;
             final ArrayList<String> authorities = accountPref.getAuthorities();
             boolean syncingNow = false;
+            boolean changed = updateAll;
             if (authorities != null) {
                 for (String authority : authorities) {
-                    SyncStatusInfo status = ContentResolver.getSyncStatusAsUser(account, authority,
-                            userId);
-                    boolean syncEnabled = isSyncEnabled(userId, account, authority);
-                    boolean authorityIsPending = ContentResolver.isSyncPending(account, authority);
-                    boolean activelySyncing = isSyncing(currentSyncs, account, authority);
-                    boolean lastSyncFailed = status != null
-                            && syncEnabled
-                            && status.lastFailureTime != 0
-                            && status.getLastFailureMesgAsInt(0)
-                               != ContentResolver.SYNC_ERROR_SYNC_ALREADY_IN_PROGRESS;
+                    final SyncStateRepository.AuthorityState state =
+                            snapshot.getState(account, authority);
+                    if (state == null) {
+                        continue;
+                    }
+                    if (!changed) {
+                        changed = !state.equals(shownSyncState.getState(account, authority));
+                    }
+                    boolean syncEnabled = snapshot.masterSyncAutomatically
+                            && state.syncAutomatically && state.syncable > 0;
+                    boolean authorityIsPending = state.pending;
+                    boolean activelySyncing = state.syncing;
+                    boolean lastSyncFailed = syncEnabled && state.lastSyncFailed();
                     if (lastSyncFailed && !activelySyncing && !authorityIsPending) {
                         syncIsFailing = true;
                         anySyncFailed = true;
                     }
                     syncingNow |= activelySyncing;
-                    if (status != null && lastSuccessTime < status.lastSuccessTime) {
-                        lastSuccessTime = status.lastSuccessTime;
+                    if (lastSuccessTime < state.lastSuccessTime) {
+                        lastSuccessTime = state.lastSuccessTime;
                     }
                     syncCount += syncEnabled && userFacing.contains(authority) ? 1 : 0;
                 }
@@ -311,6 +317,10 @@ public class ManageAccountsSettings extends AccountPreferenceBase
                     Log.v(TAG, "no syncadapters found for " + account);
                 }
             }
+            // Only update the accounts whose state changed
+            if (!changed) {
+                continue;
+            }
             if (syncIsFailing) {
                 accountPref.setSyncStatus(AccountPreference.SYNC_ERROR, true);
             } else if (syncCount == 0) {
@@ -333,29 +343,15 @@ public class ManageAccountsSettings extends AccountPreferenceBase
             }
         }
 
+        mShownSyncState = snapshot;
         mErrorInfoView.setVisibility(anySyncFailed ? View.VISIBLE : View.GONE);
     }
 
-
-    private boolean isSyncing(List<SyncInfo> currentSyncs, Account account, String authority) {
-        final int count = currentSyncs.size();
-        for (int i = 0; i < count;  i++) {
-            SyncInfo syncInfo = currentSyncs.get(i);
-            if (syncInfo.account.equals(account) && syncInfo.authority.equals(authority)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private boolean isSyncEnabled(int userId, Account account, String authority) {
-        return ContentResolver.getSyncAutomaticallyAsUser(account, authority, userId)
-                && ContentResolver.getMasterSyncAutomaticallyAsUser(userId)
-                && (ContentResolver.getIsSyncableAsUser(account, authority, userId) > 0);
-    }
-
     @Override
     public void onAccountsUpdate(UserHandle userHandle) {
+        invalidateSyncState();
+        // The account preferences may have been created again
+        mShownSyncState = null;
         showAccountsIfNeeded();
         onSyncStateUpdated();
     }
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.accounts;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SyncAdapterType;
+import android.content.SyncInfo;
+import android.content.SyncStatusInfo;
+import android.content.SyncStatusObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The sync state of the accounts of each user, read in one go into an immutable
+ * {@link Snapshot} that the account screens share until it changes. A snapshot covers either
+ * all the accounts of the user or a single one, so that a screen showing one account doesn't
+ * read the state of the others.
+ *
+ * The repository listens to the sync state while it has listeners, and reads a new snapshot
+ * for their users once a burst of changes is over. Only used on the main thread.
+ */
+class SyncStateRepository {
+
+    private static final long UPDATE_DELAY_MILLIS = 100;
+
+    private static SyncStateRepository sInstance;
+
+    interface Listener {
+        void onSyncStateChanged();
+    }
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // By user, then by account, the null account standing for all the accounts of the user
+    private final SparseArray<ArrayMap<Account, Snapshot>> mSnapshots = new SparseArray<>();
+    private final ArrayMap<Listener, Integer> mListeners = new ArrayMap<>();
+    private Object mStatusChangeListenerHandle;
+
+    private final SyncStatusObserver mSyncStatusObserver = new SyncStatusObserver() {
+        @Override
+        public void onStatusChanged(int which) {
+            mHandler.removeCallbacks(mUpdateRunnable);
+            mHandler.postDelayed(mUpdateRunnable, UPDATE_DELAY_MILLIS);
+        }
+    };
+
+    private final Runnable mUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mSnapshots.clear();
+            final ArraySet<Listener> listeners = new ArraySet<>(mListeners.keySet());
+            for (Listener listener : listeners) {
+                if (mListeners.containsKey(listener)) {
+                    listener.onSyncStateChanged();
+                }
+            }
+        }
+    };
+
+    private SyncStateRepository(Context context) {
+        mContext = context;
+    }
+
+    static SyncStateRepository get(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncStateRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    void addListener(int userId, Listener listener) {
+        if (mListeners.isEmpty()) {
+            // Changes may have been missed while nobody listened
+            mSnapshots.clear();
+            mStatusChangeListenerHandle = ContentResolver.addStatusChangeListener(
+                    ContentResolver.SYNC_OBSERVER_TYPE_ACTIVE
+                    | ContentResolver.SYNC_OBSERVER_TYPE_STATUS
+                    | ContentResolver.SYNC_OBSERVER_TYPE_SETTINGS,
+                    mSyncStatusObserver);
+        }
+        mListeners.put(listener, userId);
+    }
+
+    void removeListener(Listener listener) {
+        if (mListeners.remove(listener) != null && mListeners.isEmpty()) {
+            ContentResolver.removeStatusChangeListener(mStatusChangeListenerHandle);
+            mStatusChangeListenerHandle = null;
+            mHandler.removeCallbacks(mUpdateRunnable);
+        }
+    }
+
+    /**
+     * Forget the snapshots of the user, as its accounts or their sync settings changed.
+     */
+    void invalidate(int userId) {
+        mSnapshots.remove(userId);
+    }
+
+    /**
+     * Returns the current sync state of all the accounts of the user, read again only if it
+     * changed since.
+     */
+    Snapshot getSnapshot(int userId) {
+        return getSnapshot(userId, null);
+    }
+
+    /**
+     * Returns the current sync state of the account, or of all the accounts of the user if
+     * null, read again only if it changed since.
+     */
+    Snapshot getSnapshot(int userId, Account account) {
+        ArrayMap<Account, Snapshot> snapshots = mSnapshots.get(userId);
+        if (snapshots == null) {
+            snapshots = new ArrayMap<>();
+            mSnapshots.put(userId, snapshots);
+        }
+        Snapshot snapshot = snapshots.get(account);
+        if (snapshot == null) {
+            final Account[] accounts = account != null ? new Account[] { account }
+                    : AccountManager.get(mContext).getAccountsAsUser(userId);
+            snapshot = new Snapshot(userId, accounts);
+            snapshots.put(account, snapshot);
+        }
+        return snapshot;
+    }
+
+    static final class Snapshot {
+        final int userId;
+        final boolean masterSyncAutomatically;
+        private final SyncAdapterType[] mSyncAdapters;
+        // By account type, name and authority
+        private final ArrayMap<String, AuthorityState> mStates = new ArrayMap<>();
+
+        private Snapshot(int userId, Account[] accounts) {
+            this.userId = userId;
+            masterSyncAutomatically = ContentResolver.getMasterSyncAutomaticallyAsUser(userId);
+            mSyncAdapters = ContentResolver.getSyncAdapterTypesAsUser(userId);
+            final List<SyncInfo> currentSyncs = ContentResolver.getCurrentSyncsAsUser(userId);
+            for (Account account : accounts) {
+                for (SyncAdapterType sa : mSyncAdapters) {
+                    if (sa.accountType.equals(account.type)) {
+                        mStates.put(getKey(account, sa.authority), new AuthorityState(
+                                account, sa.authority, userId, currentSyncs));
+                    }
+                }
+            }
+        }
+
+        private static String getKey(Account account, String authority) {
+            return account.type + "/" + account.name + "/" + authority;
+        }
+
+        SyncAdapterType[] getSyncAdapters() {
+            return mSyncAdapters.clone();
+        }
+
+        /**
+         * Returns the sync state of the authority for the account, or null if the account or
+         * authority didn't exist when the snapshot was read, or the snapshot is for another
+         * account.
+         */
+        AuthorityState getState(Account account, String authority) {
+            return mStates.get(getKey(account, authority));
+        }
+
+        /**
+         * Whether the other snapshot has the same sync adapters, and the same ones are syncable
+         * for the account.
+         */
+        boolean hasSameAdapters(Snapshot other, Account account) {
+            if (other == null || !Arrays.equals(mSyncAdapters, other.mSyncAdapters)) {
+                return false;
+            }
+            for (SyncAdapterType sa : mSyncAdapters) {
+                if (!sa.accountType.equals(account.type)) continue;
+                final AuthorityState state = getState(account, sa.authority);
+                final AuthorityState otherState = other.getState(account, sa.authority);
+                if (state == null || otherState == null || state.syncable != otherState.syncable
+                        || sa.isUserVisible() != findAdapter(other, sa).isUserVisible()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static SyncAdapterType findAdapter(Snapshot snapshot, SyncAdapterType sa) {
+            for (SyncAdapterType other : snapshot.mSyncAdapters) {
+                if (other.equals(sa)) {
+                    return other;
+                }
+            }
+            return sa;
+        }
+    }
+
+    /**
+     * The sync state of an authority for an account, as far as the account screens show it.
+     */
+    static final class AuthorityState {
+        final boolean syncAutomatically;
+        final int syncable;
+        final boolean syncing;
+        final boolean pending;
+        final boolean initialize;
+        final long lastSuccessTime;
+        final long lastFailureTime;
+        final int lastFailureMesg;
+
+        private AuthorityState(Account account, String authority, int userId,
+                List<SyncInfo> currentSyncs) {
+            syncAutomatically = ContentResolver.getSyncAutomaticallyAsUser(account, authority,
+                    userId);
+            syncable = ContentResolver.getIsSyncableAsUser(account, authority, userId);
+            syncing = isSyncing(currentSyncs, account, authority);
+            final SyncStatusInfo status = ContentResolver.getSyncStatusAsUser(account, authority,
+                    userId);
+            pending = status != null && status.pending;
+            initialize = status != null && status.initialize;
+            lastSuccessTime = status != null ? status.lastSuccessTime : 0;
+            lastFailureTime = status != null ? status.lastFailureTime : 0;
+            lastFailureMesg = status != null ? status.getLastFailureMesgAsInt(0) : 0;
+        }
+
+        private static boolean isSyncing(List<SyncInfo> currentSyncs, Account account,
+                String authority) {
+            final int count = currentSyncs.size();
+            for (int i = 0; i < count; i++) {
+                SyncInfo syncInfo = currentSyncs.get(i);
+                if (syncInfo.account.equals(account) && syncInfo.authority.equals(authority)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Whether the last sync failed, other than because a sync was already in progress.
+         */
+        boolean lastSyncFailed() {
+            return lastFailureTime != 0
+                    && lastFailureMesg != ContentResolver.SYNC_ERROR_SYNC_ALREADY_IN_PROGRESS;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof AuthorityState)) {
+                return false;
+            }
+            final AuthorityState other = (AuthorityState) o;
+            return syncAutomatically == other.syncAutomatically && syncable == other.syncable
+                    && syncing == other.syncing && pending == other.pending
+                    && initialize == other.initialize
+                    && lastSuccessTime == other.lastSuccessTime
+                    && lastFailureTime == other.lastFailureTime
+                    && lastFailureMesg == other.lastFailureMesg;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(syncAutomatically, syncable, syncing, pending, initialize,
+                    lastSuccessTime, lastFailureTime, lastFailureMesg);
+        }
+    }
+}
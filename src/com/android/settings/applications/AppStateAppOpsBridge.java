@@ -121,6 +121,8 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
 
     @Override
     protected void loadAllExtraInfo() {
+        // Not an AppStateBatchedBridge: the states are loaded with a few calls per profile, and
+        // a call per package requesting the permissions, rather than with calls for every app.
         SparseArray<ArrayMap<String, PermissionState>> entries = getEntries();
 
         // Load state info.
@@ -108,6 +108,15 @@ public abstract class AppStateBaseBridge implements ApplicationsState.Callbacks
     protected abstract void loadAllExtraInfo();
     protected abstract void updateExtraInfo(AppEntry app, String pkg, int uid);
 
+    /**
+     * Tell the callback on the main thread that extra info changed, while still loading.
+     */
+    protected void publishExtraInfo() {
+        if (!mMainHandler.hasMessages(MainHandler.MSG_INFO_UPDATED)) {
+            mMainHandler.sendEmptyMessage(MainHandler.MSG_INFO_UPDATED);
+        }
+    }
+
     private class MainHandler extends Handler {
         private static final int MSG_INFO_UPDATED = 1;
 
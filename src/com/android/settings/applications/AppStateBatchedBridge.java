@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settings.applications;
+
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.settingslib.applications.ApplicationsState;
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Base class for bridges whose extra info is loaded one app at a time, through
+ * {@link #loadExtraInfo(AppEntry)}.
+ *
+ * The extra info cached by a previous load is set first, then apps are loaded on a few
+ * worker threads, and {@link Callback#onExtraInfoUpdated()} is called every
+ * {@link #PUBLISH_BATCH_SIZE} loaded apps.
+ */
+public abstract class AppStateBatchedBridge extends AppStateBaseBridge {
+
+    private static final String TAG = "AppStateBatchedBridge";
+
+    // Number of threads loading extra info in loadAllExtraInfo().
+    private static final int LOADING_THREAD_COUNT = 4;
+    // Number of apps loaded between two onExtraInfoUpdated() calls.
+    private static final int PUBLISH_BATCH_SIZE = 32;
+
+    // Extra info loaded so far, per bridge class, so that a new instance of a screen can show
+    // it before its own loading is done. Each cache holds as many apps as the last list loaded,
+    // so that loading the whole list doesn't evict its own start.
+    private static final ArrayMap<Class<?>, LruCache<String, CachedExtraInfo>> sCache =
+            new ArrayMap<>();
+
+    public AppStateBatchedBridge(ApplicationsState appState, Callback callback) {
+        super(appState, callback);
+    }
+
+    /**
+     * Load the extra info of one app. Called on worker threads, in parallel for several apps.
+     */
+    protected abstract Object loadExtraInfo(AppEntry app);
+
+    @Override
+    protected final void loadAllExtraInfo() {
+        final ArrayList<AppEntry> apps = mAppSession.getAllApps();
+        final int N = apps.size();
+        if (N == 0) {
+            return;
+        }
+
+        final LruCache<String, CachedExtraInfo> cache = getCache(N);
+        final String[] keys = new String[N];
+        final long[] apkTimes = new long[N];
+        boolean cached = false;
+        for (int i = 0; i < N; i++) {
+            final AppEntry app = apps.get(i);
+            keys[i] = getKey(app);
+            apkTimes[i] = getApkTime(app);
+            final CachedExtraInfo info = cache.get(keys[i]);
+            if (info != null && info.apkTime == apkTimes[i]) {
+                app.extraInfo = info.extraInfo;
+                cached = true;
+            }
+        }
+        if (cached) {
+            publishExtraInfo();
+        }
+
+        final Object[] results = new Object[N];
+        final ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(N, LOADING_THREAD_COUNT));
+        try {
+            final CompletionService<Integer> completion =
+                    new ExecutorCompletionService<>(executor);
+            for (int i = 0; i < N; i++) {
+                final int index = i;
+                completion.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        results[index] = loadExtraInfo(apps.get(index));
+                        return index;
+                    }
+                });
+            }
+            for (int i = 0; i < N; i++) {
+                final int index;
+                try {
+                    index = completion.take().get();
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Cannot load extra info", e.getCause());
+                    continue;
+                }
+                apps.get(index).extraInfo = results[index];
+                cache.put(keys[index], new CachedExtraInfo(apkTimes[index], results[index]));
+                if ((i + 1) % PUBLISH_BATCH_SIZE == 0) {
+                    publishExtraInfo();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    protected final void updateExtraInfo(AppEntry app, String pkg, int uid) {
+        app.extraInfo = loadExtraInfo(app);
+        // So that the next screen doesn't show the info from before the update first
+        getCache(1).put(getKey(app), new CachedExtraInfo(getApkTime(app), app.extraInfo));
+    }
+
+    /**
+     * Returns the cache of the bridge class, holding at least the given number of apps.
+     */
+    private LruCache<String, CachedExtraInfo> getCache(int appCount) {
+        synchronized (sCache) {
+            LruCache<String, CachedExtraInfo> cache = sCache.get(getClass());
+            if (cache == null) {
+                cache = new LruCache<>(appCount);
+                sCache.put(getClass(), cache);
+            } else if (cache.maxSize() < appCount) {
+                cache.resize(appCount);
+            }
+            return cache;
+        }
+    }
+
+    private static String getKey(AppEntry app) {
+        return app.info.uid + ":" + app.info.packageName;
+    }
+
+    private static long getApkTime(AppEntry app) {
+        return new File(app.info.sourceDir).lastModified();
+    }
+
+    private static class CachedExtraInfo {
+        // Last modification time of the APK the info was loaded for.
+        final long apkTime;
+        final Object extraInfo;
+
+        CachedExtraInfo(long apkTime, Object extraInfo) {
+            this.apkTime = apkTime;
+            this.extraInfo = extraInfo;
+        }
+    }
+}
@@ -39,10 +39,7 @@ import android.content.pm.UserInfo;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.icu.text.ListFormatter;
-import android.net.INetworkStatsService;
-import android.net.INetworkStatsSession;
 import android.net.NetworkTemplate;
-import android.net.TrafficStats;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.BatteryStats;
@@ -87,6 +84,7 @@ import com.android.settings.applications.PermissionsSummaryHelper.PermissionsRes
 import com.android.settings.datausage.AppDataUsage;
 import com.android.settings.datausage.DataUsageList;
 import com.android.settings.datausage.DataUsageSummary;
+import com.android.settings.datausage.NetworkStatsRepository;
 import com.android.settings.fuelgauge.BatteryEntry;
 import com.android.settings.fuelgauge.PowerUsageDetail;
 import com.android.settings.notification.AppNotificationSettings;
@@ -98,7 +96,6 @@ import com.android.settingslib.applications.AppUtils;
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.applications.ApplicationsState.AppEntry;
 import com.android.settingslib.net.ChartData;
-import com.android.settingslib.net.ChartDataLoader;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
@@ -168,7 +165,7 @@ public class InstalledAppDetails extends AppInfoBase
     private final NotificationBackend mBackend = new NotificationBackend();
 
     private ChartData mChartData;
-    private INetworkStatsSession mStatsSession;
+    private boolean mHasStatsSession;
 
     private Preference mBatteryPreference;
 
@@ -312,13 +309,8 @@ public class InstalledAppDetails extends AppInfoBase
         addDynamicPrefs();
 
         if (Utils.isBandwidthControlEnabled()) {
-            INetworkStatsService statsService = INetworkStatsService.Stub.asInterface(
-                    ServiceManager.getService(Context.NETWORK_STATS_SERVICE));
-            try {
-                mStatsSession = statsService.openSession();
-            } catch (RemoteException e) {
-                throw new RuntimeException(e);
-            }
+            NetworkStatsRepository.get().acquire();
+            mHasStatsSession = true;
         } else {
             removePreference(KEY_DATA);
         }
@@ -339,9 +331,10 @@ public class InstalledAppDetails extends AppInfoBase
         mState.requestSize(mPackageName, mUserId);
         AppItem app = new AppItem(mAppEntry.info.uid);
         app.addUid(mAppEntry.info.uid);
-        if (mStatsSession != null) {
+        if (mHasStatsSession) {
             getLoaderManager().restartLoader(LOADER_CHART_DATA,
-                    ChartDataLoader.buildArgs(getTemplate(getContext()), app),
+                    NetworkStatsRepository.ChartLoader.buildArgs(
+                            getTemplate(getContext()), app),
                     mDataCallbacks);
         }
         new BatteryUpdater().execute();
@@ -357,7 +350,9 @@ public class InstalledAppDetails extends AppInfoBase
 
     @Override
     public void onDestroy() {
-        TrafficStats.closeQuietly(mStatsSession);
+        if (mHasStatsSession) {
+            NetworkStatsRepository.get().release();
+        }
         super.onDestroy();
     }
 
@@ -1183,7 +1178,7 @@ public class InstalledAppDetails extends AppInfoBase
 
         @Override
         public Loader<ChartData> onCreateLoader(int id, Bundle args) {
-            return new ChartDataLoader(getActivity(), mStatsSession, args);
+            return new NetworkStatsRepository.ChartLoader(getActivity(), args);
         }
 
         @Override
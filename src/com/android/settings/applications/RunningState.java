@@ -41,9 +41,11 @@ import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.text.format.Formatter;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.util.SparseArray;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.settings.R;
 import com.android.settingslib.Utils;
 import com.android.settingslib.applications.InterestingConfigChanges;
@@ -51,8 +53,6 @@ import com.android.settingslib.applications.InterestingConfigChanges;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -73,6 +73,12 @@ public class RunningState {
 
     static final long TIME_UPDATE_DELAY = 1000;
     static final long CONTENTS_UPDATE_DELAY = 2000;
+    // Longest delay between two updates once nothing changes anymore.
+    static final long MAX_CONTENTS_UPDATE_DELAY = 16000;
+
+    // Number of processes whose memory is refreshed by an update where
+    // the running services and processes did not change.
+    static final int PSS_REFRESH_BATCH = 8;
 
     static final int MAX_SERVICES = 100;
 
@@ -91,8 +97,8 @@ public class RunningState {
     // by uid and name.  Note that this mapping does not change even across
     // service restarts, and during a restart there will still be a process
     // entry.
-    final SparseArray<HashMap<String, ProcessItem>> mServiceProcessesByName
-            = new SparseArray<HashMap<String, ProcessItem>>();
+    final SparseArray<ArrayMap<String, ProcessItem>> mServiceProcessesByName
+            = new SparseArray<ArrayMap<String, ProcessItem>>();
     
     // Processes that are hosting a service we are interested in, organized
     // by their pid.  These disappear and re-appear as services are restarted.
@@ -126,7 +132,7 @@ public class RunningState {
     final SparseArray<MergedItem> mOtherUserBackgroundItems = new SparseArray<MergedItem>();
 
     static class AppProcessInfo {
-        final ActivityManager.RunningAppProcessInfo info;
+        ActivityManager.RunningAppProcessInfo info;
         boolean hasServices;
         boolean hasForegroundServices;
 
@@ -137,9 +143,45 @@ public class RunningState {
 
     // Temporary structure used when updating above information.
     final SparseArray<AppProcessInfo> mTmpAppProcesses = new SparseArray<AppProcessInfo>();
+    // Entries of mTmpAppProcesses from the previous sequence, to be reused.
+    final ArrayList<AppProcessInfo> mAppProcessInfoPool = new ArrayList<AppProcessInfo>();
+
+    // Lists the items are built into before being published, and other
+    // temporary structures reused across updates.
+    final ArrayList<ProcessItem> mTmpSortedProcesses = new ArrayList<ProcessItem>();
+    final ArrayList<BaseItem> mTmpItems = new ArrayList<BaseItem>();
+    final ArrayList<MergedItem> mTmpMergedItems = new ArrayList<MergedItem>();
+    int[] mTmpPids = new int[0];
+    long[] mTmpPss = new long[0];
+
+    /**
+     * Retrieves the memory used by processes.
+     */
+    interface PssReader {
+        void getProcessPss(int[] pids, long[] outPss) throws RemoteException;
+    }
+
+    @VisibleForTesting
+    PssReader mPssReader = new PssReader() {
+        @Override
+        public void getProcessPss(int[] pids, long[] outPss) throws RemoteException {
+            long[] pss = ActivityManagerNative.getDefault().getProcessPss(pids);
+            System.arraycopy(pss, 0, outPss, 0, pids.length);
+        }
+    };
 
     int mSequence = 0;
 
+    // Hash of the services and processes seen by the last update, used to
+    // detect when nothing changed since then.  Only used by the background
+    // thread.
+    long mLastSnapshotHash;
+    boolean mHaveSnapshot;
+    // Next process in mAllProcessItems to refresh the memory of.
+    int mNextPssIndex;
+    // Number of consecutive updates where nothing changed.
+    int mUnchangedUpdates;
+
     final Comparator<RunningState.MergedItem> mBackgroundComparator
         = new Comparator<RunningState.MergedItem>() {
             @Override
@@ -244,7 +286,7 @@ public class RunningState {
                     mHandler.sendMessage(cmd);
                     removeMessages(MSG_UPDATE_CONTENTS);
                     msg = obtainMessage(MSG_UPDATE_CONTENTS);
-                    sendMessageDelayed(msg, CONTENTS_UPDATE_DELAY);
+                    sendMessageDelayed(msg, getNextUpdateDelay());
                     break;
             }
         }
@@ -350,6 +392,8 @@ public class RunningState {
         long mActiveSince;
         long mSize;
         String mSizeStr;
+        // The size mSizeStr was formatted from.
+        long mFormattedSize = -1;
         String mCurSizeStr;
         boolean mNeedDivider;
         boolean mBackground;
@@ -382,8 +426,8 @@ public class RunningState {
     }
 
     static class ProcessItem extends BaseItem {
-        final HashMap<ComponentName, ServiceItem> mServices
-                = new HashMap<ComponentName, ServiceItem>();
+        final ArrayMap<ComponentName, ServiceItem> mServices
+                = new ArrayMap<ComponentName, ServiceItem>();
         final SparseArray<ProcessItem> mDependentProcesses
                 = new SparseArray<ProcessItem>();
         
@@ -470,8 +514,7 @@ public class RunningState {
             // If still don't have anything to display, just use the
             // service info.
             if (mServices.size() > 0) {
-                ApplicationInfo ai = mServices.values().iterator().next()
-                        .mServiceInfo.applicationInfo;
+                ApplicationInfo ai = mServices.valueAt(0).mServiceInfo.applicationInfo;
                 mPackageInfo = ai;
                 mDisplayLabel = mPackageInfo.loadLabel(pm);
                 mLabel = mDisplayLabel.toString();
@@ -551,7 +594,8 @@ public class RunningState {
         
         boolean updateSize(Context context, long pss, int curSeq) {
             mSize = pss * 1024;
-            if (mCurSeq == curSeq) {
+            if (mCurSeq == curSeq && (mSizeStr == null || mFormattedSize != mSize)) {
+                mFormattedSize = mSize;
                 String sizeStr = Formatter.formatShortFileSize(
                         context, mSize);
                 if (!sizeStr.equals(mSizeStr)){
@@ -694,7 +738,11 @@ public class RunningState {
                     mSize += mOtherProcesses.get(i).mSize;
                 }
             }
-            
+
+            if (mSizeStr != null && mFormattedSize == mSize) {
+                return false;
+            }
+            mFormattedSize = mSize;
             String sizeStr = Formatter.formatShortFileSize(
                     context, mSize);
             if (!sizeStr.equals(mSizeStr)){
@@ -856,7 +904,15 @@ public class RunningState {
         return false;
     }
 
+    private long getNextUpdateDelay() {
+        // Back off while the running services and processes stay the same.
+        final int shift = Math.min(mUnchangedUpdates, 3);
+        return Math.min(CONTENTS_UPDATE_DELAY << shift, MAX_CONTENTS_UPDATE_DELAY);
+    }
+
     private void reset() {
+        mHaveSnapshot = false;
+        mUnchangedUpdates = 0;
         mServiceProcessesByName.clear();
         mServiceProcessesByPid.clear();
         mInterestingProcesses.clear();
@@ -865,6 +921,32 @@ public class RunningState {
         mAllProcessItems.clear();
     }
 
+    /**
+     * Forget the items built by the updates so far, so that the next update starts over.
+     */
+    @VisibleForTesting
+    void clearItems() {
+        synchronized (mLock) {
+            mHaveData = false;
+            mItems = new ArrayList<BaseItem>();
+            mMergedItems = new ArrayList<MergedItem>();
+            mBackgroundItems = new ArrayList<MergedItem>();
+            mUserBackgroundItems = new ArrayList<MergedItem>();
+            mNumBackgroundProcesses = 0;
+            mBackgroundProcessMemory = 0;
+            mNumForegroundProcesses = 0;
+            mForegroundProcessMemory = 0;
+            mNumServiceProcesses = 0;
+            mServiceProcessMemory = 0;
+        }
+        reset();
+        mOtherUserMergedItems.clear();
+        mOtherUserBackgroundItems.clear();
+        mTmpAppProcesses.clear();
+        mAppProcessInfoPool.clear();
+        mNextPssIndex = 0;
+    }
+
     private void addOtherUserItem(Context context, ArrayList<MergedItem> newMergedItems,
             SparseArray<MergedItem> userItems, MergedItem newItem) {
         MergedItem userItem = userItems.get(newItem.mUserId);
@@ -894,17 +976,148 @@ public class RunningState {
         userItem.mChildren.add(newItem);
     }
 
+    private static long hashSnapshot(List<ActivityManager.RunningServiceInfo> services, int NS,
+            List<ActivityManager.RunningAppProcessInfo> processes, int NP) {
+        long hash = 17;
+        for (int i=0; i<NS; i++) {
+            ActivityManager.RunningServiceInfo si = services.get(i);
+            hash = 31 * hash + si.service.hashCode();
+            hash = 31 * hash + (si.process != null ? si.process.hashCode() : 0);
+            hash = 31 * hash + si.uid;
+            hash = 31 * hash + si.pid;
+            hash = 31 * hash + si.restarting;
+            hash = 31 * hash + (si.started ? 1 : 0);
+            hash = 31 * hash + (si.foreground ? 1 : 0);
+            hash = 31 * hash + si.clientLabel;
+            hash = 31 * hash + si.flags;
+            hash = 31 * hash + si.activeSince;
+        }
+        for (int i=0; i<NP; i++) {
+            ActivityManager.RunningAppProcessInfo pi = processes.get(i);
+            hash = 31 * hash + (pi.processName != null ? pi.processName.hashCode() : 0);
+            hash = 31 * hash + pi.uid;
+            hash = 31 * hash + pi.pid;
+            hash = 31 * hash + pi.importance;
+            hash = 31 * hash + pi.importanceReasonCode;
+            hash = 31 * hash + pi.importanceReasonPid;
+            hash = 31 * hash + pi.flags;
+            hash = 31 * hash + pi.lru;
+        }
+        return hash;
+    }
+
+    /**
+     * Refresh the memory of the next few processes, in turn, and the totals
+     * derived from it.  Used when the running services and processes are the
+     * same as in the previous update.
+     */
+    private void updateSizes(Context context) {
+        final int numProc = mAllProcessItems.size();
+        if (numProc > 0) {
+            final int count = Math.min(numProc, PSS_REFRESH_BATCH);
+            int[] pids = obtainPids(count);
+            for (int i=0; i<count; i++) {
+                pids[i] = mAllProcessItems.get((mNextPssIndex + i) % numProc).mPid;
+            }
+            try {
+                long[] pss = mTmpPss;
+                mPssReader.getProcessPss(pids, pss);
+                for (int i=0; i<count; i++) {
+                    mAllProcessItems.get((mNextPssIndex + i) % numProc)
+                            .updateSize(context, pss[i], mSequence);
+                }
+            } catch (RemoteException e) {
+            }
+            mNextPssIndex = (mNextPssIndex + count) % numProc;
+        }
+
+        long backgroundProcessMemory = 0;
+        long foregroundProcessMemory = 0;
+        long serviceProcessMemory = 0;
+        for (int i=0; i<numProc; i++) {
+            ProcessItem proc = mAllProcessItems.get(i);
+            if (proc.mCurSeq == mSequence) {
+                serviceProcessMemory += proc.mSize;
+            } else if (proc.mRunningProcessInfo.importance >=
+                    ActivityManager.RunningAppProcessInfo.IMPORTANCE_BACKGROUND) {
+                backgroundProcessMemory += proc.mSize;
+            } else if (proc.mRunningProcessInfo.importance <=
+                    ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE) {
+                foregroundProcessMemory += proc.mSize;
+            }
+        }
+
+        // User items add up the size of their children.
+        for (int i=0; i<mUserBackgroundItems.size(); i++) {
+            mUserBackgroundItems.get(i).updateSize(context);
+        }
+        for (int i=0; i<mMergedItems.size(); i++) {
+            mMergedItems.get(i).updateSize(context);
+        }
+
+        synchronized (mLock) {
+            mBackgroundProcessMemory = backgroundProcessMemory;
+            mForegroundProcessMemory = foregroundProcessMemory;
+            mServiceProcessMemory = serviceProcessMemory;
+        }
+    }
+
+    private int[] obtainPids(int count) {
+        if (mTmpPids.length != count) {
+            mTmpPids = new int[count];
+            mTmpPss = new long[count];
+        }
+        return mTmpPids;
+    }
+
+    private AppProcessInfo obtainAppProcessInfo(ActivityManager.RunningAppProcessInfo pi) {
+        final int N = mAppProcessInfoPool.size();
+        if (N == 0) {
+            return new AppProcessInfo(pi);
+        }
+        AppProcessInfo ainfo = mAppProcessInfoPool.remove(N - 1);
+        ainfo.info = pi;
+        ainfo.hasServices = false;
+        ainfo.hasForegroundServices = false;
+        return ainfo;
+    }
+
+    private static MergedItem obtainBackgroundItem(ProcessItem proc) {
+        // A process keeps the same item for as long as it is running.
+        if (proc.mMergedItem == null) {
+            proc.mMergedItem = new MergedItem(proc.mUserId);
+            proc.mMergedItem.mProcess = proc;
+        }
+        return proc.mMergedItem;
+    }
+
+    private static <T> boolean sameItems(ArrayList<T> lhs, ArrayList<T> rhs) {
+        final int N = lhs.size();
+        if (N != rhs.size()) {
+            return false;
+        }
+        for (int i=0; i<N; i++) {
+            if (lhs.get(i) != rhs.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private boolean update(Context context, ActivityManager am) {
+        return update(context, am.getRunningServices(MAX_SERVICES),
+                am.getRunningAppProcesses());
+    }
+
+    @VisibleForTesting
+    boolean update(Context context, List<ActivityManager.RunningServiceInfo> services,
+            List<ActivityManager.RunningAppProcessInfo> processes) {
         final PackageManager pm = context.getPackageManager();
 
-        mSequence++;
-        
         boolean changed = false;
 
-        // Retrieve list of services, filtering out anything that definitely
+        // Filter the list of services, leaving out anything that definitely
         // won't be shown in the UI.
-        List<ActivityManager.RunningServiceInfo> services 
-                = am.getRunningServices(MAX_SERVICES);
         int NS = services != null ? services.size() : 0;
         for (int i=0; i<NS; i++) {
             ActivityManager.RunningServiceInfo si = services.get(i);
@@ -928,15 +1141,37 @@ public class RunningState {
             }
         }
 
-        // Retrieve list of running processes, organizing them into a sparse
-        // array for easy retrieval.
-        List<ActivityManager.RunningAppProcessInfo> processes
-                = am.getRunningAppProcesses();
+        // Organize the list of running processes into a sparse array for
+        // easy retrieval.
         final int NP = processes != null ? processes.size() : 0;
+
+        // If nothing moved since the last update, there is no need to
+        // rebuild the items: just refresh some of their sizes.
+        final long snapshotHash = hashSnapshot(services, NS, processes, NP);
+        final boolean haveData;
+        synchronized (mLock) {
+            haveData = mHaveData;
+        }
+        if (haveData && mHaveSnapshot && snapshotHash == mLastSnapshotHash) {
+            mUnchangedUpdates++;
+            updateSizes(context);
+            return false;
+        }
+        mLastSnapshotHash = snapshotHash;
+        mHaveSnapshot = true;
+        mUnchangedUpdates = 0;
+
+        mSequence++;
+
+        for (int i=mTmpAppProcesses.size()-1; i>=0; i--) {
+            AppProcessInfo ainfo = mTmpAppProcesses.valueAt(i);
+            ainfo.info = null;
+            mAppProcessInfoPool.add(ainfo);
+        }
         mTmpAppProcesses.clear();
         for (int i=0; i<NP; i++) {
             ActivityManager.RunningAppProcessInfo pi = processes.get(i);
-            mTmpAppProcesses.put(pi.pid, new AppProcessInfo(pi));
+            mTmpAppProcesses.put(pi.pid, obtainAppProcessInfo(pi));
         }
 
         // Initial iteration through running services to collect per-process
@@ -991,9 +1226,9 @@ public class RunningState {
                 }
             }
 
-            HashMap<String, ProcessItem> procs = mServiceProcessesByName.get(si.uid);
+            ArrayMap<String, ProcessItem> procs = mServiceProcessesByName.get(si.uid);
             if (procs == null) {
-                procs = new HashMap<String, ProcessItem>();
+                procs = new ArrayMap<String, ProcessItem>();
                 mServiceProcessesByName.put(si.uid, procs);
             }
             ProcessItem proc = procs.get(si.process);
@@ -1111,12 +1346,12 @@ public class RunningState {
         }
         
         // Look for services and their primary processes that no longer exist...
-        ArrayList<Integer> uidToDelete = null;
-        for (int i=0; i<mServiceProcessesByName.size(); i++) {
-            HashMap<String, ProcessItem> procs = mServiceProcessesByName.valueAt(i);
-            Iterator<ProcessItem> pit = procs.values().iterator();
-            while (pit.hasNext()) {
-                ProcessItem pi = pit.next();
+        // Going backwards, so that removing entries does not move the ones
+        // left to visit.
+        for (int i=mServiceProcessesByName.size()-1; i>=0; i--) {
+            ArrayMap<String, ProcessItem> procs = mServiceProcessesByName.valueAt(i);
+            for (int j=procs.size()-1; j>=0; j--) {
+                ProcessItem pi = procs.valueAt(j);
                 if (pi.mCurSeq == mSequence) {
                     pi.ensureLabel(pm);
                     if (pi.mPid == 0) {
@@ -1126,45 +1361,37 @@ public class RunningState {
                     }
                 } else {
                     changed = true;
-                    pit.remove();
-                    if (procs.size() == 0) {
-                        if (uidToDelete == null) {
-                            uidToDelete = new ArrayList<Integer>();
-                        }
-                        uidToDelete.add(mServiceProcessesByName.keyAt(i));
-                    }
+                    procs.removeAt(j);
                     if (pi.mPid != 0) {
                         mServiceProcessesByPid.remove(pi.mPid);
                     }
                     continue;
                 }
-                Iterator<ServiceItem> sit = pi.mServices.values().iterator();
-                while (sit.hasNext()) {
-                    ServiceItem si = sit.next();
-                    if (si.mCurSeq != mSequence) {
+                for (int k=pi.mServices.size()-1; k>=0; k--) {
+                    if (pi.mServices.valueAt(k).mCurSeq != mSequence) {
                         changed = true;
-                        sit.remove();
+                        pi.mServices.removeAt(k);
                     }
                 }
             }
-        }
-        
-        if (uidToDelete != null) {
-            for (int i = 0; i < uidToDelete.size(); i++) {
-                int uid = uidToDelete.get(i);
-                mServiceProcessesByName.remove(uid);
+            if (procs.size() == 0) {
+                mServiceProcessesByName.removeAt(i);
             }
         }
 
         if (changed) {
             // First determine an order for the services.
-            ArrayList<ProcessItem> sortedProcesses = new ArrayList<ProcessItem>();
+            ArrayList<ProcessItem> sortedProcesses = mTmpSortedProcesses;
+            sortedProcesses.clear();
             for (int i=0; i<mServiceProcessesByName.size(); i++) {
-                for (ProcessItem pi : mServiceProcessesByName.valueAt(i).values()) {
+                ArrayMap<String, ProcessItem> procs = mServiceProcessesByName.valueAt(i);
+                for (int j=0; j<procs.size(); j++) {
+                    ProcessItem pi = procs.valueAt(j);
                     pi.mIsSystem = false;
                     pi.mIsStarted = true;
                     pi.mActiveSince = Long.MAX_VALUE;
-                    for (ServiceItem si : pi.mServices.values()) {
+                    for (int k=0; k<pi.mServices.size(); k++) {
+                        ServiceItem si = pi.mServices.valueAt(k);
                         if (si.mServiceInfo != null
                                 && (si.mServiceInfo.applicationInfo.flags
                                         & ApplicationInfo.FLAG_SYSTEM) != 0) {
@@ -1184,8 +1411,12 @@ public class RunningState {
             
             Collections.sort(sortedProcesses, mServiceProcessComparator);
             
-            ArrayList<BaseItem> newItems = new ArrayList<BaseItem>();
-            ArrayList<MergedItem> newMergedItems = new ArrayList<MergedItem>();
+            // The published lists may still be used by the UI thread, so
+            // build into our own lists and only copy them out if different.
+            ArrayList<BaseItem> newItems = mTmpItems;
+            ArrayList<MergedItem> newMergedItems = mTmpMergedItems;
+            newItems.clear();
+            newMergedItems.clear();
             mProcessItems.clear();
             for (int i=0; i<sortedProcesses.size(); i++) {
                 ProcessItem pi = sortedProcesses.get(i);
@@ -1204,7 +1435,8 @@ public class RunningState {
                 MergedItem mergedItem = null;
                 boolean haveAllMerged = false;
                 boolean needDivider = false;
-                for (ServiceItem si : pi.mServices.values()) {
+                for (int k=0; k<pi.mServices.size(); k++) {
+                    ServiceItem si = pi.mServices.valueAt(k);
                     si.mNeedDivider = needDivider;
                     needDivider = true;
                     newItems.add(si);
@@ -1222,7 +1454,8 @@ public class RunningState {
                         || mergedItem.mServices.size() != pi.mServices.size()) {
                     // Whoops, we need to build a new MergedItem!
                     mergedItem = new MergedItem(pi.mUserId);
-                    for (ServiceItem si : pi.mServices.values()) {
+                    for (int k=0; k<pi.mServices.size(); k++) {
+                        ServiceItem si = pi.mServices.valueAt(k);
                         mergedItem.mServices.add(si);
                         si.mMergedItem = mergedItem;
                     }
@@ -1273,8 +1506,12 @@ public class RunningState {
             }
 
             synchronized (mLock) {
-                mItems = newItems;
-                mMergedItems = newMergedItems;
+                if (!sameItems(mItems, newItems)) {
+                    mItems = new ArrayList<BaseItem>(newItems);
+                }
+                if (!sameItems(mMergedItems, newMergedItems)) {
+                    mMergedItems = new ArrayList<MergedItem>(newMergedItems);
+                }
             }
         }
         
@@ -1316,12 +1553,12 @@ public class RunningState {
         boolean diffUsers = false;
         try {
             final int numProc = mAllProcessItems.size();
-            int[] pids = new int[numProc];
+            int[] pids = obtainPids(numProc);
             for (int i=0; i<numProc; i++) {
                 pids[i] = mAllProcessItems.get(i).mPid;
             }
-            long[] pss = ActivityManagerNative.getDefault()
-                    .getProcessPss(pids);
+            long[] pss = mTmpPss;
+            mPssReader.getProcessPss(pids, pss);
             int bgIndex = 0;
             for (int i=0; i<pids.length; i++) {
                 ProcessItem proc = mAllProcessItems.get(i);
@@ -1333,8 +1570,7 @@ public class RunningState {
                     backgroundProcessMemory += proc.mSize;
                     MergedItem mergedItem;
                     if (newBackgroundItems != null) {
-                        mergedItem = proc.mMergedItem = new MergedItem(proc.mUserId);
-                        proc.mMergedItem.mProcess = proc;
+                        mergedItem = obtainBackgroundItem(proc);
                         diffUsers |= mergedItem.mUserId != mMyUserId;
                         newBackgroundItems.add(mergedItem);
                     } else {
@@ -1346,8 +1582,7 @@ public class RunningState {
                                 diffUsers |= mergedItem.mUserId != mMyUserId;
                                 newBackgroundItems.add(mergedItem);
                             }
-                            mergedItem = proc.mMergedItem = new MergedItem(proc.mUserId);
-                            proc.mMergedItem.mProcess = proc;
+                            mergedItem = obtainBackgroundItem(proc);
                             diffUsers |= mergedItem.mUserId != mMyUserId;
                             newBackgroundItems.add(mergedItem);
                         } else {
@@ -15,6 +15,7 @@
  */
 package com.android.settings.dashboard;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.drawable.Drawable;
@@ -65,9 +66,14 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
 
     private static final int DEFAULT_SUGGESTION_COUNT = 2;
 
+    // Payload of the item changes where only the summary of a tile changed.
+    private static final Object PAYLOAD_SUMMARY = new Object();
+
     private final List<Object> mItems = new ArrayList<>();
     private final List<Integer> mTypes = new ArrayList<>();
     private final List<Integer> mIds = new ArrayList<>();
+    // Position of each dashboard tile, by component.
+    private final ArrayMap<ComponentName, Integer> mTilePositions = new ArrayMap<>();
     private final IconCache mCache;
 
     private final Context mContext;
@@ -142,8 +148,16 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
         return mIsShowingAll;
     }
 
-    public void notifyChanged(Tile tile) {
-        notifyDataSetChanged();
+    /**
+     * Update the summary of the dashboard tile of a component, only rebinding that tile.
+     */
+    public void setTileSummary(ComponentName component, CharSequence summary) {
+        final Integer position = mTilePositions.get(component);
+        if (position == null) {
+            return;
+        }
+        ((Tile) mItems.get(position)).summary = summary;
+        notifyItemChanged(position, PAYLOAD_SUMMARY);
     }
 
     public void setShowingAll(boolean showingAll) {
@@ -176,9 +190,13 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
             countItem(category, R.layout.dashboard_category, mIsShowingAll, NS_ITEMS);
             for (int j = 0; j < category.tiles.size(); j++) {
                 Tile tile = category.tiles.get(j);
-                countItem(tile, R.layout.dashboard_tile, mIsShowingAll
+                boolean shown = mIsShowingAll
                         || ArrayUtils.contains(DashboardSummary.INITIAL_ITEMS,
-                        tile.intent.getComponent().getClassName()), NS_ITEMS);
+                        tile.intent.getComponent().getClassName());
+                if (shown) {
+                    mTilePositions.put(tile.intent.getComponent(), mItems.size());
+                }
+                countItem(tile, R.layout.dashboard_tile, shown, NS_ITEMS);
             }
         }
         notifyDataSetChanged();
@@ -192,6 +210,7 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
         mItems.clear();
         mTypes.clear();
         mIds.clear();
+        mTilePositions.clear();
         mId = 0;
     }
 
@@ -219,6 +238,21 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
                 viewType, parent, false));
     }
 
+    @Override
+    public void onBindViewHolder(DashboardItemHolder holder, int position, List<Object> payloads) {
+        if (!payloads.isEmpty() && mTypes.get(position) == R.layout.dashboard_tile) {
+            boolean summaryOnly = true;
+            for (int i = 0; i < payloads.size(); i++) {
+                summaryOnly &= payloads.get(i) == PAYLOAD_SUMMARY;
+            }
+            if (summaryOnly) {
+                onBindTileSummary(holder, (Tile) mItems.get(position));
+                return;
+            }
+        }
+        onBindViewHolder(holder, position);
+    }
+
     @Override
     public void onBindViewHolder(DashboardItemHolder holder, int position) {
         switch (mTypes.get(position)) {
@@ -345,6 +379,10 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
     private void onBindTile(DashboardItemHolder holder, Tile tile) {
         holder.icon.setImageDrawable(mCache.getIcon(tile.icon));
         holder.title.setText(tile.title);
+        onBindTileSummary(holder, tile);
+    }
+
+    private void onBindTileSummary(DashboardItemHolder holder, Tile tile) {
         if (!TextUtils.isEmpty(tile.summary)) {
             holder.summary.setText(tile.summary);
             holder.summary.setVisibility(View.VISIBLE);
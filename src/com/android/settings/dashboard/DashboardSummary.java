@@ -161,7 +161,7 @@ public class DashboardSummary extends InstrumentedFragment
         long startTime = System.currentTimeMillis();
         if (hasWindowFocus) {
             mConditionManager.addListener(this);
-            mConditionManager.refreshAll();
+            mConditionManager.refreshDirty();
         } else {
             mConditionManager.remListener(this);
         }
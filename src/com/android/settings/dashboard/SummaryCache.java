@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.ArrayMap;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Remembers the last summary of each dashboard tile, so that the dashboard can show them
+ * before the summary providers report again.
+ *
+ * The preferences are only read when first used, which must not be on the main thread.
+ */
+class SummaryCache {
+
+    private static final String PREFS_NAME = "dashboard_summaries";
+    // Summaries are only valid for the locale they were saved in.
+    private static final String KEY_LOCALE = "locale";
+
+    private final Context mContext;
+    private SharedPreferences mPrefs;
+
+    SummaryCache(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Returns the saved summaries, by tile component.
+     */
+    ArrayMap<ComponentName, CharSequence> load() {
+        final SharedPreferences prefs = getPrefs();
+        final ArrayMap<ComponentName, CharSequence> summaries = new ArrayMap<>();
+        final String locale = Locale.getDefault().toString();
+        if (!locale.equals(prefs.getString(KEY_LOCALE, null))) {
+            prefs.edit().clear().putString(KEY_LOCALE, locale).apply();
+            return summaries;
+        }
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (KEY_LOCALE.equals(entry.getKey()) || !(entry.getValue() instanceof String)) {
+                continue;
+            }
+            final ComponentName component = ComponentName.unflattenFromString(entry.getKey());
+            if (component != null) {
+                summaries.put(component, (String) entry.getValue());
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * Save the given summaries.
+     */
+    void save(ArrayMap<ComponentName, CharSequence> summaries) {
+        final SharedPreferences.Editor editor = getPrefs().edit();
+        for (int i = 0; i < summaries.size(); i++) {
+            final ComponentName component = summaries.keyAt(i);
+            if (component == null) {
+                continue;
+            }
+            final CharSequence summary = summaries.valueAt(i);
+            if (summary != null) {
+                editor.putString(component.flattenToShortString(), summary.toString());
+            } else {
+                editor.remove(component.flattenToShortString());
+            }
+        }
+        editor.apply();
+    }
+
+    private synchronized SharedPreferences getPrefs() {
+        if (mPrefs == null) {
+            mPrefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        }
+        return mPrefs;
+    }
+}
@@ -22,9 +22,9 @@ import android.content.IntentFilter;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
-import android.os.Looper;
 import android.os.Message;
 import android.os.Process;
+import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
@@ -44,38 +44,62 @@ public class SummaryLoader {
 
     public static final String SUMMARY_PROVIDER_FACTORY = "SUMMARY_PROVIDER_FACTORY";
 
+    // Number of worker threads the providers are spread over, so that a slow provider only
+    // holds back the providers on its own thread.
+    private static final int WORKER_THREAD_COUNT = 3;
+
     private final Activity mActivity;
     private final ArrayMap<SummaryProvider, ComponentName> mSummaryMap = new ArrayMap<>();
     private final List<Tile> mTiles = new ArrayList<>();
 
-    private final Worker mWorker;
+    private final Worker[] mWorkers = new Worker[WORKER_THREAD_COUNT];
     private final Handler mHandler;
-    private final HandlerThread mWorkerThread;
+    private final SummaryCache mSummaryCache;
 
     private DashboardAdapter mAdapter;
     private boolean mListening;
-    private boolean mWorkerListening;
     private ArraySet<BroadcastReceiver> mReceivers = new ArraySet<>();
 
+    // Summaries set since the last time tiles were updated, applied together on the main thread.
+    private final ArrayMap<ComponentName, CharSequence> mPendingSummaries = new ArrayMap<>();
+    private final Runnable mApplySummaries = new Runnable() {
+        @Override
+        public void run() {
+            applySummaries();
+        }
+    };
+
     public SummaryLoader(Activity activity, List<DashboardCategory> categories) {
         mHandler = new Handler();
-        mWorkerThread = new HandlerThread("SummaryLoader", Process.THREAD_PRIORITY_BACKGROUND);
-        mWorkerThread.start();
-        mWorker = new Worker(mWorkerThread.getLooper());
+        for (int i = 0; i < mWorkers.length; i++) {
+            HandlerThread thread = new HandlerThread("SummaryLoader" + i,
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mWorkers[i] = new Worker(thread);
+        }
         mActivity = activity;
+        // Show the last known summaries until the providers report.
+        mSummaryCache = new SummaryCache(activity);
+        mWorkers[0].sendEmptyMessage(Worker.MSG_LOAD_CACHED_SUMMARIES);
+        int n = 0;
         for (int i = 0; i < categories.size(); i++) {
             List<Tile> tiles = categories.get(i).tiles;
             for (int j = 0; j < tiles.size(); j++) {
                 Tile tile = tiles.get(j);
-                mWorker.obtainMessage(Worker.MSG_GET_PROVIDER, tile).sendToTarget();
+                // The provider of a tile is created and listened to on the same worker.
+                Worker worker = mWorkers[n++ % mWorkers.length];
+                worker.obtainMessage(Worker.MSG_GET_PROVIDER, tile).sendToTarget();
             }
         }
     }
 
     public void release() {
-        mWorkerThread.quitSafely();
-        // Make sure we aren't listening.
-        setListeningW(false);
+        for (Worker worker : mWorkers) {
+            worker.removeMessages(Worker.MSG_SET_LISTENING);
+            // Make sure we aren't listening, the workers quit once they stopped.
+            worker.obtainMessage(Worker.MSG_SET_LISTENING, 0, 0).sendToTarget();
+            worker.mThread.quitSafely();
+        }
     }
 
     public void setAdapter(DashboardAdapter adapter) {
@@ -83,34 +107,71 @@ public class SummaryLoader {
     }
 
     public void setSummary(SummaryProvider provider, final CharSequence summary) {
-        final ComponentName component= mSummaryMap.get(provider);
-        mHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                // Since tiles are not always cached (like on locale change for instance),
-                // we need to always get the latest one.
-                if (!(mActivity instanceof SettingsDrawerActivity)) {
-                    if (DEBUG) {
-                        Log.d(TAG, "Can't get category list.");
-                    }
-                    return;
-                }
-                final List<DashboardCategory> categories =
-                        ((SettingsDrawerActivity) mActivity).getDashboardCategories();
-                final Tile tile = getTileFromCategory(categories, component);
-                if (tile == null) {
-                    if (DEBUG) {
-                        Log.d(TAG, "Can't find tile for " + component);
-                    }
-                    return;
-                }
-                if (DEBUG) {
-                    Log.d(TAG, "setSummary " + tile.title + " - " + summary);
+        final ComponentName component;
+        synchronized (mSummaryMap) {
+            component = mSummaryMap.get(provider);
+        }
+        synchronized (mPendingSummaries) {
+            // Providers tend to report at the same time, so only post once for all of them.
+            final boolean posted = !mPendingSummaries.isEmpty();
+            mPendingSummaries.put(component, summary);
+            if (posted) {
+                return;
+            }
+        }
+        mHandler.post(mApplySummaries);
+    }
+
+    private void applySummaries() {
+        final ArrayMap<ComponentName, CharSequence> summaries;
+        synchronized (mPendingSummaries) {
+            summaries = new ArrayMap<>(mPendingSummaries);
+            mPendingSummaries.clear();
+        }
+        mWorkers[0].obtainMessage(Worker.MSG_SAVE_SUMMARIES, summaries).sendToTarget();
+        // Since tiles are not always cached (like on locale change for instance),
+        // we need to always get the latest one.
+        if (!(mActivity instanceof SettingsDrawerActivity)) {
+            if (DEBUG) {
+                Log.d(TAG, "Can't get category list.");
+            }
+            return;
+        }
+        final List<DashboardCategory> categories =
+                ((SettingsDrawerActivity) mActivity).getDashboardCategories();
+        updateTilesFromCategory(categories, summaries);
+        for (int i = 0; i < summaries.size(); i++) {
+            mAdapter.setTileSummary(summaries.keyAt(i), summaries.valueAt(i));
+        }
+    }
+
+    /**
+     * Set the saved summaries on the tiles which don't have one yet.
+     */
+    private void applyCachedSummaries(ArrayMap<ComponentName, CharSequence> summaries) {
+        if (!(mActivity instanceof SettingsDrawerActivity)) {
+            return;
+        }
+        final List<DashboardCategory> categories =
+                ((SettingsDrawerActivity) mActivity).getDashboardCategories();
+        if (categories == null) {
+            return;
+        }
+        for (int i = 0; i < categories.size(); i++) {
+            final List<Tile> tiles = categories.get(i).tiles;
+            for (int j = 0; j < tiles.size(); j++) {
+                final Tile tile = tiles.get(j);
+                final ComponentName component = tile.intent.getComponent();
+                final CharSequence summary = summaries.get(component);
+                if (summary == null || !TextUtils.isEmpty(tile.summary)) {
+                    continue;
                 }
                 tile.summary = summary;
-                mAdapter.notifyChanged(tile);
+                if (mAdapter != null) {
+                    mAdapter.setTileSummary(component, summary);
+                }
             }
-        });
+        }
     }
 
     /**
@@ -124,8 +185,10 @@ public class SummaryLoader {
             mActivity.unregisterReceiver(mReceivers.valueAt(i));
         }
         mReceivers.clear();
-        mWorker.removeMessages(Worker.MSG_SET_LISTENING);
-        mWorker.obtainMessage(Worker.MSG_SET_LISTENING, listening ? 1 : 0, 0).sendToTarget();
+        for (Worker worker : mWorkers) {
+            worker.removeMessages(Worker.MSG_SET_LISTENING);
+            worker.obtainMessage(Worker.MSG_SET_LISTENING, listening ? 1 : 0, 0).sendToTarget();
+        }
     }
 
     private SummaryProvider getSummaryProvider(Tile tile) {
@@ -183,33 +246,21 @@ public class SummaryLoader {
         });
     }
 
-    private synchronized void setListeningW(boolean listening) {
-        if (mWorkerListening == listening) return;
-        mWorkerListening = listening;
-        if (DEBUG) Log.d(TAG, "Listening " + listening);
-        for (SummaryProvider p : mSummaryMap.keySet()) {
-            try {
-                p.setListening(listening);
-            } catch (Exception e) {
-                Log.d(TAG, "Problem in setListening", e);
-            }
-        }
-    }
-
-    private synchronized void makeProviderW(Tile tile) {
-        SummaryProvider provider = getSummaryProvider(tile);
-        if (provider != null) {
-            if (DEBUG) Log.d(TAG, "Creating " + tile);
-            mSummaryMap.put(provider, tile.intent.getComponent());
+    private void setProviderListening(SummaryProvider provider, boolean listening) {
+        try {
+            provider.setListening(listening);
+        } catch (Exception e) {
+            Log.d(TAG, "Problem in setListening", e);
         }
     }
 
-    private Tile getTileFromCategory(List<DashboardCategory> categories, ComponentName component) {
+    private void updateTilesFromCategory(List<DashboardCategory> categories,
+            ArrayMap<ComponentName, CharSequence> summaries) {
         if (categories == null) {
             if (DEBUG) {
                 Log.d(TAG, "Category is null, can't find tile");
             }
-            return null;
+            return;
         }
         final int categorySize = categories.size();
         for (int i = 0; i < categorySize; i++) {
@@ -217,12 +268,15 @@ public class SummaryLoader {
             final int tileCount = category.tiles.size();
             for (int j = 0; j < tileCount; j++) {
                 final Tile tile = category.tiles.get(j);
-                if (component.equals(tile.intent.getComponent())) {
-                    return tile;
+                final int index = summaries.indexOfKey(tile.intent.getComponent());
+                if (index >= 0) {
+                    if (DEBUG) {
+                        Log.d(TAG, "setSummary " + tile.title + " - " + summaries.valueAt(index));
+                    }
+                    tile.summary = summaries.valueAt(index);
                 }
             }
         }
-        return null;
     }
 
     public interface SummaryProvider {
@@ -233,15 +287,26 @@ public class SummaryLoader {
         SummaryProvider createSummaryProvider(Activity activity, SummaryLoader summaryLoader);
     }
 
+    /**
+     * Creates the providers of some of the tiles and sets them listening, all on its own thread.
+     */
     private class Worker extends Handler {
         private static final int MSG_GET_PROVIDER = 1;
         private static final int MSG_SET_LISTENING = 2;
+        private static final int MSG_LOAD_CACHED_SUMMARIES = 3;
+        private static final int MSG_SAVE_SUMMARIES = 4;
+
+        private final HandlerThread mThread;
+        private final ArrayList<SummaryProvider> mProviders = new ArrayList<>();
+        private boolean mWorkerListening;
 
-        public Worker(Looper looper) {
-            super(looper);
+        public Worker(HandlerThread thread) {
+            super(thread.getLooper());
+            mThread = thread;
         }
 
         @Override
+        @SuppressWarnings("unchecked")
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case MSG_GET_PROVIDER:
@@ -252,6 +317,45 @@ public class SummaryLoader {
                     boolean listening = msg.arg1 != 0;
                     setListeningW(listening);
                     break;
+                case MSG_LOAD_CACHED_SUMMARIES:
+                    final ArrayMap<ComponentName, CharSequence> summaries = mSummaryCache.load();
+                    if (!summaries.isEmpty()) {
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                applyCachedSummaries(summaries);
+                            }
+                        });
+                    }
+                    break;
+                case MSG_SAVE_SUMMARIES:
+                    mSummaryCache.save((ArrayMap<ComponentName, CharSequence>) msg.obj);
+                    break;
+            }
+        }
+
+        private void makeProviderW(Tile tile) {
+            SummaryProvider provider = getSummaryProvider(tile);
+            if (provider == null) {
+                return;
+            }
+            if (DEBUG) Log.d(TAG, "Creating " + tile);
+            synchronized (mSummaryMap) {
+                mSummaryMap.put(provider, tile.intent.getComponent());
+            }
+            mProviders.add(provider);
+            if (mWorkerListening) {
+                // The loader started listening before this provider was created.
+                setProviderListening(provider, true);
+            }
+        }
+
+        private void setListeningW(boolean listening) {
+            if (mWorkerListening == listening) return;
+            mWorkerListening = listening;
+            if (DEBUG) Log.d(TAG, "Listening " + listening);
+            for (int i = 0; i < mProviders.size(); i++) {
+                setProviderListening(mProviders.get(i), listening);
             }
         }
     }
@@ -18,6 +18,7 @@ package com.android.settings.dashboard.conditional;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.graphics.drawable.Icon;
 import android.net.ConnectivityManager;
 import com.android.internal.logging.MetricsProto.MetricsEvent;
@@ -36,6 +37,11 @@ public class AirplaneModeCondition extends Condition {
         setActive(WirelessUtils.isAirplaneModeOn(mManager.getContext()));
     }
 
+    @Override
+    protected IntentFilter getChangeFilter() {
+        return new IntentFilter(Intent.ACTION_AIRPLANE_MODE_CHANGED);
+    }
+
     @Override
     protected Class<?> getReceiverClass() {
         return Receiver.class;
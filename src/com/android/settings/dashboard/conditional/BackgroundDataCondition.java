@@ -16,7 +16,9 @@
 package com.android.settings.dashboard.conditional;
 
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.graphics.drawable.Icon;
+import android.net.ConnectivityManager;
 import android.net.NetworkPolicyManager;
 import com.android.internal.logging.MetricsProto.MetricsEvent;
 import com.android.settings.R;
@@ -33,6 +35,11 @@ public class BackgroundDataCondition extends Condition {
         setActive(NetworkPolicyManager.from(mManager.getContext()).getRestrictBackground());
     }
 
+    @Override
+    protected IntentFilter getChangeFilter() {
+        return new IntentFilter(ConnectivityManager.ACTION_RESTRICT_BACKGROUND_CHANGED);
+    }
+
     @Override
     public Icon getIcon() {
         return Icon.createWithResource(mManager.getContext(), R.drawable.ic_data_saver);
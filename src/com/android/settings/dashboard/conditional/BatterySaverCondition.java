@@ -15,6 +15,7 @@
  */
 package com.android.settings.dashboard.conditional;
 
+import android.content.IntentFilter;
 import android.graphics.drawable.Icon;
 import android.os.PowerManager;
 import com.android.internal.logging.MetricsProto.MetricsEvent;
@@ -33,6 +34,11 @@ public class BatterySaverCondition extends Condition {
         setActive(powerManager.isPowerSaveMode());
     }
 
+    @Override
+    protected IntentFilter getChangeFilter() {
+        return new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+    }
+
     @Override
     public Icon getIcon() {
         return Icon.createWithResource(mManager.getContext(), R.drawable.ic_settings_battery);
@@ -13,6 +13,7 @@ package com.android.settings.dashboard.conditional;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.graphics.drawable.Icon;
 import android.net.ConnectivityManager;
 import android.telephony.TelephonyManager;
@@ -40,6 +41,14 @@ public class CellularDataCondition extends Condition {
         setActive(!telephony.getDataEnabled());
     }
 
+    @Override
+    protected IntentFilter getChangeFilter() {
+        IntentFilter filter =
+                new IntentFilter(TelephonyIntents.ACTION_ANY_DATA_CONNECTION_STATE_CHANGED);
+        filter.addAction(TelephonyIntents.ACTION_SIM_STATE_CHANGED);
+        return filter;
+    }
+
     @Override
     protected Class<?> getReceiverClass() {
         return Receiver.class;
@@ -17,6 +17,7 @@
 package com.android.settings.dashboard.conditional;
 
 import android.content.ComponentName;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.graphics.drawable.Icon;
 import android.os.PersistableBundle;
@@ -36,6 +37,8 @@ public abstract class Condition {
     private boolean mIsSilenced;
     private boolean mIsActive;
     private long mLastStateChange;
+    // Whether the state may have changed since it was last refreshed.
+    private boolean mDirty = true;
 
     // All conditions must live in this package.
     Condition(ConditionManager manager) {
@@ -117,6 +120,25 @@ public abstract class Condition {
                 DONT_KILL_APP);
     }
 
+    void markDirty() {
+        mDirty = true;
+    }
+
+    void refreshIfDirty() {
+        if (mDirty) {
+            mDirty = false;
+            refreshState();
+        }
+    }
+
+    /**
+     * The broadcasts which may change the state of this condition. The state is only refreshed
+     * after one of them was received.
+     */
+    protected IntentFilter getChangeFilter() {
+        return null;
+    }
+
     protected Class<?> getReceiverClass() {
         return null;
     }
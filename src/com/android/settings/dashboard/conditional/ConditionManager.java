@@ -15,19 +15,26 @@
  */
 package com.android.settings.dashboard.conditional;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.PersistableBundle;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
 import android.util.Log;
-import android.util.Xml;
 
-import org.xmlpull.v1.XmlPullParser;
+import com.android.internal.annotations.VisibleForTesting;
+
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlSerializer;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -40,21 +47,83 @@ public class ConditionManager {
 
     private static final boolean DEBUG = false;
 
-    private static final String PKG = "com.android.settings.dashboard.conditional.";
+    private static final String FILE_NAME = "condition_state.bin";
+    // Only read, to migrate the state saved before.
+    private static final String LEGACY_FILE_NAME = "condition_state.xml";
+
+    // Changes are saved together once the conditions have been stable for that long.
+    private static final long SAVE_DELAY_MS = 500;
+
+    // Every condition, by the class simple name its state is saved under.
+    private static final ArrayMap<String, ConditionFactory> CONDITIONS = new ArrayMap<>();
 
-    private static final String FILE_NAME = "condition_state.xml";
-    private static final String TAG_CONDITIONS = "cs";
-    private static final String TAG_CONDITION = "c";
-    private static final String ATTR_CLASS = "cls";
+    static {
+        register(AirplaneModeCondition.class, new ConditionFactory() {
+            @Override
+            public Condition create(ConditionManager manager) {
+                return new AirplaneModeCondition(manager);
+            }
+        });
+        register(HotspotCondition.class, new ConditionFactory() {
+            @Override
+            public Condition create(ConditionManager manager) {
+                return new HotspotCondition(manager);
+            }
+        });
+        register(DndCondition.class, new ConditionFactory() {
+            @Override
+            public Condition create(ConditionManager manager) {
+                return new DndCondition(manager);
+            }
+        });
+        register(BatterySaverCondition.class, new ConditionFactory() {
+            @Override
+            public Condition create(ConditionManager manager) {
+                return new BatterySaverCondition(manager);
+            }
+        });
+        register(CellularDataCondition.class, new ConditionFactory() {
+            @Override
+            public Condition create(ConditionManager manager) {
+                return new CellularDataCondition(manager);
+            }
+        });
+        register(BackgroundDataCondition.class, new ConditionFactory() {
+            @Override
+            public Condition create(ConditionManager manager) {
+                return new BackgroundDataCondition(manager);
+            }
+        });
+        register(WorkModeCondition.class, new ConditionFactory() {
+            @Override
+            public Condition create(ConditionManager manager) {
+                return new WorkModeCondition(manager);
+            }
+        });
+        register(NightDisplayCondition.class, new ConditionFactory() {
+            @Override
+            public Condition create(ConditionManager manager) {
+                return new NightDisplayCondition(manager);
+            }
+        });
+    }
 
     private static ConditionManager sInstance;
 
     private final Context mContext;
     private final ArrayList<Condition> mConditions;
-    private File mXmlFile;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private AtomicFile mStateFile;
 
     private final ArrayList<ConditionListener> mListeners = new ArrayList<>();
 
+    // The conditions to mark dirty, by the broadcast action which may change them.
+    private final ArrayMap<String, ArrayList<Condition>> mConditionsByAction = new ArrayMap<>();
+    // The visible conditions, in order, the listeners were last told about.
+    private final ArrayList<Condition> mNotifiedConditions = new ArrayList<>();
+    private boolean mRefreshing;
+    private boolean mChangedWhileRefreshing;
+
     private ConditionManager(Context context, boolean loadConditionsNow) {
         mContext = context;
         mConditions = new ArrayList<>();
@@ -66,113 +135,223 @@ public class ConditionManager {
         }
     }
 
+    private static void register(Class<? extends Condition> clz, ConditionFactory factory) {
+        CONDITIONS.put(clz.getSimpleName(), factory);
+    }
+
     public void refreshAll() {
         final int N = mConditions.size();
         for (int i = 0; i < N; i++) {
-            mConditions.get(i).refreshState();
+            mConditions.get(i).markDirty();
         }
+        refreshDirty();
     }
 
-    private void readFromXml(File xmlFile, ArrayList<Condition> conditions) {
-        if (DEBUG) Log.d(TAG, "Reading from " + xmlFile.toString());
+    /**
+     * Refresh the conditions which may have changed since they were last refreshed, and tell
+     * the listeners once if any of them did.
+     */
+    public void refreshDirty() {
+        mRefreshing = true;
         try {
-            XmlPullParser parser = Xml.newPullParser();
-            FileReader in = new FileReader(xmlFile);
-            parser.setInput(in);
-            int state = parser.getEventType();
-
-            while (state != XmlPullParser.END_DOCUMENT) {
-                if (TAG_CONDITION.equals(parser.getName())) {
-                    int depth = parser.getDepth();
-                    String clz = parser.getAttributeValue("", ATTR_CLASS);
-                    if (!clz.startsWith(PKG)) {
-                        clz = PKG + clz;
-                    }
-                    Condition condition = createCondition(Class.forName(clz));
-                    PersistableBundle bundle = PersistableBundle.restoreFromXml(parser);
-                    if (DEBUG) Log.d(TAG, "Reading " + clz + " -- " + bundle);
-                    condition.restoreState(bundle);
-                    conditions.add(condition);
-                    while (parser.getDepth() > depth) {
-                        parser.next();
-                    }
+            final int N = mConditions.size();
+            for (int i = 0; i < N; i++) {
+                mConditions.get(i).refreshIfDirty();
+            }
+        } finally {
+            mRefreshing = false;
+        }
+        if (mChangedWhileRefreshing) {
+            mChangedWhileRefreshing = false;
+            dispatchChanged();
+        }
+    }
+
+    private void registerChangeReceiver() {
+        final IntentFilter filter = new IntentFilter();
+        final int N = mConditions.size();
+        for (int i = 0; i < N; i++) {
+            final Condition condition = mConditions.get(i);
+            final IntentFilter changeFilter = condition.getChangeFilter();
+            if (changeFilter == null) {
+                continue;
+            }
+            for (int j = 0; j < changeFilter.countActions(); j++) {
+                final String action = changeFilter.getAction(j);
+                ArrayList<Condition> conditions = mConditionsByAction.get(action);
+                if (conditions == null) {
+                    conditions = new ArrayList<>();
+                    mConditionsByAction.put(action, conditions);
+                    filter.addAction(action);
                 }
-                state = parser.next();
+                conditions.add(condition);
+            }
+        }
+        mContext.registerReceiver(mChangeReceiver, filter);
+    }
+
+    private final BroadcastReceiver mChangeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final ArrayList<Condition> conditions = mConditionsByAction.get(intent.getAction());
+            if (conditions == null) {
+                return;
+            }
+            if (DEBUG) Log.d(TAG, "Dirty after " + intent.getAction());
+            for (int i = 0; i < conditions.size(); i++) {
+                conditions.get(i).markDirty();
+            }
+            // Nobody is looking, wait until somebody does to refresh.
+            if (!mListeners.isEmpty()) {
+                refreshDirty();
+            }
+        }
+    };
+
+    private synchronized AtomicFile getStateFile() {
+        if (mStateFile == null) {
+            mStateFile = new AtomicFile(new File(mContext.getFilesDir(), FILE_NAME));
+        }
+        return mStateFile;
+    }
+
+    private void readStates(ArrayList<Condition> conditions) {
+        final AtomicFile stateFile = getStateFile();
+        ArrayMap<String, PersistableBundle> states = null;
+        if (stateFile.getBaseFile().exists()) {
+            if (DEBUG) Log.d(TAG, "Reading from " + stateFile.getBaseFile());
+            try {
+                states = readStates(stateFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Problem reading " + FILE_NAME, e);
+            }
+        } else {
+            final File legacyFile = new File(mContext.getFilesDir(), LEGACY_FILE_NAME);
+            if (legacyFile.exists()) {
+                if (DEBUG) Log.d(TAG, "Migrating from " + legacyFile);
+                try {
+                    states = migrateLegacyStates(legacyFile, stateFile);
+                } catch (XmlPullParserException | IOException e) {
+                    Log.w(TAG, "Problem migrating " + LEGACY_FILE_NAME, e);
+                }
+            }
+        }
+        if (states == null) {
+            return;
+        }
+        final int N = states.size();
+        for (int i = 0; i < N; i++) {
+            final ConditionFactory factory = CONDITIONS.get(states.keyAt(i));
+            if (factory == null) {
+                Log.w(TAG, "Unexpected Condition " + states.keyAt(i));
+                continue;
             }
+            if (DEBUG) Log.d(TAG, "Reading " + states.keyAt(i) + " -- " + states.valueAt(i));
+            Condition condition = factory.create(this);
+            condition.restoreState(states.valueAt(i));
+            conditions.add(condition);
+        }
+    }
+
+    @VisibleForTesting
+    static ArrayMap<String, PersistableBundle> readStates(AtomicFile file) throws IOException {
+        FileInputStream in = file.openRead();
+        try {
+            return ConditionStateFile.read(in);
+        } finally {
             in.close();
-        } catch (XmlPullParserException | IOException | ClassNotFoundException e) {
-            Log.w(TAG, "Problem reading " + FILE_NAME, e);
         }
     }
 
-    private void saveToXml() {
-        if (DEBUG) Log.d(TAG, "Writing to " + mXmlFile.toString());
+    @VisibleForTesting
+    static ArrayMap<String, PersistableBundle> readLegacyStates(File file)
+            throws IOException, XmlPullParserException {
+        FileReader in = new FileReader(file);
         try {
-            XmlSerializer serializer = Xml.newSerializer();
-            FileWriter writer = new FileWriter(mXmlFile);
-            serializer.setOutput(writer);
+            return ConditionStateFile.readXml(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Move the states saved in the legacy XML file to the binary state file.
+     */
+    @VisibleForTesting
+    static ArrayMap<String, PersistableBundle> migrateLegacyStates(File legacyFile,
+            AtomicFile stateFile) throws IOException, XmlPullParserException {
+        final ArrayMap<String, PersistableBundle> states = readLegacyStates(legacyFile);
+        writeStates(stateFile, states);
+        legacyFile.delete();
+        return states;
+    }
+
+    @VisibleForTesting
+    static void writeStates(AtomicFile file, ArrayMap<String, PersistableBundle> states)
+            throws IOException {
+        synchronized (file) {
+            FileOutputStream out = file.startWrite();
+            try {
+                ConditionStateFile.write(states, out);
+                file.finishWrite(out);
+            } catch (IOException e) {
+                file.failWrite(out);
+                throw e;
+            }
+        }
+    }
 
-            serializer.startDocument("UTF-8", true);
-            serializer.startTag("", TAG_CONDITIONS);
+    private void scheduleSave() {
+        mHandler.removeCallbacks(mSaveStates);
+        mHandler.postDelayed(mSaveStates, SAVE_DELAY_MS);
+    }
 
+    private final Runnable mSaveStates = new Runnable() {
+        @Override
+        public void run() {
+            // Snapshot the states here, the conditions are only touched on the main thread.
+            final ArrayMap<String, PersistableBundle> states = new ArrayMap<>();
             final int N = mConditions.size();
             for (int i = 0; i < N; i++) {
                 PersistableBundle bundle = new PersistableBundle();
                 if (mConditions.get(i).saveState(bundle)) {
-                    serializer.startTag("", TAG_CONDITION);
-                    final String clz = mConditions.get(i).getClass().getSimpleName();
-                    serializer.attribute("", ATTR_CLASS, clz);
-                    bundle.saveToXml(serializer);
-                    serializer.endTag("", TAG_CONDITION);
+                    states.put(mConditions.get(i).getClass().getSimpleName(), bundle);
                 }
             }
-
-            serializer.endTag("", TAG_CONDITIONS);
-            serializer.flush();
-            writer.close();
-        } catch (XmlPullParserException | IOException e) {
-            Log.w(TAG, "Problem writing " + FILE_NAME, e);
+            AsyncTask.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final AtomicFile stateFile = getStateFile();
+                    if (DEBUG) Log.d(TAG, "Writing to " + stateFile.getBaseFile());
+                    try {
+                        writeStates(stateFile, states);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Problem writing " + FILE_NAME, e);
+                    }
+                }
+            });
         }
-    }
+    };
 
     private void addMissingConditions(ArrayList<Condition> conditions) {
-        addIfMissing(AirplaneModeCondition.class, conditions);
-        addIfMissing(HotspotCondition.class, conditions);
-        addIfMissing(DndCondition.class, conditions);
-        addIfMissing(BatterySaverCondition.class, conditions);
-        addIfMissing(CellularDataCondition.class, conditions);
-        addIfMissing(BackgroundDataCondition.class, conditions);
-        addIfMissing(WorkModeCondition.class, conditions);
-        addIfMissing(NightDisplayCondition.class, conditions);
-        Collections.sort(conditions, CONDITION_COMPARATOR);
-    }
-
-    private void addIfMissing(Class<? extends Condition> clz, ArrayList<Condition> conditions) {
-        if (getCondition(clz, conditions) == null) {
-            if (DEBUG) Log.d(TAG, "Adding missing " + clz.getName());
-            conditions.add(createCondition(clz));
+        final int N = CONDITIONS.size();
+        for (int i = 0; i < N; i++) {
+            if (getCondition(CONDITIONS.keyAt(i), conditions) == null) {
+                if (DEBUG) Log.d(TAG, "Adding missing " + CONDITIONS.keyAt(i));
+                conditions.add(CONDITIONS.valueAt(i).create(this));
+            }
         }
+        Collections.sort(conditions, CONDITION_COMPARATOR);
     }
 
-    private Condition createCondition(Class<?> clz) {
-        if (AirplaneModeCondition.class == clz) {
-            return new AirplaneModeCondition(this);
-        } else if (HotspotCondition.class == clz) {
-            return new HotspotCondition(this);
-        } else if (DndCondition.class == clz) {
-            return new DndCondition(this);
-        } else if (BatterySaverCondition.class == clz) {
-            return new BatterySaverCondition(this);
-        } else if (CellularDataCondition.class == clz) {
-            return new CellularDataCondition(this);
-        } else if (BackgroundDataCondition.class == clz) {
-            return new BackgroundDataCondition(this);
-        } else if (WorkModeCondition.class == clz) {
-            return new WorkModeCondition(this);
-        } else if (NightDisplayCondition.class == clz) {
-            return new NightDisplayCondition(this);
+    private Condition getCondition(String name, List<Condition> conditions) {
+        final int N = conditions.size();
+        for (int i = 0; i < N; i++) {
+            if (name.equals(conditions.get(i).getClass().getSimpleName())) {
+                return conditions.get(i);
+            }
         }
-        throw new RuntimeException("Unexpected Condition " + clz);
+        return null;
     }
 
     Context getContext() {
@@ -209,14 +388,56 @@ public class ConditionManager {
     }
 
     public void notifyChanged(Condition condition) {
-        saveToXml();
+        scheduleSave();
+        if (mRefreshing) {
+            mChangedWhileRefreshing = true;
+            return;
+        }
+        dispatchChanged();
+    }
+
+    private void dispatchChanged() {
         Collections.sort(mConditions, CONDITION_COMPARATOR);
+        if (!updateNotifiedConditions()) {
+            // Only hidden conditions changed, the listeners have nothing to update.
+            return;
+        }
         final int N = mListeners.size();
         for (int i = 0; i < N; i++) {
             mListeners.get(i).onConditionsChanged();
         }
     }
 
+    /**
+     * Remember the visible conditions, returns whether they differ from the last ones.
+     */
+    private boolean updateNotifiedConditions() {
+        boolean changed = false;
+        int visible = 0;
+        final int N = mConditions.size();
+        for (int i = 0; i < N; i++) {
+            final Condition condition = mConditions.get(i);
+            if (!condition.shouldShow()) {
+                continue;
+            }
+            if (visible < mNotifiedConditions.size()) {
+                if (mNotifiedConditions.get(visible) != condition) {
+                    mNotifiedConditions.set(visible, condition);
+                    changed = true;
+                }
+            } else {
+                mNotifiedConditions.add(condition);
+                changed = true;
+            }
+            visible++;
+        }
+        while (mNotifiedConditions.size() > visible) {
+            mNotifiedConditions.remove(mNotifiedConditions.size() - 1);
+            changed = true;
+        }
+        return changed;
+    }
+
     public void addListener(ConditionListener listener) {
         mListeners.add(listener);
         listener.onConditionsChanged();
@@ -230,10 +451,7 @@ public class ConditionManager {
         @Override
         protected ArrayList<Condition> doInBackground(Void... params) {
             ArrayList<Condition> conditions = new ArrayList<>();
-            mXmlFile = new File(mContext.getFilesDir(), FILE_NAME);
-            if (mXmlFile.exists()) {
-                readFromXml(mXmlFile, conditions);
-            }
+            readStates(conditions);
             addMissingConditions(conditions);
             return conditions;
         }
@@ -242,6 +460,7 @@ public class ConditionManager {
         protected void onPostExecute(ArrayList<Condition> conditions) {
             mConditions.clear();
             mConditions.addAll(conditions);
+            registerChangeReceiver();
             refreshAll();
         }
     }
@@ -257,6 +476,10 @@ public class ConditionManager {
         return sInstance;
     }
 
+    private interface ConditionFactory {
+        Condition create(ConditionManager manager);
+    }
+
     public interface ConditionListener {
         void onConditionsChanged();
     }
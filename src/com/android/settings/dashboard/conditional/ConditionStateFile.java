@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard.conditional;
+
+import android.os.PersistableBundle;
+import android.util.ArrayMap;
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+
+/**
+ * Reads and writes the saved state of the conditions, by condition class simple name.
+ *
+ * The state is written in a versioned binary format: a header (magic, format version,
+ * condition count), then for each condition its class name, its value count and the values,
+ * each one as a key, a one byte type tag and the value itself. The XML format used before is
+ * only read, to migrate it.
+ */
+class ConditionStateFile {
+
+    private static final int MAGIC = 0x434f4e44; // "COND"
+    private static final int VERSION = 1;
+
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_STRING = 5;
+
+    private static final String TAG_CONDITION = "c";
+    private static final String ATTR_CLASS = "cls";
+
+    private ConditionStateFile() {
+    }
+
+    static void write(ArrayMap<String, PersistableBundle> states, OutputStream out)
+            throws IOException {
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        final int N = states.size();
+        data.writeInt(N);
+        for (int i = 0; i < N; i++) {
+            data.writeUTF(states.keyAt(i));
+            final PersistableBundle bundle = states.valueAt(i);
+            data.writeInt(bundle.size());
+            for (String key : bundle.keySet()) {
+                data.writeUTF(key);
+                writeValue(data, key, bundle.get(key));
+            }
+        }
+        data.flush();
+    }
+
+    private static void writeValue(DataOutputStream data, String key, Object value)
+            throws IOException {
+        if (value instanceof Boolean) {
+            data.writeByte(TYPE_BOOLEAN);
+            data.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            data.writeByte(TYPE_INT);
+            data.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            data.writeByte(TYPE_LONG);
+            data.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            data.writeByte(TYPE_DOUBLE);
+            data.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            data.writeByte(TYPE_STRING);
+            data.writeUTF((String) value);
+        } else {
+            throw new IOException("Unsupported value for " + key + ": " + value);
+        }
+    }
+
+    static ArrayMap<String, PersistableBundle> read(InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a condition state file");
+        }
+        final int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported condition state version: " + version);
+        }
+        final int N = data.readInt();
+        final ArrayMap<String, PersistableBundle> states = new ArrayMap<>(N);
+        for (int i = 0; i < N; i++) {
+            final String clz = data.readUTF();
+            final int count = data.readInt();
+            final PersistableBundle bundle = new PersistableBundle(count);
+            for (int j = 0; j < count; j++) {
+                readValue(data, data.readUTF(), bundle);
+            }
+            states.put(clz, bundle);
+        }
+        return states;
+    }
+
+    private static void readValue(DataInputStream data, String key, PersistableBundle bundle)
+            throws IOException {
+        final byte type = data.readByte();
+        switch (type) {
+            case TYPE_BOOLEAN:
+                bundle.putBoolean(key, data.readBoolean());
+                break;
+            case TYPE_INT:
+                bundle.putInt(key, data.readInt());
+                break;
+            case TYPE_LONG:
+                bundle.putLong(key, data.readLong());
+                break;
+            case TYPE_DOUBLE:
+                bundle.putDouble(key, data.readDouble());
+                break;
+            case TYPE_STRING:
+                bundle.putString(key, data.readUTF());
+                break;
+            default:
+                throw new IOException("Unknown value type: " + type);
+        }
+    }
+
+    /**
+     * Read the state saved in the XML format used before.
+     */
+    static ArrayMap<String, PersistableBundle> readXml(Reader in)
+            throws IOException, XmlPullParserException {
+        final ArrayMap<String, PersistableBundle> states = new ArrayMap<>();
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setInput(in);
+        int state = parser.getEventType();
+        while (state != XmlPullParser.END_DOCUMENT) {
+            if (TAG_CONDITION.equals(parser.getName())) {
+                int depth = parser.getDepth();
+                String clz = parser.getAttributeValue("", ATTR_CLASS);
+                // Class names used to be saved with their package at some point.
+                clz = clz.substring(clz.lastIndexOf('.') + 1);
+                states.put(clz, PersistableBundle.restoreFromXml(parser));
+                while (parser.getDepth() > depth) {
+                    parser.next();
+                }
+            }
+            state = parser.next();
+        }
+        return states;
+    }
+}
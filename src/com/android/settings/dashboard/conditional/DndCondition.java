@@ -21,6 +21,7 @@ import android.app.StatusBarManager;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.graphics.drawable.Icon;
 import android.os.PersistableBundle;
 import android.provider.Settings;
@@ -68,6 +69,14 @@ public class DndCondition extends Condition {
         mZen = bundle.getInt(KEY_STATE, Global.ZEN_MODE_OFF);
     }
 
+    @Override
+    protected IntentFilter getChangeFilter() {
+        IntentFilter filter =
+                new IntentFilter(NotificationManager.ACTION_INTERRUPTION_FILTER_CHANGED);
+        filter.addAction(NotificationManager.ACTION_INTERRUPTION_FILTER_CHANGED_INTERNAL);
+        return filter;
+    }
+
     @Override
     protected Class<?> getReceiverClass() {
         return Receiver.class;
@@ -18,6 +18,7 @@ package com.android.settings.dashboard.conditional;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.graphics.drawable.Icon;
 import android.net.ConnectivityManager;
 import android.net.wifi.WifiConfiguration;
@@ -48,6 +49,11 @@ public class HotspotCondition extends Condition {
         setActive(wifiTetherEnabled);
     }
 
+    @Override
+    protected IntentFilter getChangeFilter() {
+        return new IntentFilter(WifiManager.WIFI_AP_STATE_CHANGED_ACTION);
+    }
+
     @Override
     protected Class<?> getReceiverClass() {
         return Receiver.class;
@@ -18,6 +18,7 @@ package com.android.settings.dashboard.conditional;
 
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.UserInfo;
 import android.graphics.drawable.Icon;
 import android.os.UserHandle;
@@ -58,6 +59,15 @@ public class WorkModeCondition extends Condition {
         setActive(mUserHandle != null && mUm.isQuietModeEnabled(mUserHandle));
     }
 
+    @Override
+    protected IntentFilter getChangeFilter() {
+        IntentFilter filter = new IntentFilter(Intent.ACTION_MANAGED_PROFILE_AVAILABLE);
+        filter.addAction(Intent.ACTION_MANAGED_PROFILE_UNAVAILABLE);
+        filter.addAction(Intent.ACTION_MANAGED_PROFILE_ADDED);
+        filter.addAction(Intent.ACTION_MANAGED_PROFILE_REMOVED);
+        return filter;
+    }
+
     @Override
     public Icon getIcon() {
         return Icon.createWithResource(mManager.getContext(),
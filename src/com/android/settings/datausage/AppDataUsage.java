@@ -22,7 +22,6 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.UserInfo;
 import android.graphics.drawable.Drawable;
-import android.net.INetworkStatsSession;
 import android.net.NetworkPolicy;
 import android.net.NetworkStatsHistory;
 import android.net.NetworkTemplate;
@@ -30,7 +29,6 @@ import android.net.TrafficStats;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Process;
-import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.support.v14.preference.SwitchPreference;
@@ -48,7 +46,6 @@ import com.android.settings.applications.AppInfoBase;
 import com.android.settingslib.AppItem;
 import com.android.settingslib.Utils;
 import com.android.settingslib.net.ChartData;
-import com.android.settingslib.net.ChartDataLoader;
 import com.android.settingslib.net.UidDetailProvider;
 
 import java.util.concurrent.BlockingQueue;
@@ -89,7 +86,6 @@ public class AppDataUsage extends DataUsageBase implements Preference.OnPreferen
     private Drawable mIcon;
     private CharSequence mLabel;
     private String mPackageName;
-    private INetworkStatsSession mStatsSession;
     private CycleAdapter mCycleAdapter;
 
     private long mStart;
@@ -114,11 +110,7 @@ public class AppDataUsage extends DataUsageBase implements Preference.OnPreferen
         super.onCreate(icicle);
         final Bundle args = getArguments();
 
-        try {
-            mStatsSession = services.mStatsService.openSession();
-        } catch (RemoteException e) {
-            throw new RuntimeException(e);
-        }
+        NetworkStatsRepository.get().acquire();
 
         mAppItem = (args != null) ? (AppItem) args.getParcelable(ARG_APP_ITEM) : null;
         mTemplate = (args != null) ? (NetworkTemplate) args.getParcelable(ARG_NETWORK_TEMPLATE)
@@ -229,7 +221,7 @@ public class AppDataUsage extends DataUsageBase implements Preference.OnPreferen
 
     @Override
     public void onDestroy() {
-        TrafficStats.closeQuietly(mStatsSession);
+        NetworkStatsRepository.get().release();
         super.onDestroy();
     }
 
@@ -241,7 +233,8 @@ public class AppDataUsage extends DataUsageBase implements Preference.OnPreferen
         }
         mPolicy = services.mPolicyEditor.getPolicy(mTemplate);
         getLoaderManager().restartLoader(LOADER_CHART_DATA,
-                ChartDataLoader.buildArgs(mTemplate, mAppItem), mChartDataCallbacks);
+                NetworkStatsRepository.ChartLoader.buildArgs(mTemplate, mAppItem),
+                mChartDataCallbacks);
         updatePrefs();
     }
 
@@ -379,7 +372,7 @@ public class AppDataUsage extends DataUsageBase implements Preference.OnPreferen
             new LoaderManager.LoaderCallbacks<ChartData>() {
         @Override
         public Loader<ChartData> onCreateLoader(int id, Bundle args) {
-            return new ChartDataLoader(getActivity(), mStatsSession, args);
+            return new NetworkStatsRepository.ChartLoader(getActivity(), args);
         }
 
         @Override
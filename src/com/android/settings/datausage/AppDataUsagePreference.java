@@ -29,8 +29,8 @@ import static com.android.internal.util.Preconditions.checkNotNull;
 
 public class AppDataUsagePreference extends Preference {
 
-    private final AppItem mItem;
-    private final int mPercent;
+    private AppItem mItem;
+    private int mPercent;
 
     public AppDataUsagePreference(Context context, AppItem item, int percent,
             UidDetailProvider provider) {
@@ -39,16 +39,34 @@ public class AppDataUsagePreference extends Preference {
         mPercent = percent;
         setLayoutResource(com.android.settings.R.layout.data_usage_item);
         setWidgetLayoutResource(com.android.settings.R.layout.widget_progress_bar);
-        if (item.restricted && item.total <= 0) {
-            setSummary(com.android.settings.R.string.data_usage_app_restricted);
-        } else {
-            setSummary(Formatter.formatFileSize(context, item.total));
-        }
+        updateSummary();
 
         // kick off async load of app details
         UidDetailTask.bindView(provider, item, this);
     }
 
+    /**
+     * Show the new usage of the same app.
+     */
+    public void setItem(AppItem item, int percent) {
+        final boolean changed = mPercent != percent || mItem.total != item.total
+                || mItem.restricted != item.restricted;
+        mItem = item;
+        mPercent = percent;
+        if (changed) {
+            updateSummary();
+            notifyChanged();
+        }
+    }
+
+    private void updateSummary() {
+        if (mItem.restricted && mItem.total <= 0) {
+            setSummary(com.android.settings.R.string.data_usage_app_restricted);
+        } else {
+            setSummary(Formatter.formatFileSize(getContext(), mItem.total));
+        }
+    }
+
     @Override
     public void onBindViewHolder(PreferenceViewHolder holder) {
         super.onBindViewHolder(holder);
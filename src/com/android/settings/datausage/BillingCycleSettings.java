@@ -347,6 +347,7 @@ public class BillingCycleSettings extends DataUsageBase implements
             final int cycleDay = mCycleDayPicker.getValue();
             final String cycleTimezone = new Time().timezone;
             editor.setPolicyCycleDay(template, cycleDay, cycleTimezone);
+            NetworkStatsRepository.get().invalidate();
             target.updateDataUsage();
         }
     }
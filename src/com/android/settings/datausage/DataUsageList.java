@@ -21,12 +21,10 @@ import android.content.Loader;
 import android.content.pm.UserInfo;
 import android.graphics.Color;
 import android.net.ConnectivityManager;
-import android.net.INetworkStatsSession;
 import android.net.NetworkPolicy;
 import android.net.NetworkStats;
 import android.net.NetworkStatsHistory;
 import android.net.NetworkTemplate;
-import android.net.TrafficStats;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.RemoteException;
@@ -42,6 +40,7 @@ import android.text.format.DateUtils;
 import android.text.format.Formatter;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemSelectedListener;
@@ -50,8 +49,6 @@ import com.android.internal.logging.MetricsProto.MetricsEvent;
 import com.android.settings.R;
 import com.android.settingslib.AppItem;
 import com.android.settingslib.net.ChartData;
-import com.android.settingslib.net.ChartDataLoader;
-import com.android.settingslib.net.SummaryForAllUidLoader;
 import com.android.settingslib.net.UidDetailProvider;
 
 import java.util.ArrayList;
@@ -78,6 +75,11 @@ public class DataUsageList extends DataUsageBase {
 
     private static final String KEY_USAGE_AMOUNT = "usage_amount";
     private static final String KEY_CHART_DATA = "chart_data";
+
+    private static final int USER_KIND_UNKNOWN = 0;
+    private static final int USER_KIND_PROFILE = 1;
+    private static final int USER_KIND_OTHER = 2;
+    private static final int USER_KIND_REMOVED = 3;
     private static final String KEY_APPS_GROUP = "apps_group";
 
     private static final int LOADER_CHART_DATA = 2;
@@ -85,8 +87,6 @@ public class DataUsageList extends DataUsageBase {
     public static final String EXTRA_SUB_ID = "sub_id";
     public static final String EXTRA_NETWORK_TEMPLATE = "network_template";
 
-    private INetworkStatsSession mStatsSession;
-
     private ChartDataUsagePreference mChart;
 
     private NetworkTemplate mTemplate;
@@ -106,6 +106,8 @@ public class DataUsageList extends DataUsageBase {
     private Spinner mCycleSpinner;
     private Preference mUsageAmount;
     private PreferenceGroup mApps;
+    // The preference of each app in mApps, by item key.
+    private SparseArray<AppDataUsagePreference> mAppPreferences = new SparseArray<>();
     private View mHeader;
 
     @Override
@@ -123,11 +125,7 @@ public class DataUsageList extends DataUsageBase {
             getActivity().finish();
         }
 
-        try {
-            mStatsSession = services.mStatsService.openSession();
-        } catch (RemoteException e) {
-            throw new RuntimeException(e);
-        }
+        NetworkStatsRepository.get().acquire();
 
         mUidDetailProvider = new UidDetailProvider(context);
 
@@ -184,7 +182,7 @@ public class DataUsageList extends DataUsageBase {
                 try {
                     // wait a few seconds before kicking off
                     Thread.sleep(2 * DateUtils.SECOND_IN_MILLIS);
-                    services.mStatsService.forceUpdate();
+                    NetworkStatsRepository.get().forceUpdate();
                 } catch (InterruptedException e) {
                 } catch (RemoteException e) {
                 }
@@ -205,7 +203,7 @@ public class DataUsageList extends DataUsageBase {
         mUidDetailProvider.clearCache();
         mUidDetailProvider = null;
 
-        TrafficStats.closeQuietly(mStatsSession);
+        NetworkStatsRepository.get().release();
 
         super.onDestroy();
     }
@@ -225,7 +223,8 @@ public class DataUsageList extends DataUsageBase {
         // TODO: consider chaining two loaders together instead of reloading
         // network history when showing app detail.
         getLoaderManager().restartLoader(LOADER_CHART_DATA,
-                ChartDataLoader.buildArgs(mTemplate, null), mChartDataCallbacks);
+                NetworkStatsRepository.ChartLoader.buildArgs(mTemplate, null),
+                mChartDataCallbacks);
 
         // detail mode can change visible menus, invalidate
         getActivity().invalidateOptionsMenu();
@@ -302,7 +301,8 @@ public class DataUsageList extends DataUsageBase {
 
         // kick off loader for detailed stats
         getLoaderManager().restartLoader(LOADER_SUMMARY,
-                SummaryForAllUidLoader.buildArgs(mTemplate, start, end), mSummaryCallbacks);
+                NetworkStatsRepository.SummaryLoader.buildArgs(mTemplate, start, end),
+                mSummaryCallbacks);
 
         final long totalBytes = entry != null ? entry.rxBytes + entry.txBytes : 0;
         final String totalPhrase = Formatter.formatFileSize(context, totalBytes);
@@ -318,7 +318,7 @@ public class DataUsageList extends DataUsageBase {
 
         final int currentUserId = ActivityManager.getCurrentUser();
         UserManager userManager = UserManager.get(getContext());
-        final List<UserHandle> profiles = userManager.getUserProfiles();
+        final SparseIntArray userKinds = getProfileKinds(userManager);
         final SparseArray<AppItem> knownItems = new SparseArray<AppItem>();
 
         NetworkStats.Entry entry = null;
@@ -333,7 +333,8 @@ public class DataUsageList extends DataUsageBase {
             final int category;
             final int userId = UserHandle.getUserId(uid);
             if (UserHandle.isApp(uid)) {
-                if (profiles.contains(new UserHandle(userId))) {
+                final int userKind = getUserKind(userManager, userKinds, userId);
+                if (userKind == USER_KIND_PROFILE) {
                     if (userId != currentUserId) {
                         // Add to a managed user item.
                         final int managedKey = UidDetailProvider.buildKeyForUser(userId);
@@ -343,17 +344,14 @@ public class DataUsageList extends DataUsageBase {
                     // Add to app item.
                     collapseKey = uid;
                     category = AppItem.CATEGORY_APP;
-                } else {
+                } else if (userKind == USER_KIND_REMOVED) {
                     // If it is a removed user add it to the removed users' key
-                    final UserInfo info = userManager.getUserInfo(userId);
-                    if (info == null) {
-                        collapseKey = UID_REMOVED;
-                        category = AppItem.CATEGORY_APP;
-                    } else {
-                        // Add to other user item.
-                        collapseKey = UidDetailProvider.buildKeyForUser(userId);
-                        category = AppItem.CATEGORY_USER;
-                    }
+                    collapseKey = UID_REMOVED;
+                    category = AppItem.CATEGORY_APP;
+                } else {
+                    // Add to other user item.
+                    collapseKey = UidDetailProvider.buildKeyForUser(userId);
+                    category = AppItem.CATEGORY_USER;
                 }
             } else if (uid == UID_REMOVED || uid == UID_TETHERING) {
                 collapseKey = uid;
@@ -369,7 +367,7 @@ public class DataUsageList extends DataUsageBase {
         for (int i = 0; i < restrictedUidsMax; ++i) {
             final int uid = restrictedUids[i];
             // Only splice in restricted state for current user or managed users
-            if (!profiles.contains(new UserHandle(UserHandle.getUserId(uid)))) {
+            if (userKinds.get(UserHandle.getUserId(uid)) != USER_KIND_PROFILE) {
                 continue;
             }
 
@@ -384,22 +382,71 @@ public class DataUsageList extends DataUsageBase {
         }
 
         Collections.sort(items);
-        mApps.removeAll();
+        bindApps(items, largest);
+    }
+
+    /**
+     * Update the app preferences in place, reusing the one of each app still in the list.
+     */
+    private void bindApps(ArrayList<AppItem> items, long largest) {
+        final SparseArray<AppDataUsagePreference> preferences = new SparseArray<>(items.size());
         for (int i = 0; i < items.size(); i++) {
-            final int percentTotal = largest != 0 ? (int) (items.get(i).total * 100 / largest) : 0;
-            AppDataUsagePreference preference = new AppDataUsagePreference(getContext(),
-                    items.get(i), percentTotal, mUidDetailProvider);
-            preference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
-                @Override
-                public boolean onPreferenceClick(Preference preference) {
-                    AppDataUsagePreference pref = (AppDataUsagePreference) preference;
-                    AppItem item = pref.getItem();
-                    startAppDataUsage(item);
-                    return true;
-                }
-            });
-            mApps.addPreference(preference);
+            final AppItem item = items.get(i);
+            final int percentTotal = largest != 0 ? (int) (item.total * 100 / largest) : 0;
+            AppDataUsagePreference preference = mAppPreferences.get(item.key);
+            if (preference == null) {
+                preference = new AppDataUsagePreference(getContext(), item, percentTotal,
+                        mUidDetailProvider);
+                preference.setOnPreferenceClickListener(mAppClickListener);
+                preference.setOrder(i);
+                mApps.addPreference(preference);
+            } else {
+                preference.setItem(item, percentTotal);
+                preference.setOrder(i);
+                mAppPreferences.remove(item.key);
+            }
+            preferences.put(item.key, preference);
+        }
+        // What is left are the apps which are gone.
+        for (int i = 0; i < mAppPreferences.size(); i++) {
+            mApps.removePreference(mAppPreferences.valueAt(i));
+        }
+        mAppPreferences = preferences;
+    }
+
+    private final Preference.OnPreferenceClickListener mAppClickListener =
+            new Preference.OnPreferenceClickListener() {
+        @Override
+        public boolean onPreferenceClick(Preference preference) {
+            AppDataUsagePreference pref = (AppDataUsagePreference) preference;
+            AppItem item = pref.getItem();
+            startAppDataUsage(item);
+            return true;
+        }
+    };
+
+    private static SparseIntArray getProfileKinds(UserManager userManager) {
+        final List<UserHandle> profiles = userManager.getUserProfiles();
+        final SparseIntArray userKinds = new SparseIntArray(profiles.size());
+        for (int i = 0; i < profiles.size(); i++) {
+            userKinds.put(profiles.get(i).getIdentifier(), USER_KIND_PROFILE);
+        }
+        return userKinds;
+    }
+
+    /**
+     * Returns whether the user is one of our profiles, another user or a removed one, only
+     * going to the {@link UserManager} the first time a user is seen.
+     */
+    private static int getUserKind(UserManager userManager, SparseIntArray userKinds,
+            int userId) {
+        int userKind = userKinds.get(userId);
+        if (userKind == USER_KIND_UNKNOWN) {
+            final UserInfo info = userManager.getUserInfo(userId);
+            userKind = info != null ? USER_KIND_OTHER : USER_KIND_REMOVED;
+            userKinds.put(userId, userKind);
         }
+        return userKind;
     }
 
     private void startAppDataUsage(AppItem item) {
@@ -514,7 +561,7 @@ public class DataUsageList extends DataUsageBase {
             ChartData>() {
         @Override
         public Loader<ChartData> onCreateLoader(int id, Bundle args) {
-            return new ChartDataLoader(getActivity(), mStatsSession, args);
+            return new NetworkStatsRepository.ChartLoader(getActivity(), args);
         }
 
         @Override
@@ -538,7 +585,7 @@ public class DataUsageList extends DataUsageBase {
             NetworkStats>() {
         @Override
         public Loader<NetworkStats> onCreateLoader(int id, Bundle args) {
-            return new SummaryForAllUidLoader(getActivity(), mStatsSession, args);
+            return new NetworkStatsRepository.SummaryLoader(getActivity(), args);
         }
 
         @Override
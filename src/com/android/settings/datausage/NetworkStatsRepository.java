@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.net.INetworkStatsService;
+import android.net.INetworkStatsSession;
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+import android.net.NetworkTemplate;
+import android.net.TrafficStats;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.ChartData;
+
+import java.util.Objects;
+
+import static android.net.NetworkStats.SET_DEFAULT;
+import static android.net.NetworkStats.SET_FOREGROUND;
+import static android.net.NetworkStats.TAG_NONE;
+import static android.net.NetworkStatsHistory.FIELD_RX_BYTES;
+import static android.net.NetworkStatsHistory.FIELD_TX_BYTES;
+
+/**
+ * One network stats session shared by the data usage screens, and the stats they read through
+ * it, kept for a little while so that going back and forth between the screens doesn't read
+ * them again.
+ *
+ * The screens {@link #acquire()} the session while they are alive and {@link #release()} it
+ * after, and so do the loaders while they load, as they may outlive the screen that started
+ * them. The returned stats are shared, they must not be modified.
+ */
+public class NetworkStatsRepository {
+
+    private static final String TAG = "NetworkStatsRepository";
+
+    private static final long MAX_AGE = 30 * DateUtils.SECOND_IN_MILLIS;
+
+    private static final int KIND_NETWORK_HISTORY = 0;
+    private static final int KIND_UID_HISTORY = 1;
+    private static final int KIND_UID_SUMMARY = 2;
+    private static final int KIND_NETWORK_SUMMARY = 3;
+
+    private static NetworkStatsRepository sInstance;
+
+    private final INetworkStatsService mStatsService;
+    private final ArrayMap<Key, CachedStats> mCache = new ArrayMap<>();
+
+    private INetworkStatsSession mSession;
+    private int mSessionRefs;
+
+    private NetworkStatsRepository() {
+        mStatsService = INetworkStatsService.Stub.asInterface(
+                ServiceManager.getService(Context.NETWORK_STATS_SERVICE));
+    }
+
+    public static synchronized NetworkStatsRepository get() {
+        if (sInstance == null) {
+            sInstance = new NetworkStatsRepository();
+        }
+        return sInstance;
+    }
+
+    public synchronized void acquire() {
+        if (mSessionRefs++ == 0) {
+            try {
+                mSession = mStatsService.openSession();
+            } catch (RemoteException e) {
+                mSessionRefs--;
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    public synchronized void release() {
+        if (--mSessionRefs == 0) {
+            TrafficStats.closeQuietly(mSession);
+            mSession = null;
+        }
+    }
+
+    /**
+     * Forget all the stats read so far, as the ones of the system changed.
+     */
+    public synchronized void invalidate() {
+        mCache.clear();
+    }
+
+    /**
+     * Ask the system to record the latest stats now, and forget the ones read so far.
+     */
+    public void forceUpdate() throws RemoteException {
+        mStatsService.forceUpdate();
+        invalidate();
+    }
+
+    public NetworkStatsHistory getHistoryForNetwork(NetworkTemplate template, int fields)
+            throws RemoteException {
+        final Key key = new Key(KIND_NETWORK_HISTORY, template, 0, 0, fields, 0, 0);
+        NetworkStatsHistory history = (NetworkStatsHistory) getCached(key);
+        if (history == null) {
+            history = getSession().getHistoryForNetwork(template, fields);
+            putCached(key, history);
+        }
+        return history;
+    }
+
+    public NetworkStatsHistory getHistoryForUid(NetworkTemplate template, int uid, int set,
+            int fields) throws RemoteException {
+        final Key key = new Key(KIND_UID_HISTORY, template, uid, set, fields, 0, 0);
+        NetworkStatsHistory history = (NetworkStatsHistory) getCached(key);
+        if (history == null) {
+            history = getSession().getHistoryForUid(template, uid, set, TAG_NONE, fields);
+            putCached(key, history);
+        }
+        return history;
+    }
+
+    public NetworkStats getSummaryForAllUid(NetworkTemplate template, long start, long end)
+            throws RemoteException {
+        final Key key = new Key(KIND_UID_SUMMARY, template, 0, 0, 0, start, end);
+        NetworkStats stats = (NetworkStats) getCached(key);
+        if (stats == null) {
+            stats = getSession().getSummaryForAllUid(template, start, end, false);
+            putCached(key, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the bytes sent and received over the networks matching the template.
+     */
+    public long getTotalBytes(NetworkTemplate template, long start, long end)
+            throws RemoteException {
+        final Key key = new Key(KIND_NETWORK_SUMMARY, template, 0, 0, 0, start, end);
+        NetworkStats stats = (NetworkStats) getCached(key);
+        if (stats == null) {
+            acquire();
+            try {
+                stats = getSession().getSummaryForNetwork(template, start, end);
+            } finally {
+                release();
+            }
+            putCached(key, stats);
+        }
+        return stats.getTotalBytes();
+    }
+
+    private synchronized INetworkStatsSession getSession() {
+        if (mSession == null) {
+            throw new IllegalStateException("No stats session acquired");
+        }
+        return mSession;
+    }
+
+    private synchronized Object getCached(Key key) {
+        final CachedStats cached = mCache.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - cached.time > MAX_AGE) {
+            mCache.remove(key);
+            return null;
+        }
+        return cached.stats;
+    }
+
+    private synchronized void putCached(Key key, Object stats) {
+        final long now = SystemClock.elapsedRealtime();
+        for (int i = mCache.size() - 1; i >= 0; i--) {
+            if (now - mCache.valueAt(i).time > MAX_AGE) {
+                mCache.removeAt(i);
+            }
+        }
+        mCache.put(key, new CachedStats(stats, now));
+    }
+
+    private static class CachedStats {
+        final Object stats;
+        final long time;
+
+        CachedStats(Object stats, long time) {
+            this.stats = stats;
+            this.time = time;
+        }
+    }
+
+    private static class Key {
+        final int kind;
+        final NetworkTemplate template;
+        final int uid;
+        final int set;
+        final int fields;
+        final long start;
+        final long end;
+
+        Key(int kind, NetworkTemplate template, int uid, int set, int fields, long start,
+                long end) {
+            this.kind = kind;
+            this.template = template;
+            this.uid = uid;
+            this.set = set;
+            this.fields = fields;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return kind == other.kind && uid == other.uid && set == other.set
+                    && fields == other.fields && start == other.start && end == other.end
+                    && Objects.equals(template, other.template);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, template, uid, set, fields, start, end);
+        }
+    }
+
+    /**
+     * Loads the {@link ChartData} of a network, and of an app on it, through the repository.
+     */
+    public static class ChartLoader extends AsyncTaskLoader<ChartData> {
+        private static final String KEY_TEMPLATE = "template";
+        private static final String KEY_APP = "app";
+        private static final String KEY_FIELDS = "fields";
+
+        private final Bundle mArgs;
+
+        public static Bundle buildArgs(NetworkTemplate template, AppItem app) {
+            final Bundle args = new Bundle();
+            args.putParcelable(KEY_TEMPLATE, template);
+            args.putParcelable(KEY_APP, app);
+            args.putInt(KEY_FIELDS, FIELD_RX_BYTES | FIELD_TX_BYTES);
+            return args;
+        }
+
+        public ChartLoader(Context context, Bundle args) {
+            super(context);
+            mArgs = args;
+        }
+
+        @Override
+        protected void onStartLoading() {
+            super.onStartLoading();
+            forceLoad();
+        }
+
+        @Override
+        public ChartData loadInBackground() {
+            final NetworkTemplate template = mArgs.getParcelable(KEY_TEMPLATE);
+            final AppItem app = mArgs.getParcelable(KEY_APP);
+            final int fields = mArgs.getInt(KEY_FIELDS);
+            final NetworkStatsRepository repository = get();
+            repository.acquire();
+            try {
+                final ChartData data = new ChartData();
+                data.network = repository.getHistoryForNetwork(template, fields);
+                if (app != null) {
+                    final int size = app.uids.size();
+                    for (int i = 0; i < size; i++) {
+                        final int uid = app.uids.keyAt(i);
+                        data.detailDefault = collect(repository.getHistoryForUid(template, uid,
+                                SET_DEFAULT, FIELD_RX_BYTES | FIELD_TX_BYTES),
+                                data.detailDefault);
+                        data.detailForeground = collect(repository.getHistoryForUid(template,
+                                uid, SET_FOREGROUND, FIELD_RX_BYTES | FIELD_TX_BYTES),
+                                data.detailForeground);
+                    }
+                    if (size > 0) {
+                        data.detail = new NetworkStatsHistory(
+                                data.detailForeground.getBucketDuration());
+                        data.detail.recordEntireHistory(data.detailDefault);
+                        data.detail.recordEntireHistory(data.detailForeground);
+                    } else {
+                        data.detailDefault = new NetworkStatsHistory(DateUtils.HOUR_IN_MILLIS);
+                        data.detailForeground = new NetworkStatsHistory(DateUtils.HOUR_IN_MILLIS);
+                        data.detail = new NetworkStatsHistory(DateUtils.HOUR_IN_MILLIS);
+                    }
+                }
+                return data;
+            } catch (RemoteException e) {
+                throw new RuntimeException("problem reading network stats", e);
+            } finally {
+                repository.release();
+            }
+        }
+
+        /**
+         * Add the history to the existing one, in a copy as the cached history is shared.
+         */
+        private static NetworkStatsHistory collect(NetworkStatsHistory history,
+                NetworkStatsHistory existing) {
+            if (existing == null) {
+                existing = new NetworkStatsHistory(history.getBucketDuration());
+            }
+            existing.recordEntireHistory(history);
+            return existing;
+        }
+
+        @Override
+        protected void onStopLoading() {
+            super.onStopLoading();
+            cancelLoad();
+        }
+
+        @Override
+        protected void onReset() {
+            super.onReset();
+            cancelLoad();
+        }
+    }
+
+    /**
+     * Loads the usage summary of every uid on a network, through the repository.
+     */
+    public static class SummaryLoader extends AsyncTaskLoader<NetworkStats> {
+        private static final String KEY_TEMPLATE = "template";
+        private static final String KEY_START = "start";
+        private static final String KEY_END = "end";
+
+        private final Bundle mArgs;
+
+        public static Bundle buildArgs(NetworkTemplate template, long start, long end) {
+            final Bundle args = new Bundle();
+            args.putParcelable(KEY_TEMPLATE, template);
+            args.putLong(KEY_START, start);
+            args.putLong(KEY_END, end);
+            return args;
+        }
+
+        public SummaryLoader(Context context, Bundle args) {
+            super(context);
+            mArgs = args;
+        }
+
+        @Override
+        protected void onStartLoading() {
+            super.onStartLoading();
+            forceLoad();
+        }
+
+        @Override
+        public NetworkStats loadInBackground() {
+            final NetworkTemplate template = mArgs.getParcelable(KEY_TEMPLATE);
+            final long start = mArgs.getLong(KEY_START);
+            final long end = mArgs.getLong(KEY_END);
+            final NetworkStatsRepository repository = get();
+            repository.acquire();
+            try {
+                return repository.getSummaryForAllUid(template, start, end);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Problem reading summary", e);
+                return null;
+            } finally {
+                repository.release();
+            }
+        }
+
+        @Override
+        protected void onStopLoading() {
+            super.onStopLoading();
+            cancelLoad();
+        }
+
+        @Override
+        protected void onReset() {
+            super.onReset();
+            cancelLoad();
+        }
+    }
+}
@@ -85,6 +85,15 @@ public abstract class MigrateEstimateTask extends AsyncTask<Void, Void, Long> im
             return -1L;
         }
 
+        // Estimate from the last measurement of the shared storage, as long as it still holds.
+        if (StorageMeasurementCache.isFresh(mContext, privateVol, emulatedVol)) {
+            final long sharedSize = StorageMeasurementCache.getSharedSize(mContext, privateVol);
+            if (sharedSize >= 0) {
+                Log.d(TAG, "Estimating from last measurement of " + privateVol.getId());
+                return sharedSize;
+            }
+        }
+
         final String path = emulatedVol.getPath().getAbsolutePath();
         Log.d(TAG, "Estimating for current path " + path);
 
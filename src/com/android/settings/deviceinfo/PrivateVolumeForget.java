@@ -102,6 +102,7 @@ public class PrivateVolumeForget extends SettingsPreferenceFragment {
                 @Override
                 public void onClick(DialogInterface dialog, int which) {
                     storage.forgetVolume(fsUuid);
+                    StorageMeasurementCache.invalidate(context, fsUuid);
                     getActivity().finish();
                 }
             });
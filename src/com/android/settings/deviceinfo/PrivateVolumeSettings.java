@@ -270,7 +270,15 @@ public class PrivateVolumeSettings extends SettingsPreferenceFragment {
                 Formatter.formatFileSize(context, mTotalSize)));
         mSummary.setPercent((int) ((usedBytes * 100) / mTotalSize));
 
-        mMeasure.forceMeasure();
+        // Show the last measurement right away, and only measure again if it may be stale.
+        final MeasurementDetails cached = StorageMeasurementCache.get(context, mVolume);
+        if (cached != null) {
+            updateDetails(cached);
+        }
+        if (cached == null
+                || !StorageMeasurementCache.isFresh(context, mVolume, mSharedVolume)) {
+            mMeasure.forceMeasure();
+        }
         mNeedsUpdate = false;
     }
 
@@ -548,6 +556,9 @@ public class PrivateVolumeSettings extends SettingsPreferenceFragment {
         @Override
         public void onDetailsChanged(MeasurementDetails details) {
             updateDetails(details);
+            if (getActivity() != null) {
+                StorageMeasurementCache.put(getActivity(), mVolume, mSharedVolume, details);
+            }
         }
     };
 
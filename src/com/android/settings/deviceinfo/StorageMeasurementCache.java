@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo;
+
+import android.content.Context;
+import android.net.TrafficStats;
+import android.os.AsyncTask;
+import android.os.storage.VolumeInfo;
+import android.text.format.DateUtils;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
+
+import com.android.settingslib.deviceinfo.StorageMeasurement.MeasurementDetails;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The last storage measurement of each private volume, by volume UUID, kept on disk so that
+ * the storage screens can show sizes right away while they measure again.
+ *
+ * A measurement is considered fresh, and not worth redoing, while it is recent, the free space
+ * of the volume barely moved, and none of the measured media directories changed.
+ */
+public class StorageMeasurementCache {
+
+    private static final String TAG = "StorageMeasurementCache";
+
+    private static final String DIR_NAME = "storage_measurements";
+    private static final int VERSION = 1;
+
+    private static final long MAX_AGE = 10 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long FREE_SPACE_SLOP = TrafficStats.MB_IN_BYTES;
+
+    private static final ArrayMap<String, Measurement> sMeasurements = new ArrayMap<>();
+
+    private StorageMeasurementCache() {
+    }
+
+    /**
+     * Returns the last measurement of the volume, or null if it was never measured.
+     */
+    public static MeasurementDetails get(Context context, VolumeInfo vol) {
+        final Measurement measurement = getMeasurement(context, vol);
+        return measurement != null ? measurement.details : null;
+    }
+
+    /**
+     * Whether the last measurement of the volume can be shown as is.
+     */
+    public static boolean isFresh(Context context, VolumeInfo vol, VolumeInfo sharedVol) {
+        final Measurement measurement = getMeasurement(context, vol);
+        if (measurement == null
+                || System.currentTimeMillis() - measurement.time > MAX_AGE
+                || Math.abs(vol.getPath().getFreeSpace() - measurement.details.availSize)
+                        > FREE_SPACE_SLOP) {
+            return false;
+        }
+        return measurement.mediaTimes != null
+                && measurement.mediaTimes.equals(getMediaTimes(measurement.details, sharedVol));
+    }
+
+    /**
+     * Returns the size of the shared storage of all users on the volume, as last measured, or
+     * -1 if it was never measured.
+     */
+    public static long getSharedSize(Context context, VolumeInfo vol) {
+        final MeasurementDetails details = get(context, vol);
+        if (details == null) {
+            return -1;
+        }
+        long size = 0;
+        for (int i = 0; i < details.mediaSize.size(); i++) {
+            for (Long mediaSize : details.mediaSize.valueAt(i).values()) {
+                size += mediaSize;
+            }
+        }
+        for (int i = 0; i < details.miscSize.size(); i++) {
+            size += details.miscSize.valueAt(i);
+        }
+        return size;
+    }
+
+    public static void put(Context context, VolumeInfo vol, final VolumeInfo sharedVol,
+            MeasurementDetails details) {
+        final Measurement measurement = new Measurement(details, System.currentTimeMillis());
+        final String key = getKey(vol);
+        synchronized (sMeasurements) {
+            sMeasurements.put(key, measurement);
+        }
+        final File file = getFile(context, key);
+        AsyncTask.execute(new Runnable() {
+            @Override
+            public void run() {
+                measurement.mediaTimes = getMediaTimes(measurement.details, sharedVol);
+                write(file, measurement);
+            }
+        });
+    }
+
+    public static void invalidate(Context context, String fsUuid) {
+        final String key = fsUuid != null ? fsUuid : VolumeInfo.ID_PRIVATE_INTERNAL;
+        synchronized (sMeasurements) {
+            sMeasurements.remove(key);
+        }
+        new AtomicFile(getFile(context, key)).delete();
+    }
+
+    private static Measurement getMeasurement(Context context, VolumeInfo vol) {
+        final String key = getKey(vol);
+        synchronized (sMeasurements) {
+            Measurement measurement = sMeasurements.get(key);
+            if (measurement == null) {
+                measurement = read(getFile(context, key));
+                if (measurement != null) {
+                    sMeasurements.put(key, measurement);
+                }
+            }
+            return measurement;
+        }
+    }
+
+    private static String getKey(VolumeInfo vol) {
+        return vol.getFsUuid() != null ? vol.getFsUuid() : VolumeInfo.ID_PRIVATE_INTERNAL;
+    }
+
+    private static File getFile(Context context, String key) {
+        return new File(new File(context.getFilesDir(), DIR_NAME), key);
+    }
+
+    /**
+     * Returns the modification time of each measured media directory, by user and name.
+     */
+    private static HashMap<String, Long> getMediaTimes(MeasurementDetails details,
+            VolumeInfo sharedVol) {
+        final HashMap<String, Long> times = new HashMap<>();
+        if (sharedVol == null || !sharedVol.isMountedReadable()) {
+            return times;
+        }
+        for (int i = 0; i < details.mediaSize.size(); i++) {
+            final int userId = details.mediaSize.keyAt(i);
+            final File userPath = sharedVol.getPathForUser(userId);
+            if (userPath == null) {
+                continue;
+            }
+            for (String dir : details.mediaSize.valueAt(i).keySet()) {
+                times.put(userId + "/" + dir, new File(userPath, dir).lastModified());
+            }
+        }
+        return times;
+    }
+
+    private static Measurement read(File file) {
+        final AtomicFile atomicFile = new AtomicFile(file);
+        if (!atomicFile.getBaseFile().exists()) {
+            return null;
+        }
+        FileInputStream stream = null;
+        try {
+            stream = atomicFile.openRead();
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            final MeasurementDetails details = new MeasurementDetails();
+            final Measurement measurement = new Measurement(details, in.readLong());
+            details.totalSize = in.readLong();
+            details.availSize = in.readLong();
+            details.cacheSize = in.readLong();
+            readSizes(in, details.appsSize);
+            readSizes(in, details.usersSize);
+            readSizes(in, details.miscSize);
+            final HashMap<String, Long> mediaTimes = new HashMap<>();
+            final int users = in.readInt();
+            for (int i = 0; i < users; i++) {
+                final int userId = in.readInt();
+                final int dirs = in.readInt();
+                final HashMap<String, Long> sizes = new HashMap<>();
+                for (int j = 0; j < dirs; j++) {
+                    final String dir = in.readUTF();
+                    sizes.put(dir, in.readLong());
+                    mediaTimes.put(userId + "/" + dir, in.readLong());
+                }
+                details.mediaSize.put(userId, sizes);
+            }
+            measurement.mediaTimes = mediaTimes;
+            return measurement;
+        } catch (IOException e) {
+            Log.w(TAG, "Problem reading " + file, e);
+            return null;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // Ignored
+                }
+            }
+        }
+    }
+
+    private static void readSizes(DataInputStream in, SparseLongArray sizes) throws IOException {
+        final int N = in.readInt();
+        for (int i = 0; i < N; i++) {
+            sizes.put(in.readInt(), in.readLong());
+        }
+    }
+
+    private static void write(File file, Measurement measurement) {
+        file.getParentFile().mkdirs();
+        final AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream out = null;
+        try {
+            out = atomicFile.startWrite();
+            final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            final MeasurementDetails details = measurement.details;
+            data.writeInt(VERSION);
+            data.writeLong(measurement.time);
+            data.writeLong(details.totalSize);
+            data.writeLong(details.availSize);
+            data.writeLong(details.cacheSize);
+            writeSizes(data, details.appsSize);
+            writeSizes(data, details.usersSize);
+            writeSizes(data, details.miscSize);
+            final SparseArray<HashMap<String, Long>> mediaSize = details.mediaSize;
+            data.writeInt(mediaSize.size());
+            for (int i = 0; i < mediaSize.size(); i++) {
+                final int userId = mediaSize.keyAt(i);
+                data.writeInt(userId);
+                data.writeInt(mediaSize.valueAt(i).size());
+                for (Map.Entry<String, Long> entry : mediaSize.valueAt(i).entrySet()) {
+                    final Long time = measurement.mediaTimes.get(userId + "/" + entry.getKey());
+                    data.writeUTF(entry.getKey());
+                    data.writeLong(entry.getValue());
+                    data.writeLong(time != null ? time : 0);
+                }
+            }
+            data.flush();
+            atomicFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Problem writing " + file, e);
+            if (out != null) {
+                atomicFile.failWrite(out);
+            }
+        }
+    }
+
+    private static void writeSizes(DataOutputStream out, SparseLongArray sizes)
+            throws IOException {
+        out.writeInt(sizes.size());
+        for (int i = 0; i < sizes.size(); i++) {
+            out.writeInt(sizes.keyAt(i));
+            out.writeLong(sizes.valueAt(i));
+        }
+    }
+
+    private static class Measurement {
+        final MeasurementDetails details;
+        final long time;
+        // Modification time of each measured media directory, by "userId/name". Only known
+        // once the measurement was written.
+        volatile HashMap<String, Long> mediaTimes;
+
+        Measurement(MeasurementDetails details, long time) {
+            this.details = details;
+            this.time = time;
+        }
+    }
+}
@@ -129,6 +129,11 @@ public class StorageSettings extends SettingsPreferenceFragment implements Index
         @Override
         public void onVolumeStateChanged(VolumeInfo vol, int oldState, int newState) {
             if (isInteresting(vol)) {
+                if (vol.getType() == VolumeInfo.TYPE_PRIVATE
+                        && newState == VolumeInfo.STATE_FORMATTING) {
+                    // The last measurement doesn't hold anymore.
+                    StorageMeasurementCache.invalidate(getActivity(), vol.getFsUuid());
+                }
                 refresh();
             }
         }
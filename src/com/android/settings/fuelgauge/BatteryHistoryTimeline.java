@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+
+import java.util.Arrays;
+
+/**
+ * The battery history records, decoded once from {@link BatteryStats} into one primitive array
+ * per field, so that they can be walked again without going through the history iterator.
+ */
+class BatteryHistoryTimeline {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    int size;
+    long[] time = new long[INITIAL_CAPACITY];
+    long[] currentTime = new long[INITIAL_CAPACITY];
+    byte[] cmd = new byte[INITIAL_CAPACITY];
+    byte[] batteryLevel = new byte[INITIAL_CAPACITY];
+    int[] states = new int[INITIAL_CAPACITY];
+    int[] states2 = new int[INITIAL_CAPACITY];
+
+    private BatteryHistoryTimeline() {
+    }
+
+    /**
+     * Walk the history of the given stats once.
+     */
+    static BatteryHistoryTimeline decode(BatteryStats stats) {
+        final BatteryHistoryTimeline timeline = new BatteryHistoryTimeline();
+        if (stats.startIteratingHistoryLocked()) {
+            final HistoryItem rec = new HistoryItem();
+            while (stats.getNextHistoryLocked(rec)) {
+                timeline.add(rec);
+            }
+            stats.finishIteratingHistoryLocked();
+        }
+        return timeline;
+    }
+
+    private void add(HistoryItem rec) {
+        if (size == time.length) {
+            grow(size * 2);
+        }
+        time[size] = rec.time;
+        currentTime[size] = rec.currentTime;
+        cmd[size] = rec.cmd;
+        batteryLevel[size] = rec.batteryLevel;
+        states[size] = rec.states;
+        states2[size] = rec.states2;
+        size++;
+    }
+
+    private void grow(int capacity) {
+        time = Arrays.copyOf(time, capacity);
+        currentTime = Arrays.copyOf(currentTime, capacity);
+        cmd = Arrays.copyOf(cmd, capacity);
+        batteryLevel = Arrays.copyOf(batteryLevel, capacity);
+        states = Arrays.copyOf(states, capacity);
+        states2 = Arrays.copyOf(states2, capacity);
+    }
+
+    /**
+     * Same as {@link HistoryItem#isDeltaData()} for the record at the given index.
+     */
+    boolean isDeltaData(int index) {
+        return cmd[index] == HistoryItem.CMD_UPDATE;
+    }
+}
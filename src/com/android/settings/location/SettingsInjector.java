@@ -19,6 +19,7 @@ package com.android.settings.location;
 import android.app.ActivityManager;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
@@ -47,8 +48,9 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -72,6 +74,21 @@ class SettingsInjector {
      */
     private static final long INJECTED_STATUS_UPDATE_TIMEOUT_MILLIS = 1000;
 
+    /**
+     * How many settings have their status loaded at the same time, not counting the ones that
+     * timed out.
+     */
+    private static final int MAX_CONCURRENT_LOADS = 4;
+
+    /**
+     * The last status received from each injected setting, kept so that the settings show it
+     * right away the next time, and how long it took to come, so that the fastest settings are
+     * loaded first.
+     */
+    private static final String STATUS_PREFS_NAME = "injected_setting_status";
+    private static final String KEY_ENABLED_PREFIX = "enabled:";
+    private static final String KEY_LATENCY_PREFIX = "latency:";
+
     /**
      * {@link Message#what} value for starting to load status values
      * in case we aren't already in the process of loading them.
@@ -97,10 +114,13 @@ class SettingsInjector {
 
     private final Handler mHandler;
 
+    private final SharedPreferences mStatusPrefs;
+
     public SettingsInjector(Context context) {
         mContext = context;
         mSettings = new HashSet<Setting>();
         mHandler = new StatusLoadingHandler();
+        mStatusPrefs = context.getSharedPreferences(STATUS_PREFS_NAME, Context.MODE_PRIVATE);
     }
 
     /**
@@ -279,12 +299,18 @@ class SettingsInjector {
         pref.setTitle(info.title);
         pref.setSummary(null);
         pref.setIcon(icon);
+        // Show the last known status until the service replies.
+        pref.setEnabled(mStatusPrefs.getBoolean(KEY_ENABLED_PREFIX + getStatusKey(info), true));
         pref.setOnPreferenceClickListener(new ServiceSettingClickedListener(info));
 
         prefs.add(pref);
         return pref;
     }
 
+    private static String getStatusKey(InjectedSetting info) {
+        return info.mUserHandle.getIdentifier() + "/" + info.packageName + "/" + info.className;
+    }
+
     private class ServiceSettingClickedListener
             implements Preference.OnPreferenceClickListener {
         private InjectedSetting mInfo;
@@ -317,9 +343,10 @@ class SettingsInjector {
     }
 
     /**
-     * Loads the setting status values one at a time. Each load starts a subclass of {@link
-     * SettingInjectorService}, so to reduce memory pressure we don't want to load too many at
-     * once.
+     * Loads the setting status values, up to {@link #MAX_CONCURRENT_LOADS} at a time. Each load
+     * starts a subclass of {@link SettingInjectorService}, so to reduce memory pressure we don't
+     * want to load too many at once. Each load times out on its own. The settings that replied
+     * the fastest last time are loaded first, so that the slow ones hold a slot last.
      */
     private final class StatusLoadingHandler extends Handler {
 
@@ -329,20 +356,27 @@ class SettingsInjector {
         private Set<Setting> mSettingsToLoad = new HashSet<Setting>();
 
         /**
-         * Settings that are being loaded now and haven't timed out. In practice this should have
-         * zero or one elements.
+         * Settings that are being loaded now and haven't timed out. At most MAX_CONCURRENT_LOADS
+         * elements.
          */
         private Set<Setting> mSettingsBeingLoaded = new HashSet<Setting>();
 
         /**
-         * Settings that are being loaded but have timed out. If only one setting has timed out, we
-         * will go ahead and start loading the next setting so that one slow load won't delay the
-         * load of the other settings.
+         * Settings that are being loaded but have timed out. As long as no more than
+         * MAX_CONCURRENT_LOADS settings have timed out, we go ahead and start loading the next
+         * settings so that slow loads won't delay the load of the other settings.
          */
         private Set<Setting> mTimedOutSettings = new HashSet<Setting>();
 
         private boolean mReloadRequested;
 
+        private final Comparator<Setting> mLatencyComparator = new Comparator<Setting>() {
+            @Override
+            public int compare(Setting lhs, Setting rhs) {
+                return Long.compare(lhs.lastLatency, rhs.lastLatency);
+            }
+        };
+
         @Override
         public void handleMessage(Message msg) {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
@@ -357,6 +391,12 @@ class SettingsInjector {
                 case WHAT_RECEIVED_STATUS:
                     final Setting receivedSetting = (Setting) msg.obj;
                     receivedSetting.maybeLogElapsedTime();
+                    if (mTimedOutSettings.contains(receivedSetting)
+                            && Log.isLoggable(TAG, Log.WARN)) {
+                        Log.w(TAG, "Slow injected setting replied after "
+                                + receivedSetting.getElapsedTime() + " millis: "
+                                + receivedSetting);
+                    }
                     mSettingsBeingLoaded.remove(receivedSetting);
                     mTimedOutSettings.remove(receivedSetting);
                     removeMessages(WHAT_TIMEOUT, receivedSetting);
@@ -376,11 +416,11 @@ class SettingsInjector {
 
             // Decide whether to load additional settings based on the new state. Start by seeing
             // if we have headroom to load another setting.
-            if (mSettingsBeingLoaded.size() > 0 || mTimedOutSettings.size() > 1) {
+            if (mSettingsBeingLoaded.size() >= MAX_CONCURRENT_LOADS
+                    || mTimedOutSettings.size() > MAX_CONCURRENT_LOADS) {
                 // Don't load any more settings until one of the pending settings has completed.
-                // To reduce memory pressure, we want to be loading at most one setting (plus at
-                // most one timed-out setting) at a time. This means we'll be responsible for
-                // bringing in at most two services.
+                // To reduce memory pressure, we want to be loading at most MAX_CONCURRENT_LOADS
+                // settings (plus at most as many timed-out settings) at a time.
                 if (Log.isLoggable(TAG, Log.VERBOSE)) {
                     Log.v(TAG, "too many services already live for " + msg + ", " + this);
                 }
@@ -397,29 +437,33 @@ class SettingsInjector {
                 mReloadRequested = false;
             }
 
-            // Remove the next setting to load from the queue, if any
-            Iterator<Setting> iter = mSettingsToLoad.iterator();
-            if (!iter.hasNext()) {
+            // Start loading as many of the queued settings as there is room for, fastest first
+            if (mSettingsToLoad.isEmpty()) {
                 if (Log.isLoggable(TAG, Log.VERBOSE)) {
                     Log.v(TAG, "nothing left to do for " + msg + ", " + this);
                 }
                 return;
             }
-            Setting setting = iter.next();
-            iter.remove();
-
-            // Request the status value
-            setting.startService();
-            mSettingsBeingLoaded.add(setting);
-
-            // Ensure that if receiving the status value takes too long, we start loading the
-            // next value anyway
-            Message timeoutMsg = obtainMessage(WHAT_TIMEOUT, setting);
-            sendMessageDelayed(timeoutMsg, INJECTED_STATUS_UPDATE_TIMEOUT_MILLIS);
-
-            if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "handleMessage end " + msg + ", " + this
-                        + ", started loading " + setting);
+            final List<Setting> settingsToLoad = new ArrayList<Setting>(mSettingsToLoad);
+            Collections.sort(settingsToLoad, mLatencyComparator);
+            for (int i = 0, count = settingsToLoad.size();
+                    i < count && mSettingsBeingLoaded.size() < MAX_CONCURRENT_LOADS; i++) {
+                Setting setting = settingsToLoad.get(i);
+                mSettingsToLoad.remove(setting);
+
+                // Request the status value
+                setting.startService();
+                mSettingsBeingLoaded.add(setting);
+
+                // Ensure that if receiving the status value takes too long, we start loading the
+                // next value anyway
+                Message timeoutMsg = obtainMessage(WHAT_TIMEOUT, setting);
+                sendMessageDelayed(timeoutMsg, INJECTED_STATUS_UPDATE_TIMEOUT_MILLIS);
+
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "handleMessage end " + msg + ", " + this
+                            + ", started loading " + setting);
+                }
             }
         }
 
@@ -442,10 +486,13 @@ class SettingsInjector {
         public final InjectedSetting setting;
         public final Preference preference;
         public long startMillis;
+        // How long the status took to come the last time, 0 if it never came
+        public long lastLatency;
 
         private Setting(InjectedSetting setting, Preference preference) {
             this.setting = setting;
             this.preference = preference;
+            lastLatency = mStatusPrefs.getLong(KEY_LATENCY_PREFIX + getStatusKey(setting), 0);
         }
 
         @Override
@@ -458,7 +505,8 @@ class SettingsInjector {
 
         /**
          * Returns true if they both have the same {@link #setting} value. Ignores mutable
-         * {@link #preference} and {@link #startMillis} so that it's safe to use in sets.
+         * {@link #preference}, {@link #startMillis} and {@link #lastLatency} so that it's safe to
+         * use in sets.
          */
         @Override
         public boolean equals(Object o) {
@@ -494,6 +542,12 @@ class SettingsInjector {
                     }
                     preference.setSummary(null);
                     preference.setEnabled(enabled);
+                    final String key = getStatusKey(setting);
+                    lastLatency = getElapsedTime();
+                    mStatusPrefs.edit()
+                            .putBoolean(KEY_ENABLED_PREFIX + key, enabled)
+                            .putLong(KEY_LATENCY_PREFIX + key, lastLatency)
+                            .apply();
                     mHandler.sendMessage(
                             mHandler.obtainMessage(WHAT_RECEIVED_STATUS, Setting.this));
                 }
@@ -506,10 +560,9 @@ class SettingsInjector {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, setting + ": sending update intent: " + intent
                         + ", handler: " + handler);
-                startMillis = SystemClock.elapsedRealtime();
-            } else {
-                startMillis = 0;
             }
+            // Always timed, to record how long each injected setting takes to reply
+            startMillis = SystemClock.elapsedRealtime();
 
             // Start the service, making sure that this is attributed to the user associated with
             // the setting rather than the system user.
@@ -38,7 +38,9 @@ import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.text.style.StyleSpan;
+import android.util.ArrayMap;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.View;
 import android.widget.DateTimeView;
 import android.widget.ImageView;
@@ -59,9 +61,20 @@ public class NotificationStation extends SettingsPreferenceFragment {
     private static final boolean DEBUG = false;
     private static final boolean DUMP_EXTRAS = true;
     private static final boolean DUMP_PARCEL = true;
+
+    // As many dismissed notifications as the notification manager keeps by default.
+    private static final int MAX_HISTORICAL = 50;
+    private static final int MAX_CACHED_PACKAGES = 32;
+
     private Handler mHandler;
+    // Loads the notifications, their icons and package info. Updates of the list go through
+    // it, so that they are applied in the order they happened.
+    private HandlerThread mBgThread;
+    private Handler mBgHandler;
 
     private static class HistoricalNotificationInfo {
+        public String id;
+        public StatusBarNotification sbn;
         public String pkg;
         public Drawable pkgicon;
         public CharSequence pkgname;
@@ -71,19 +84,28 @@ public class NotificationStation extends SettingsPreferenceFragment {
         public int user;
         public long timestamp;
         public boolean active;
+        // Details, only built once the row is expanded or copied.
         public CharSequence extra;
     }
 
+    private static class PackageEntry {
+        public Drawable icon;
+        public CharSequence label;
+    }
+
     private PackageManager mPm;
     private INotificationManager mNoMan;
     private RankingMap mRanking;
 
-    private Runnable mRefreshListRunnable = new Runnable() {
-        @Override
-        public void run() {
-            refreshList();
-        }
-    };
+    // Only used on the background thread.
+    private final LruCache<String, PackageEntry> mPackageCache =
+            new LruCache<>(MAX_CACHED_PACKAGES);
+
+    // The notifications shown, by id, and the id of the active ones by notification key. Only
+    // used on the main thread.
+    private final ArrayMap<String, HistoricalNotificationPreference> mNotificationPrefs =
+            new ArrayMap<>();
+    private final ArrayMap<String, String> mActiveIds = new ArrayMap<>();
 
     private final NotificationListenerService mListener = new NotificationListenerService() {
         @Override
@@ -91,7 +113,7 @@ public class NotificationStation extends SettingsPreferenceFragment {
             logd("onNotificationPosted: %s, with update for %d", sbn.getNotification(),
                     ranking == null ? 0 : ranking.getOrderedKeys().length);
             mRanking = ranking;
-            scheduleRefreshList();
+            postNotification(sbn);
         }
 
         @Override
@@ -99,15 +121,15 @@ public class NotificationStation extends SettingsPreferenceFragment {
             logd("onNotificationRankingUpdate with update for %d",
                     ranking == null ? 0 : ranking.getOrderedKeys().length);
             mRanking = ranking;
-            scheduleRefreshList();
+            postRemoval(notification);
         }
 
         @Override
         public void onNotificationRankingUpdate(RankingMap ranking) {
             logd("onNotificationRankingUpdate with update for %d",
                     ranking == null ? 0 : ranking.getOrderedKeys().length);
+            // Only shown in the details, which are built from the latest ranking.
             mRanking = ranking;
-            scheduleRefreshList();
         }
 
         @Override
@@ -115,17 +137,9 @@ public class NotificationStation extends SettingsPreferenceFragment {
             mRanking = getCurrentRanking();
             logd("onListenerConnected with update for %d",
                     mRanking == null ? 0 : mRanking.getOrderedKeys().length);
-            scheduleRefreshList();
         }
     };
 
-    private void scheduleRefreshList() {
-        if (mHandler != null) {
-            mHandler.removeCallbacks(mRefreshListRunnable);
-            mHandler.postDelayed(mRefreshListRunnable, 100);
-        }
-    }
-
     private Context mContext;
 
     private final Comparator<HistoricalNotificationInfo> mNotificationSorter
@@ -142,6 +156,9 @@ public class NotificationStation extends SettingsPreferenceFragment {
         logd("onAttach(%s)", activity.getClass().getSimpleName());
         super.onAttach(activity);
         mHandler = new Handler(activity.getMainLooper());
+        mBgThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mBgThread.start();
+        mBgHandler = new Handler(mBgThread.getLooper());
         mContext = activity;
         mPm = mContext.getPackageManager();
         mNoMan = INotificationManager.Stub.asInterface(
@@ -151,7 +168,9 @@ public class NotificationStation extends SettingsPreferenceFragment {
     @Override
     public void onDetach() {
         logd("onDetach()");
-        mHandler.removeCallbacks(mRefreshListRunnable);
+        mBgThread.quit();
+        mBgHandler = null;
+        mHandler.removeCallbacksAndMessages(null);
         mHandler = null;
         super.onDetach();
     }
@@ -190,24 +209,158 @@ public class NotificationStation extends SettingsPreferenceFragment {
         } catch (RemoteException e) {
             Log.e(TAG, "Cannot register listener", e);
         }
-        refreshList();
+        if (getPreferenceScreen() == null) {
+            setPreferenceScreen(getPreferenceManager().createPreferenceScreen(getContext()));
+        }
+        mBgHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final List<HistoricalNotificationInfo> infos = loadNotifications();
+                if (infos != null) {
+                    postToList(new Runnable() {
+                        @Override
+                        public void run() {
+                            setNotifications(infos);
+                        }
+                    });
+                }
+            }
+        });
     }
 
-    private void refreshList() {
-        List<HistoricalNotificationInfo> infos = loadNotifications();
-        if (infos != null) {
-            final int N = infos.size();
-            logd("adding %d infos", N);
-            Collections.sort(infos, mNotificationSorter);
-            if (getPreferenceScreen() == null) {
-                setPreferenceScreen(getPreferenceManager().createPreferenceScreen(getContext()));
+    private void postNotification(final StatusBarNotification sbn) {
+        if (mBgHandler == null) return;
+        mBgHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final HistoricalNotificationInfo info = loadNotification(sbn, true);
+                if (info != null) {
+                    postToList(new Runnable() {
+                        @Override
+                        public void run() {
+                            addNotification(info);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private void postRemoval(final StatusBarNotification sbn) {
+        if (mBgHandler == null) return;
+        // Through the background thread, as the notification may still be loading.
+        mBgHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                postToList(new Runnable() {
+                    @Override
+                    public void run() {
+                        removeNotification(sbn);
+                    }
+                });
             }
-            getPreferenceScreen().removeAll();
-            for (int i = 0; i < N; i++) {
-                getPreferenceScreen().addPreference(
-                        new HistoricalNotificationPreference(getPrefContext(), infos.get(i)));
+        });
+    }
+
+    /**
+     * Run the update of the list on the main thread, unless the fragment went away.
+     */
+    private void postToList(final Runnable update) {
+        final Handler handler = mHandler;
+        if (handler == null) return;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mHandler != null && getPreferenceScreen() != null) {
+                    update.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Show the given notifications, keeping the rows of the ones already shown.
+     */
+    private void setNotifications(List<HistoricalNotificationInfo> infos) {
+        logd("setting %d infos", infos.size());
+        final ArrayMap<String, HistoricalNotificationInfo> byId = new ArrayMap<>(infos.size());
+        mActiveIds.clear();
+        for (HistoricalNotificationInfo info : infos) {
+            byId.put(info.id, info);
+            if (info.active) {
+                mActiveIds.put(info.sbn.getKey(), info.id);
+            }
+        }
+        for (int i = mNotificationPrefs.size() - 1; i >= 0; i--) {
+            final HistoricalNotificationPreference pref = mNotificationPrefs.valueAt(i);
+            final HistoricalNotificationInfo info = byId.remove(mNotificationPrefs.keyAt(i));
+            if (info == null) {
+                getPreferenceScreen().removePreference(pref);
+                mNotificationPrefs.removeAt(i);
+            } else {
+                pref.setActive(info.active);
             }
         }
+        for (int i = 0; i < byId.size(); i++) {
+            addPreference(byId.valueAt(i));
+        }
+        updateOrder();
+    }
+
+    private void addNotification(HistoricalNotificationInfo info) {
+        logd("adding %s", info.id);
+        final String previousId = mActiveIds.put(info.sbn.getKey(), info.id);
+        if (previousId != null && !previousId.equals(info.id)) {
+            // An update replaces the notification, it doesn't go to the history.
+            final Preference previous = mNotificationPrefs.remove(previousId);
+            if (previous != null) {
+                getPreferenceScreen().removePreference(previous);
+            }
+        }
+        if (!mNotificationPrefs.containsKey(info.id)) {
+            addPreference(info);
+        }
+        updateOrder();
+    }
+
+    private void removeNotification(StatusBarNotification sbn) {
+        final String id = mActiveIds.remove(sbn.getKey());
+        logd("removing %s", id);
+        final HistoricalNotificationPreference pref =
+                id != null ? mNotificationPrefs.get(id) : null;
+        if (pref != null) {
+            pref.setActive(false);
+            updateOrder();
+        }
+    }
+
+    private void addPreference(HistoricalNotificationInfo info) {
+        final HistoricalNotificationPreference pref =
+                new HistoricalNotificationPreference(getPrefContext(), info);
+        mNotificationPrefs.put(info.id, pref);
+        getPreferenceScreen().addPreference(pref);
+    }
+
+    /**
+     * Order the rows newest first, and drop the oldest dismissed notifications.
+     */
+    private void updateOrder() {
+        final List<HistoricalNotificationInfo> infos =
+                new ArrayList<>(mNotificationPrefs.size());
+        for (int i = 0; i < mNotificationPrefs.size(); i++) {
+            infos.add(mNotificationPrefs.valueAt(i).mInfo);
+        }
+        Collections.sort(infos, mNotificationSorter);
+        int historical = 0;
+        for (int i = 0; i < infos.size(); i++) {
+            final HistoricalNotificationInfo info = infos.get(i);
+            if (!info.active && ++historical > MAX_HISTORICAL) {
+                getPreferenceScreen().removePreference(mNotificationPrefs.remove(info.id));
+                continue;
+            }
+            // No-op unless it moved
+            mNotificationPrefs.get(info.id).setOrder(i);
+        }
     }
 
     private static void logd(String msg, Object... args) {
@@ -251,222 +404,263 @@ public class NotificationStation extends SettingsPreferenceFragment {
     }
 
     private List<HistoricalNotificationInfo> loadNotifications() {
-        final int currentUserId = ActivityManager.getCurrentUser();
         try {
             StatusBarNotification[] active = mNoMan.getActiveNotifications(
                     mContext.getPackageName());
             StatusBarNotification[] dismissed = mNoMan.getHistoricalNotifications(
-                    mContext.getPackageName(), 50);
+                    mContext.getPackageName(), MAX_HISTORICAL);
 
             List<HistoricalNotificationInfo> list
                     = new ArrayList<HistoricalNotificationInfo>(active.length + dismissed.length);
 
-            final Ranking rank = new Ranking();
-
             for (StatusBarNotification[] resultset
                     : new StatusBarNotification[][] { active, dismissed }) {
                 for (StatusBarNotification sbn : resultset) {
-                    if (sbn.getUserId() != UserHandle.USER_ALL & sbn.getUserId() != currentUserId) {
-                        continue;
+                    final HistoricalNotificationInfo info =
+                            loadNotification(sbn, resultset == active);
+                    if (info != null) {
+                        list.add(info);
                     }
+                }
+            }
 
-                    final Notification n = sbn.getNotification();
-                    final HistoricalNotificationInfo info = new HistoricalNotificationInfo();
-                    info.pkg = sbn.getPackageName();
-                    info.user = sbn.getUserId();
-                    info.icon = loadIconDrawable(info.pkg, info.user, n.icon);
-                    info.pkgicon = loadPackageIconDrawable(info.pkg, info.user);
-                    info.pkgname = loadPackageName(info.pkg);
-                    info.title = getTitleString(n);
-                    if (TextUtils.isEmpty(info.title)) {
-                        info.title = getString(R.string.notification_log_no_title);
-                    }
-                    info.timestamp = sbn.getPostTime();
-                    info.priority = n.priority;
+            return list;
+        } catch (RemoteException e) {
+            Log.e(TAG, "Cannot load Notifications: ", e);
+        }
+        return null;
+    }
 
-                    info.active = (resultset == active);
+    /**
+     * Returns the row info of the notification, or null if it isn't for the current user.
+     * Called on the background thread.
+     */
+    private HistoricalNotificationInfo loadNotification(StatusBarNotification sbn,
+            boolean active) {
+        final int currentUserId = ActivityManager.getCurrentUser();
+        if (sbn.getUserId() != UserHandle.USER_ALL & sbn.getUserId() != currentUserId) {
+            return null;
+        }
 
-                    final SpannableStringBuilder sb = new SpannableStringBuilder();
-                    final String delim = getString(R.string.notification_log_details_delimiter);
-                    sb.append(bold(getString(R.string.notification_log_details_package)))
-                            .append(delim)
-                            .append(info.pkg)
-                            .append("\n")
-                            .append(bold(getString(R.string.notification_log_details_key)))
-                            .append(delim)
-                            .append(sbn.getKey());
+        final Notification n = sbn.getNotification();
+        final HistoricalNotificationInfo info = new HistoricalNotificationInfo();
+        info.id = sbn.getKey() + "|" + sbn.getPostTime();
+        info.sbn = sbn;
+        info.pkg = sbn.getPackageName();
+        info.user = sbn.getUserId();
+        info.icon = loadIconDrawable(info.pkg, info.user, n.icon);
+        final PackageEntry entry = loadPackageEntry(info.pkg);
+        info.pkgicon = entry.icon;
+        info.pkgname = entry.label;
+        info.title = getTitleString(n);
+        if (TextUtils.isEmpty(info.title)) {
+            info.title = mContext.getString(R.string.notification_log_no_title);
+        }
+        info.timestamp = sbn.getPostTime();
+        info.priority = n.priority;
+
+        info.active = active;
+
+        logd("   [%d] %s: %s", info.timestamp, info.pkg, info.title);
+        return info;
+    }
+
+    /**
+     * Returns the details of the notification, building them the first time.
+     */
+    private CharSequence getDetails(HistoricalNotificationInfo info) {
+        if (info.extra != null) {
+            return info.extra;
+        }
+        final StatusBarNotification sbn = info.sbn;
+        final Notification n = sbn.getNotification();
+        final Ranking rank = new Ranking();
+
+        final SpannableStringBuilder sb = new SpannableStringBuilder();
+        final String delim = getString(R.string.notification_log_details_delimiter);
+        sb.append(bold(getString(R.string.notification_log_details_package)))
+                .append(delim)
+                .append(info.pkg)
+                .append("\n")
+                .append(bold(getString(R.string.notification_log_details_key)))
+                .append(delim)
+                .append(sbn.getKey());
+        sb.append("\n")
+                .append(bold(getString(R.string.notification_log_details_icon)))
+                .append(delim)
+                .append(n.getSmallIcon().toString());
+        if (sbn.isGroup()) {
+            sb.append("\n")
+                    .append(bold(getString(R.string.notification_log_details_group)))
+                    .append(delim)
+                    .append(sbn.getGroupKey());
+            if (n.isGroupSummary()) {
+                sb.append(bold(
+                        getString(R.string.notification_log_details_group_summary)));
+            }
+        }
+        sb.append("\n")
+                .append(bold(getString(R.string.notification_log_details_sound)))
+                .append(delim);
+        if (0 != (n.defaults & Notification.DEFAULT_SOUND)) {
+            sb.append(getString(R.string.notification_log_details_default));
+        } else if (n.sound != null) {
+            sb.append(n.sound.toString());
+        } else {
+            sb.append(getString(R.string.notification_log_details_none));
+        }
+        sb.append("\n")
+                .append(bold(getString(R.string.notification_log_details_vibrate)))
+                .append(delim);
+        if (0 != (n.defaults & Notification.DEFAULT_VIBRATE)) {
+            sb.append(getString(R.string.notification_log_details_default));
+        } else if (n.vibrate != null) {
+            for (int vi=0;vi<n.vibrate.length;vi++) {
+                if (vi > 0) sb.append(',');
+                sb.append(String.valueOf(n.vibrate[vi]));
+            }
+        } else {
+            sb.append(getString(R.string.notification_log_details_none));
+        }
+        sb.append("\n")
+                .append(bold(getString(R.string.notification_log_details_visibility)))
+                .append(delim)
+                .append(Notification.visibilityToString(n.visibility));
+        if (n.publicVersion != null) {
+            sb.append("\n")
+                    .append(bold(getString(
+                            R.string.notification_log_details_public_version)))
+                    .append(delim)
+                    .append(getTitleString(n.publicVersion));
+        }
+        sb.append("\n")
+                .append(bold(getString(R.string.notification_log_details_priority)))
+                .append(delim)
+                .append(Notification.priorityToString(n.priority));
+        if (info.active) {
+            // mRanking only applies to active notifications
+            if (mRanking != null && mRanking.getRanking(sbn.getKey(), rank)) {
+                sb.append("\n")
+                        .append(bold(getString(
+                                R.string.notification_log_details_importance)))
+                        .append(delim)
+                        .append(Ranking.importanceToString(rank.getImportance()));
+                if (rank.getImportanceExplanation() != null) {
                     sb.append("\n")
-                            .append(bold(getString(R.string.notification_log_details_icon)))
+                            .append(bold(getString(
+                                    R.string.notification_log_details_explanation)))
                             .append(delim)
-                            .append(n.getSmallIcon().toString());
-                    if (sbn.isGroup()) {
-                        sb.append("\n")
-                                .append(bold(getString(R.string.notification_log_details_group)))
-                                .append(delim)
-                                .append(sbn.getGroupKey());
-                        if (n.isGroupSummary()) {
-                            sb.append(bold(
-                                    getString(R.string.notification_log_details_group_summary)));
-                        }
-                    }
-                    sb.append("\n")
-                            .append(bold(getString(R.string.notification_log_details_sound)))
-                            .append(delim);
-                    if (0 != (n.defaults & Notification.DEFAULT_SOUND)) {
-                        sb.append(getString(R.string.notification_log_details_default));
-                    } else if (n.sound != null) {
-                        sb.append(n.sound.toString());
-                    } else {
-                        sb.append(getString(R.string.notification_log_details_none));
-                    }
+                            .append(rank.getImportanceExplanation());
+                }
+            } else {
+                if (mRanking == null) {
                     sb.append("\n")
-                            .append(bold(getString(R.string.notification_log_details_vibrate)))
-                            .append(delim);
-                    if (0 != (n.defaults & Notification.DEFAULT_VIBRATE)) {
-                        sb.append(getString(R.string.notification_log_details_default));
-                    } else if (n.vibrate != null) {
-                        for (int vi=0;vi<n.vibrate.length;vi++) {
-                            if (vi > 0) sb.append(',');
-                            sb.append(String.valueOf(n.vibrate[vi]));
-                        }
-                    } else {
-                        sb.append(getString(R.string.notification_log_details_none));
-                    }
+                            .append(bold(getString(
+                                    R.string.notification_log_details_ranking_null)));
+                } else {
                     sb.append("\n")
-                            .append(bold(getString(R.string.notification_log_details_visibility)))
+                            .append(bold(getString(
+                                    R.string.notification_log_details_ranking_none)));
+                }
+            }
+        }
+        if (n.contentIntent != null) {
+            sb.append("\n")
+                    .append(bold(getString(
+                            R.string.notification_log_details_content_intent)))
+                    .append(delim)
+                    .append(formatPendingIntent(n.contentIntent));
+        }
+        if (n.deleteIntent != null) {
+            sb.append("\n")
+                    .append(bold(getString(
+                            R.string.notification_log_details_delete_intent)))
+                    .append(delim)
+                    .append(formatPendingIntent(n.deleteIntent));
+        }
+        if (n.fullScreenIntent != null) {
+            sb.append("\n")
+                    .append(bold(getString(
+                            R.string.notification_log_details_full_screen_intent)))
+                    .append(delim)
+                    .append(formatPendingIntent(n.fullScreenIntent));
+        }
+        if (n.actions != null && n.actions.length > 0) {
+            sb.append("\n")
+                    .append(bold(getString(R.string.notification_log_details_actions)));
+            for (int ai=0; ai<n.actions.length; ai++) {
+                final Notification.Action action = n.actions[ai];
+                sb.append("\n  ").append(String.valueOf(ai)).append(' ')
+                        .append(bold(getString(
+                                R.string.notification_log_details_title)))
+                        .append(delim)
+                        .append(action.title);
+                if (action.actionIntent != null) {
+                    sb.append("\n    ")
+                            .append(bold(getString(
+                                    R.string.notification_log_details_content_intent)))
                             .append(delim)
-                            .append(Notification.visibilityToString(n.visibility));
-                    if (n.publicVersion != null) {
-                        sb.append("\n")
-                                .append(bold(getString(
-                                        R.string.notification_log_details_public_version)))
-                                .append(delim)
-                                .append(getTitleString(n.publicVersion));
-                    }
-                    sb.append("\n")
-                            .append(bold(getString(R.string.notification_log_details_priority)))
+                            .append(formatPendingIntent(action.actionIntent));
+                }
+                if (action.getRemoteInputs() != null) {
+                    sb.append("\n    ")
+                            .append(bold(getString(
+                                    R.string.notification_log_details_remoteinput)))
                             .append(delim)
-                            .append(Notification.priorityToString(n.priority));
-                    if (resultset == active) {
-                        // mRanking only applies to active notifications
-                        if (mRanking != null && mRanking.getRanking(sbn.getKey(), rank)) {
-                            sb.append("\n")
-                                    .append(bold(getString(
-                                            R.string.notification_log_details_importance)))
-                                    .append(delim)
-                                    .append(Ranking.importanceToString(rank.getImportance()));
-                            if (rank.getImportanceExplanation() != null) {
-                                sb.append("\n")
-                                        .append(bold(getString(
-                                                R.string.notification_log_details_explanation)))
-                                        .append(delim)
-                                        .append(rank.getImportanceExplanation());
-                            }
-                        } else {
-                            if (mRanking == null) {
-                                sb.append("\n")
-                                        .append(bold(getString(
-                                                R.string.notification_log_details_ranking_null)));
-                            } else {
-                                sb.append("\n")
-                                        .append(bold(getString(
-                                                R.string.notification_log_details_ranking_none)));
-                            }
-                        }
-                    }
-                    if (n.contentIntent != null) {
-                        sb.append("\n")
-                                .append(bold(getString(
-                                        R.string.notification_log_details_content_intent)))
-                                .append(delim)
-                                .append(formatPendingIntent(n.contentIntent));
-                    }
-                    if (n.deleteIntent != null) {
-                        sb.append("\n")
-                                .append(bold(getString(
-                                        R.string.notification_log_details_delete_intent)))
-                                .append(delim)
-                                .append(formatPendingIntent(n.deleteIntent));
-                    }
-                    if (n.fullScreenIntent != null) {
-                        sb.append("\n")
-                                .append(bold(getString(
-                                        R.string.notification_log_details_full_screen_intent)))
-                                .append(delim)
-                                .append(formatPendingIntent(n.fullScreenIntent));
-                    }
-                    if (n.actions != null && n.actions.length > 0) {
-                        sb.append("\n")
-                                .append(bold(getString(R.string.notification_log_details_actions)));
-                        for (int ai=0; ai<n.actions.length; ai++) {
-                            final Notification.Action action = n.actions[ai];
-                            sb.append("\n  ").append(String.valueOf(ai)).append(' ')
-                                    .append(bold(getString(
-                                            R.string.notification_log_details_title)))
-                                    .append(delim)
-                                    .append(action.title);
-                            if (action.actionIntent != null) {
-                                sb.append("\n    ")
-                                        .append(bold(getString(
-                                                R.string.notification_log_details_content_intent)))
-                                        .append(delim)
-                                        .append(formatPendingIntent(action.actionIntent));
-                            }
-                            if (action.getRemoteInputs() != null) {
-                                sb.append("\n    ")
-                                        .append(bold(getString(
-                                                R.string.notification_log_details_remoteinput)))
-                                        .append(delim)
-                                        .append(String.valueOf(action.getRemoteInputs().length));
-                            }
-                        }
-                    }
-                    if (n.contentView != null) {
-                        sb.append("\n")
-                                .append(bold(getString(
-                                        R.string.notification_log_details_content_view)))
-                                .append(delim)
-                                .append(n.contentView.toString());
-                    }
-
-                    if (DUMP_EXTRAS) {
-                        if (n.extras != null && n.extras.size() > 0) {
-                            sb.append("\n")
-                                    .append(bold(getString(
-                                            R.string.notification_log_details_extras)));
-                            for (String extraKey : n.extras.keySet()) {
-                                String val = String.valueOf(n.extras.get(extraKey));
-                                if (val.length() > 100) val = val.substring(0, 100) + "...";
-                                sb.append("\n  ").append(extraKey).append(delim).append(val);
-                            }
-                        }
-                    }
-                    if (DUMP_PARCEL) {
-                        final Parcel p = Parcel.obtain();
-                        n.writeToParcel(p, 0);
-                        sb.append("\n")
-                                .append(bold(getString(R.string.notification_log_details_parcel)))
-                                .append(delim)
-                                .append(String.valueOf(p.dataPosition()))
-                                .append(' ')
-                                .append(bold(getString(R.string.notification_log_details_ashmem)))
-                                .append(delim)
-                                .append(String.valueOf(p.getBlobAshmemSize()))
-                                .append("\n");
-                    }
-
-                    info.extra = sb;
+                            .append(String.valueOf(action.getRemoteInputs().length));
+                }
+            }
+        }
+        if (n.contentView != null) {
+            sb.append("\n")
+                    .append(bold(getString(
+                            R.string.notification_log_details_content_view)))
+                    .append(delim)
+                    .append(n.contentView.toString());
+        }
 
-                    logd("   [%d] %s: %s", info.timestamp, info.pkg, info.title);
-                    list.add(info);
+        if (DUMP_EXTRAS) {
+            if (n.extras != null && n.extras.size() > 0) {
+                sb.append("\n")
+                        .append(bold(getString(
+                                R.string.notification_log_details_extras)));
+                for (String extraKey : n.extras.keySet()) {
+                    String val = String.valueOf(n.extras.get(extraKey));
+                    if (val.length() > 100) val = val.substring(0, 100) + "...";
+                    sb.append("\n  ").append(extraKey).append(delim).append(val);
                 }
             }
+        }
+        if (DUMP_PARCEL) {
+            final Parcel p = Parcel.obtain();
+            n.writeToParcel(p, 0);
+            sb.append("\n")
+                    .append(bold(getString(R.string.notification_log_details_parcel)))
+                    .append(delim)
+                    .append(String.valueOf(p.dataPosition()))
+                    .append(' ')
+                    .append(bold(getString(R.string.notification_log_details_ashmem)))
+                    .append(delim)
+                    .append(String.valueOf(p.getBlobAshmemSize()))
+                    .append("\n");
+        }
 
-            return list;
-        } catch (RemoteException e) {
-            Log.e(TAG, "Cannot load Notifications: ", e);
+        // Active notifications are shown with their ranking, which changes over time.
+        if (!info.active) {
+            info.extra = sb;
         }
-        return null;
+        return sb;
+    }
+
+    private PackageEntry loadPackageEntry(String pkg) {
+        PackageEntry entry = mPackageCache.get(pkg);
+        if (entry == null) {
+            entry = new PackageEntry();
+            entry.icon = loadPackageIconDrawable(pkg, UserHandle.USER_ALL);
+            entry.label = loadPackageName(pkg);
+            mPackageCache.put(pkg, entry);
+        }
+        return entry;
     }
 
     private Resources getResourcesForUserPackage(String pkg, int userId) {
@@ -528,7 +722,7 @@ public class NotificationStation extends SettingsPreferenceFragment {
         return null;
     }
 
-    private static class HistoricalNotificationPreference extends CopyablePreference {
+    private class HistoricalNotificationPreference extends CopyablePreference {
         private final HistoricalNotificationInfo mInfo;
 
         public HistoricalNotificationPreference(Context context, HistoricalNotificationInfo info) {
@@ -537,6 +731,14 @@ public class NotificationStation extends SettingsPreferenceFragment {
             mInfo = info;
         }
 
+        public void setActive(boolean active) {
+            if (mInfo.active != active) {
+                mInfo.active = active;
+                mInfo.extra = null;
+                notifyChanged();
+            }
+        }
+
         @Override
         public void onBindViewHolder(PreferenceViewHolder row) {
             super.onBindViewHolder(row);
@@ -553,15 +755,19 @@ public class NotificationStation extends SettingsPreferenceFragment {
             ((TextView) row.findViewById(R.id.pkgname)).setText(mInfo.pkgname);
 
             final TextView extra = (TextView) row.findViewById(R.id.extra);
-            extra.setText(mInfo.extra);
+            extra.setText(null);
             extra.setVisibility(View.GONE);
 
             row.itemView.setOnClickListener(
                     new View.OnClickListener() {
                         @Override
                         public void onClick(View view) {
-                            extra.setVisibility(extra.getVisibility() == View.VISIBLE
-                                    ? View.GONE : View.VISIBLE);
+                            if (extra.getVisibility() == View.VISIBLE) {
+                                extra.setVisibility(View.GONE);
+                            } else {
+                                extra.setText(getDetails(mInfo));
+                                extra.setVisibility(View.VISIBLE);
+                            }
                         }
                     });
 
@@ -573,7 +779,7 @@ public class NotificationStation extends SettingsPreferenceFragment {
             return new SpannableStringBuilder(mInfo.title)
                     .append(" [").append(new Date(mInfo.timestamp).toString())
                     .append("]\n").append(mInfo.pkgname)
-                    .append("\n").append(mInfo.extra);
+                    .append("\n").append(getDetails(mInfo));
         }
 
         @Override
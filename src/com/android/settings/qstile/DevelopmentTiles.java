@@ -22,8 +22,10 @@ import android.content.pm.PackageManager;
 import android.os.SystemProperties;
 import android.service.quicksettings.Tile;
 import android.service.quicksettings.TileService;
+import android.util.ArrayMap;
 import android.view.ThreadedRenderer;
 import android.view.View;
+import com.android.settings.ComponentStateCache;
 import com.android.settings.DevelopmentSettings;
 
 public class DevelopmentTiles {
@@ -34,12 +36,18 @@ public class DevelopmentTiles {
     };
     public static void setTilesEnabled(Context context, boolean enable) {
         final PackageManager pm = context.getPackageManager();
+        final ComponentStateCache cache = ComponentStateCache.get(context);
+        final int state = enable ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                : PackageManager.COMPONENT_ENABLED_STATE_DEFAULT;
+        final ArrayMap<ComponentName, Integer> applied = new ArrayMap<>();
         for (Class cls : TILE_CLASSES) {
-            pm.setComponentEnabledSetting(new ComponentName(context, cls),
-                    enable ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
-                           : PackageManager.COMPONENT_ENABLED_STATE_DEFAULT,
-                    PackageManager.DONT_KILL_APP);
+            final ComponentName component = new ComponentName(context, cls);
+            if (!cache.isApplied(component, state)) {
+                pm.setComponentEnabledSetting(component, state, PackageManager.DONT_KILL_APP);
+                applied.put(component, state);
+            }
         }
+        cache.setApplied(applied);
     }
 
     /**
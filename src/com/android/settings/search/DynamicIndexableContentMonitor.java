@@ -86,6 +86,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
             new UserDictionaryContentObserver(mHandler);
 
     private Context mContext;
+    private IndexUpdateCoalescer mIndexUpdater;
     private boolean mHasFeatureIme;
     private boolean mRegistered;
 
@@ -103,6 +104,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
 
     public void register(Activity activity, int loaderId) {
         mContext = activity;
+        mIndexUpdater = new IndexUpdateCoalescer(Index.getInstance(mContext));
 
         if (!mContext.getSystemService(UserManager.class).isUserUnlocked()) {
             Log.w(TAG, "Skipping content monitoring because user is locked");
@@ -180,6 +182,12 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
 
         mAccessibilityServices.clear();
         mImeServices.clear();
+
+        // Do not lose the changes seen so far
+        mIndexUpdater.flush();
+        Log.d(TAG, "Index updates requested: " + mIndexUpdater.getRequestedCount()
+                + ", coalesced: " + mIndexUpdater.getCoalescedCount()
+                + ", executed: " + mIndexUpdater.getExecutedCount());
     }
 
     // Covers installed, appeared external storage with the package, upgraded.
@@ -214,7 +222,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
 
     @Override
     public void onInputDeviceAdded(int deviceId) {
-        Index.getInstance(mContext).updateFromClassNameResource(
+        mIndexUpdater.requestUpdate(
                 InputMethodAndLanguageSettings.class.getName(), false, true);
     }
 
@@ -225,7 +233,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
 
     @Override
     public void onInputDeviceChanged(int deviceId) {
-        Index.getInstance(mContext).updateFromClassNameResource(
+        mIndexUpdater.requestUpdate(
                 InputMethodAndLanguageSettings.class.getName(), true, true);
     }
 
@@ -240,7 +248,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
             List<?> services = mContext.getPackageManager().queryIntentServices(intent, 0);
             if (services != null && !services.isEmpty()) {
                 mAccessibilityServices.add(packageName);
-                Index.getInstance(mContext).updateFromClassNameResource(
+                mIndexUpdater.requestUpdate(
                         AccessibilitySettings.class.getName(), false, true);
             }
         }
@@ -251,7 +259,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
                 List<?> services = mContext.getPackageManager().queryIntentServices(intent, 0);
                 if (services != null && !services.isEmpty()) {
                     mImeServices.add(packageName);
-                    Index.getInstance(mContext).updateFromClassNameResource(
+                    mIndexUpdater.requestUpdate(
                             InputMethodAndLanguageSettings.class.getName(), false, true);
                 }
             }
@@ -262,7 +270,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
         final int accessibilityIndex = mAccessibilityServices.indexOf(packageName);
         if (accessibilityIndex >= 0) {
             mAccessibilityServices.remove(accessibilityIndex);
-            Index.getInstance(mContext).updateFromClassNameResource(
+            mIndexUpdater.requestUpdate(
                     AccessibilitySettings.class.getName(), true, true);
         }
 
@@ -270,7 +278,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
             final int imeIndex = mImeServices.indexOf(packageName);
             if (imeIndex >= 0) {
                 mImeServices.remove(imeIndex);
-                Index.getInstance(mContext).updateFromClassNameResource(
+                mIndexUpdater.requestUpdate(
                         InputMethodAndLanguageSettings.class.getName(), true, true);
             }
         }
@@ -286,7 +294,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
     @Override
     public void onLoadFinished(Loader<List<PrintServiceInfo>> loader,
             List<PrintServiceInfo> services) {
-        Index.getInstance(mContext).updateFromClassNameResource(
+        mIndexUpdater.requestUpdate(
                 PrintSettingsFragment.class.getName(), false, true);
     }
 
@@ -304,7 +312,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
         @Override
         public void onChange(boolean selfChange, Uri uri) {
             if (UserDictionary.Words.CONTENT_URI.equals(uri)) {
-                Index.getInstance(mContext).updateFromClassNameResource(
+                mIndexUpdater.requestUpdate(
                         InputMethodAndLanguageSettings.class.getName(), true, true);
             }
         };
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.android.settings.search.IndexDatabaseHelper.IndexColumns;
+import com.android.settings.search.IndexDatabaseHelper.Tables;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A read-only, in-memory copy of the rows of the Index database for one locale.
+ *
+ * The words of the primary and secondary match columns are kept in two sorted token arrays,
+ * so that a prefix query is answered with a binary search instead of a FTS query. Every word
+ * of the query has to match the beginning of a word of the row. Rows are kept sorted by
+ * {@link IndexColumns#DATA_RANK}, and results are returned with the same columns and the same
+ * primary-then-secondary ordering as the SQL search.
+ */
+class InMemoryIndex {
+
+    private final String mLocale;
+    private final String[] mColumns;
+
+    // Rows sorted by rank, each one holding the values of mColumns
+    private final Object[][] mRows;
+
+    private final TokenTable mPrimaryTokens;
+    private final TokenTable mSecondaryTokens;
+
+    private InMemoryIndex(String locale, String[] columns, Object[][] rows,
+            TokenTable primaryTokens, TokenTable secondaryTokens) {
+        mLocale = locale;
+        mColumns = columns;
+        mRows = rows;
+        mPrimaryTokens = primaryTokens;
+        mSecondaryTokens = secondaryTokens;
+    }
+
+    /**
+     * Load all the enabled rows of a locale.
+     *
+     * @param database the Index database
+     * @param locale the locale to load
+     * @param selectColumns the columns returned by {@link #search(String)}
+     * @param primaryColumns the columns whose matches are returned first
+     * @param secondaryColumns the columns whose matches are returned after the primary ones
+     */
+    static InMemoryIndex load(SQLiteDatabase database, String locale, String[] selectColumns,
+            String[] primaryColumns, String[] secondaryColumns) {
+        final int selectCount = selectColumns.length;
+        final int primaryCount = primaryColumns.length;
+        final int secondaryCount = secondaryColumns.length;
+
+        final StringBuilder sb = new StringBuilder("SELECT ");
+        appendColumns(sb, selectColumns);
+        sb.append(", ");
+        appendColumns(sb, primaryColumns);
+        sb.append(", ");
+        appendColumns(sb, secondaryColumns);
+        sb.append(" FROM ");
+        sb.append(Tables.TABLE_PREFS_INDEX);
+        sb.append(" WHERE ");
+        sb.append(IndexColumns.LOCALE);
+        sb.append(" = ");
+        DatabaseUtils.appendEscapedSQLString(sb, locale);
+        sb.append(" AND ");
+        sb.append(IndexColumns.ENABLED);
+        sb.append(" = 1 ORDER BY ");
+        sb.append(IndexColumns.DATA_RANK);
+
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        final TokenTable.Builder primary = new TokenTable.Builder();
+        final TokenTable.Builder secondary = new TokenTable.Builder();
+
+        final Cursor cursor = database.rawQuery(sb.toString(), null);
+        try {
+            while (cursor.moveToNext()) {
+                final int row = rows.size();
+                final Object[] values = new Object[selectCount];
+                for (int n = 0; n < selectCount; n++) {
+                    values[n] = cursor.getString(n);
+                }
+                rows.add(values);
+
+                for (int n = 0; n < primaryCount; n++) {
+                    primary.addText(cursor.getString(selectCount + n), row);
+                }
+                for (int n = 0; n < secondaryCount; n++) {
+                    secondary.addText(cursor.getString(selectCount + primaryCount + n), row);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return new InMemoryIndex(locale, selectColumns, rows.toArray(new Object[rows.size()][]),
+                primary.build(), secondary.build());
+    }
+
+    private static void appendColumns(StringBuilder sb, String[] columns) {
+        for (int n = 0; n < columns.length; n++) {
+            if (n > 0) {
+                sb.append(", ");
+            }
+            sb.append(columns[n]);
+        }
+    }
+
+    String getLocale() {
+        return mLocale;
+    }
+
+    int getRowCount() {
+        return mRows.length;
+    }
+
+    /**
+     * Search for the rows matching a query.
+     *
+     * @return a cursor with the rows matching the primary columns first, then the rows only
+     *         matching the secondary columns. Each group is ordered by rank.
+     */
+    Cursor search(String query) {
+        final MatrixCursor cursor = new MatrixCursor(mColumns);
+        final String[] queryTokens = tokenize(query);
+        if (queryTokens.length == 0) {
+            return cursor;
+        }
+
+        final BitSet primary = mPrimaryTokens.match(queryTokens);
+        final BitSet secondary = mSecondaryTokens.match(queryTokens);
+        secondary.andNot(primary);
+
+        addRows(cursor, primary);
+        addRows(cursor, secondary);
+        return cursor;
+    }
+
+    private void addRows(MatrixCursor cursor, BitSet rows) {
+        // Rows are sorted by rank, so iterating the bits keeps the ranking
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            cursor.addRow(mRows[row]);
+        }
+    }
+
+    /**
+     * Split a text into lower case words, the same way the FTS "simple" tokenizer does.
+     */
+    static String[] tokenize(String text) {
+        if (TextUtils.isEmpty(text)) {
+            return new String[0];
+        }
+        final ArrayList<String> tokens = new ArrayList<String>();
+        final String lower = text.toLowerCase(Locale.ROOT);
+        final int length = lower.length();
+        int start = -1;
+        for (int n = 0; n <= length; n++) {
+            final boolean isTokenChar = n < length && isTokenChar(lower.charAt(n));
+            if (isTokenChar && start < 0) {
+                start = n;
+            } else if (!isTokenChar && start >= 0) {
+                tokens.add(lower.substring(start, n));
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    private static boolean isTokenChar(char c) {
+        // Like the FTS "simple" tokenizer, every non ASCII character is part of a word
+        return c >= 0x80 || Character.isLetterOrDigit(c);
+    }
+
+    /**
+     * A sorted array of words, each one pointing to the row it comes from.
+     */
+    static class TokenTable {
+        private final String[] mTokens;
+        private final int[] mRows;
+        private final int mRowCount;
+
+        private TokenTable(String[] tokens, int[] rows, int rowCount) {
+            mTokens = tokens;
+            mRows = rows;
+            mRowCount = rowCount;
+        }
+
+        /**
+         * @return the rows containing a word starting with each of the query tokens
+         */
+        BitSet match(String[] queryTokens) {
+            BitSet result = null;
+            for (String prefix : queryTokens) {
+                final BitSet rows = new BitSet(mRowCount);
+                for (int n = lowerBound(prefix); n < mTokens.length
+                        && mTokens[n].startsWith(prefix); n++) {
+                    rows.set(mRows[n]);
+                }
+                if (result == null) {
+                    result = rows;
+                } else {
+                    result.and(rows);
+                }
+                if (result.isEmpty()) {
+                    break;
+                }
+            }
+            return (result != null) ? result : new BitSet();
+        }
+
+        private int lowerBound(String prefix) {
+            int low = 0;
+            int high = mTokens.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (mTokens[mid].compareTo(prefix) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        static class Builder {
+            private final ArrayList<Posting> mPostings = new ArrayList<Posting>();
+            private int mRowCount;
+
+            void addText(String text, int row) {
+                mRowCount = Math.max(mRowCount, row + 1);
+                for (String token : tokenize(text)) {
+                    mPostings.add(new Posting(token, row));
+                }
+            }
+
+            TokenTable build() {
+                Collections.sort(mPostings, POSTING_COMPARATOR);
+                final int count = mPostings.size();
+                final String[] tokens = new String[count];
+                final int[] rows = new int[count];
+                for (int n = 0; n < count; n++) {
+                    final Posting posting = mPostings.get(n);
+                    tokens[n] = posting.token;
+                    rows[n] = posting.row;
+                }
+                return new TokenTable(tokens, rows, mRowCount);
+            }
+        }
+
+        private static class Posting {
+            final String token;
+            final int row;
+
+            Posting(String token, int row) {
+                this.token = token;
+                this.row = row;
+            }
+        }
+
+        private static final Comparator<Posting> POSTING_COMPARATOR = new Comparator<Posting>() {
+            @Override
+            public int compare(Posting lhs, Posting rhs) {
+                final int result = lhs.token.compareTo(rhs.token);
+                return (result != 0) ? result : Integer.compare(lhs.row, rhs.row);
+            }
+        };
+    }
+}
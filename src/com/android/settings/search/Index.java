@@ -17,7 +17,6 @@
 package com.android.settings.search;
 
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
@@ -43,6 +42,7 @@ import android.util.Log;
 import android.util.TypedValue;
 import android.util.Xml;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.settings.R;
 import com.android.settings.search.IndexDatabaseHelper.IndexColumns;
 import com.android.settings.search.IndexDatabaseHelper.Tables;
@@ -51,18 +51,32 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import static android.provider.SearchIndexablesContract.COLUMN_INDEX_NON_INDEXABLE_KEYS_KEY_VALUE;
 import static android.provider.SearchIndexablesContract.COLUMN_INDEX_RAW_CLASS_NAME;
@@ -143,7 +157,7 @@ public class Index {
     };
 
     // Max number of saved search queries (who will be used for proposing suggestions)
-    private static long MAX_SAVED_SEARCH_QUERY = 64;
+    private static final int MAX_SAVED_SEARCH_QUERY = 64;
     // Max number of proposed suggestions
     private static final int MAX_PROPOSED_SUGGESTIONS = 5;
 
@@ -164,6 +178,18 @@ public class Index {
 
     private static final List<String> EMPTY_LIST = Collections.<String>emptyList();
 
+    // Location of the pre-built Index snapshots in the assets, one per locale
+    private static final String SNAPSHOT_ASSET_DIR = "search_index";
+    private static final String SNAPSHOT_EXT = ".snapshot";
+
+    // Number of threads parsing the indexable data while the index is updated
+    private static final int INDEXING_THREAD_COUNT =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    // Time after which the idle indexing threads stop
+    private static final long INDEXING_THREAD_KEEP_ALIVE_SECONDS = 30;
+    // Number of rows inserted before letting other database users in
+    private static final int INSERT_BATCH_SIZE = 200;
+
     private static Index sInstance;
 
     private static final Pattern REMOVE_DIACRITICALS_PATTERN
@@ -207,10 +233,30 @@ public class Index {
         }
     }
 
+    /**
+     * The rows parsed from one indexable data, or null rows if it failed to parse
+     */
+    private static class ParsedData {
+        public final SearchIndexableData data;
+        public final List<Object[]> rows;
+
+        public ParsedData(SearchIndexableData data, List<Object[]> rows) {
+            this.data = data;
+            this.rows = rows;
+        }
+    }
+
     private final AtomicBoolean mIsAvailable = new AtomicBoolean(false);
     private final UpdateData mDataToProcess = new UpdateData();
     private Context mContext;
     private final String mBaseAuthority;
+    private final SavedQueryCache mSavedQueries;
+    private final ThreadPoolExecutor mIndexingExecutor;
+
+    // Lazily loaded copy of the current locale rows, reset each time the Index is updated
+    private final Object mInMemoryIndexLock = new Object();
+    private InMemoryIndex mInMemoryIndex;
+    private boolean mInMemorySearchEnabled;
 
     /**
      * A basic singleton
@@ -225,6 +271,14 @@ public class Index {
     public Index(Context context, String baseAuthority) {
         mContext = context;
         mBaseAuthority = baseAuthority;
+        mSavedQueries = new SavedQueryCache(context, MAX_SAVED_SEARCH_QUERY,
+                MAX_PROPOSED_SUGGESTIONS);
+        mInMemorySearchEnabled = context.getResources().getBoolean(
+                R.bool.config_search_in_memory_index);
+        mIndexingExecutor = new ThreadPoolExecutor(INDEXING_THREAD_COUNT, INDEXING_THREAD_COUNT,
+                INDEXING_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        mIndexingExecutor.allowCoreThreadTimeOut(true);
     }
 
     public void setContext(Context context) {
@@ -235,7 +289,54 @@ public class Index {
         return mIsAvailable.get();
     }
 
+    /**
+     * Enable or disable searching through an in-memory copy of the Index instead of running
+     * FTS queries against the database.
+     */
+    public void setInMemorySearchEnabled(boolean enabled) {
+        mInMemorySearchEnabled = enabled;
+        if (!enabled) {
+            invalidateInMemoryIndex();
+        }
+    }
+
     public Cursor search(String query) {
+        if (mInMemorySearchEnabled) {
+            final InMemoryIndex index = getInMemoryIndex();
+            if (index != null) {
+                return index.search(query);
+            }
+        }
+        return searchDatabase(query);
+    }
+
+    private InMemoryIndex getInMemoryIndex() {
+        final String localeStr = Locale.getDefault().toString();
+        synchronized (mInMemoryIndexLock) {
+            if (mInMemoryIndex == null || !localeStr.equals(mInMemoryIndex.getLocale())) {
+                try {
+                    final long current = System.currentTimeMillis();
+                    mInMemoryIndex = InMemoryIndex.load(getReadableDatabase(), localeStr,
+                            SELECT_COLUMNS, MATCH_COLUMNS_PRIMARY, MATCH_COLUMNS_SECONDARY);
+                    Log.d(LOG_TAG, "Loading " + mInMemoryIndex.getRowCount()
+                            + " rows for locale '" + localeStr + "' took "
+                            + (System.currentTimeMillis() - current) + " millis");
+                } catch (SQLiteException e) {
+                    Log.e(LOG_TAG, "Cannot load in-memory Index", e);
+                    mInMemoryIndex = null;
+                }
+            }
+            return mInMemoryIndex;
+        }
+    }
+
+    private void invalidateInMemoryIndex() {
+        synchronized (mInMemoryIndexLock) {
+            mInMemoryIndex = null;
+        }
+    }
+
+    private Cursor searchDatabase(String query) {
         final SQLiteDatabase database = getReadableDatabase();
         final Cursor[] cursors = new Cursor[2];
 
@@ -256,56 +357,30 @@ public class Index {
         return new MergeCursor(cursors);
     }
 
+    /**
+     * Get the saved queries starting with the given query, or the most recent ones if empty.
+     */
     public Cursor getSuggestions(String query) {
-        final String sql = buildSuggestionsSQL(query);
-        Log.d(LOG_TAG, "Suggestions query: " + sql);
-        return getReadableDatabase().rawQuery(sql, null);
+        return mSavedQueries.getSuggestions(query);
     }
 
-    private String buildSuggestionsSQL(String query) {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append("SELECT ");
-        sb.append(IndexDatabaseHelper.SavedQueriesColums.QUERY);
-        sb.append(" FROM ");
-        sb.append(Tables.TABLE_SAVED_QUERIES);
-
-        if (TextUtils.isEmpty(query)) {
-            sb.append(" ORDER BY rowId DESC");
-        } else {
-            sb.append(" WHERE ");
-            sb.append(IndexDatabaseHelper.SavedQueriesColums.QUERY);
-            sb.append(" LIKE ");
-            sb.append("'");
-            sb.append(query);
-            sb.append("%");
-            sb.append("'");
-        }
-
-        sb.append(" LIMIT ");
-        sb.append(MAX_PROPOSED_SUGGESTIONS);
-
-        return sb.toString();
-    }
-
-    public long addSavedQuery(String query){
-        final SaveSearchQueryTask task = new SaveSearchQueryTask();
-        task.execute(query);
-        try {
-            return task.get();
-        } catch (InterruptedException e) {
-            Log.e(LOG_TAG, "Cannot insert saved query: " + query, e);
-            return -1 ;
-        } catch (ExecutionException e) {
-            Log.e(LOG_TAG, "Cannot insert saved query: " + query, e);
-            return -1;
-        }
+    /**
+     * Save a query for future suggestions. The query is written to the database in the
+     * background.
+     */
+    public void addSavedQuery(String query) {
+        mSavedQueries.add(query);
     }
 
     public void update() {
         AsyncTask.execute(new Runnable() {
             @Override
             public void run() {
+                final String localeStr = Locale.getDefault().toString();
+                if (!IndexDatabaseHelper.isLocaleAlreadyIndexed(mContext, localeStr)) {
+                    loadSnapshot(localeStr);
+                }
+
                 final Intent intent = new Intent(SearchIndexablesContract.PROVIDER_INTERFACE);
                 List<ResolveInfo> list =
                         mContext.getPackageManager().queryIntentContentProviders(intent, 0);
@@ -329,6 +404,164 @@ public class Index {
         });
     }
 
+    /**
+     * Bulk load the snapshot of the static resources shipped for a locale, if any. The loaded
+     * resources are recorded as indexed so that the next update skips them.
+     */
+    private void loadSnapshot(String localeStr) {
+        final InputStream in;
+        try {
+            in = mContext.getAssets().open(SNAPSHOT_ASSET_DIR + "/" + localeStr + SNAPSHOT_EXT);
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "No Index snapshot for locale '" + localeStr + "'");
+            return;
+        }
+
+        final SQLiteDatabase database = getWritableDatabase();
+        if (database == null) {
+            Log.e(LOG_TAG, "Cannot load Index snapshot as I cannot get a writable database");
+            closeQuietly(in);
+            return;
+        }
+
+        final String buildKey = getSnapshotBuildKey();
+        if (buildKey == null) {
+            closeQuietly(in);
+            return;
+        }
+
+        final long current = System.currentTimeMillis();
+        List<String> classNames = null;
+        final IndexRowWriter writer = new IndexRowWriter(database);
+        try {
+            database.beginTransaction();
+            classNames = IndexSnapshot.load(in, buildKey, localeStr, writer);
+            database.setTransactionSuccessful();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot load Index snapshot for locale '" + localeStr + "'", e);
+            return;
+        } finally {
+            writer.close();
+            database.endTransaction();
+            closeQuietly(in);
+            invalidateInMemoryIndex();
+        }
+
+        final String packageName = mContext.getPackageName();
+        final Map<String, String> packageVersions = new HashMap<String, String>();
+        final Map<String, String> checksums = new HashMap<String, String>();
+        for (String className : classNames) {
+            final SearchIndexableResource res =
+                    SearchIndexableResources.getResourceByName(className);
+            if (res == null) {
+                continue;
+            }
+            // Same key as the one of the resource reported by our own provider
+            final SearchIndexableResource sir = new SearchIndexableResource(res.rank,
+                    res.xmlResId, res.className, res.iconResId);
+            sir.packageName = packageName;
+            checksums.put(getChecksumKey(sir), getPackageVersion(packageName, packageVersions));
+        }
+        IndexDatabaseHelper.setIndexedChecksums(mContext, localeStr, checksums);
+
+        Log.d(LOG_TAG, "Loading Index snapshot for locale '" + localeStr + "' took "
+                + (System.currentTimeMillis() - current) + " millis");
+    }
+
+    /**
+     * Write the snapshot of the static resources of the current locale, as loaded by
+     * {@link #update()} on first boot or locale change. The static resources should have been
+     * indexed first.
+     *
+     * @return the number of rows written
+     */
+    @VisibleForTesting
+    int exportSnapshot(OutputStream out) throws IOException {
+        final String buildKey = getSnapshotBuildKey();
+        if (buildKey == null) {
+            throw new IOException("Cannot identify the build of the snapshot");
+        }
+        final List<String> classNames = new ArrayList<String>();
+        for (SearchIndexableResource res : SearchIndexableResources.values()) {
+            if (res.xmlResId > SearchIndexableResources.NO_DATA_RES_ID) {
+                classNames.add(res.className);
+            }
+        }
+        return IndexSnapshot.write(getReadableDatabase(), buildKey,
+                Locale.getDefault().toString(), classNames, out);
+    }
+
+    /**
+     * Identifies the build a snapshot is valid for: the version of Settings, the resource IDs
+     * of the static resources, which the rows refer to, and the content of the resources the
+     * rows are made of, so that changed strings or translations don't reuse a stale snapshot.
+     * The build fingerprint can't be used, as the snapshot is generated before the build that
+     * ships it.
+     *
+     * @return the key, or null if the resources can't be checked
+     */
+    private String getSnapshotBuildKey() {
+        int versionCode = 0;
+        try {
+            versionCode = mContext.getPackageManager()
+                    .getPackageInfo(mContext.getPackageName(), 0).versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            // Can't happen for our own package
+        }
+        // Summed so that it doesn't depend on the iteration order
+        int resourcesHash = 0;
+        for (SearchIndexableResource res : SearchIndexableResources.values()) {
+            resourcesHash += Objects.hash(res.className, res.xmlResId, res.iconResId);
+        }
+        final ApplicationInfo info = mContext.getApplicationInfo();
+        long contentChecksum;
+        try {
+            contentChecksum = getResourcesChecksum(info.sourceDir);
+            if (info.resourceDirs != null) {
+                // Overlays can replace strings too
+                for (String resourceDir : info.resourceDirs) {
+                    contentChecksum += getResourcesChecksum(resourceDir);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot read the resources of " + info.sourceDir, e);
+            return null;
+        }
+        return versionCode + ":" + Integer.toHexString(resourcesHash) + ":"
+                + Long.toHexString(contentChecksum);
+    }
+
+    /**
+     * Returns the sum of the CRCs of the resource table, which holds the strings in every
+     * language, and of the XML resources of the APK. The CRCs are read from the central
+     * directory of the APK, without reading the resources themselves.
+     */
+    private static long getResourcesChecksum(String apkPath) throws IOException {
+        long checksum = 0;
+        final ZipFile apk = new ZipFile(apkPath);
+        try {
+            final Enumeration<? extends ZipEntry> entries = apk.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final String name = entry.getName();
+                if (name.equals("resources.arsc") || name.startsWith("res/xml")) {
+                    checksum += entry.getCrc();
+                }
+            }
+        } finally {
+            apk.close();
+        }
+        return checksum;
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
     private boolean addIndexablesFromRemoteProvider(String packageName, String authority) {
         try {
             final int baseRank = Ranking.getBaseRankForAuthority(authority);
@@ -485,27 +718,75 @@ public class Index {
         if (className == null) {
             throw new IllegalArgumentException("class name cannot be null!");
         }
-        final SearchIndexableResource res = SearchIndexableResources.getResourceByName(className);
-        if (res == null ) {
-            Log.e(LOG_TAG, "Cannot find SearchIndexableResources for class name: " + className);
+        updateFromClassNameResources(Collections.singletonMap(className, rebuild),
+                includeInSearchResults);
+    }
+
+    /**
+     * Update the Index for several class name resources within a single update transaction.
+     *
+     * @param classNames the class names (typically fragment names), each one mapped to true if
+     *                   its data should be deleted from the Index first.
+     * @param includeInSearchResults true means that you want the bit "enabled" set so that the
+     *                               data will be seen included into the search results
+     */
+    public void updateFromClassNameResources(Map<String, Boolean> classNames,
+            boolean includeInSearchResults) {
+        final List<SearchIndexableResource> resources = new ArrayList<SearchIndexableResource>();
+        final List<Boolean> rebuilds = new ArrayList<Boolean>();
+        for (Map.Entry<String, Boolean> entry : classNames.entrySet()) {
+            final String className = entry.getKey();
+            final SearchIndexableResource res =
+                    SearchIndexableResources.getResourceByName(className);
+            if (res == null) {
+                Log.e(LOG_TAG, "Cannot find SearchIndexableResources for class name: "
+                        + className);
+                continue;
+            }
+            res.context = mContext;
+            res.enabled = includeInSearchResults;
+            resources.add(res);
+            rebuilds.add(entry.getValue());
+        }
+        if (resources.isEmpty()) {
             return;
         }
-        res.context = mContext;
-        res.enabled = includeInSearchResults;
         AsyncTask.execute(new Runnable() {
             @Override
             public void run() {
-                if (rebuild) {
-                    deleteIndexableData(res);
+                final int count = resources.size();
+                for (int n = 0; n < count; n++) {
+                    final SearchIndexableResource res = resources.get(n);
+                    if (rebuilds.get(n)) {
+                        deleteIndexableData(res);
+                    }
+                    addIndexableData(res);
                 }
-                addIndexableData(res);
                 mDataToProcess.forceUpdate = true;
                 updateInternal();
-                res.enabled = false;
+                for (int n = 0; n < count; n++) {
+                    resources.get(n).enabled = false;
+                }
             }
         });
     }
 
+    /**
+     * Index the given data for the current locale on the calling thread.
+     *
+     * @return the number of rows written into the Index
+     */
+    @VisibleForTesting
+    int updateSynchronously(List<SearchIndexableData> data) {
+        final UpdateData updateData = new UpdateData();
+        updateData.dataToUpdate.addAll(data);
+        updateData.forceUpdate = true;
+
+        final UpdateIndexTask task = new UpdateIndexTask();
+        task.update(updateData);
+        return task.mIndexedRowCount;
+    }
+
     public void updateFromSearchIndexableData(SearchIndexableData data) {
         AsyncTask.execute(new Runnable() {
             @Override
@@ -530,6 +811,49 @@ public class Index {
         }
     }
 
+    private String getChecksumKey(SearchIndexableData data) {
+        if (data == null) {
+            return null;
+        }
+        final StringBuilder sb = new StringBuilder(getVersionedPackageName(data));
+        sb.append('/');
+        sb.append(data.className);
+        if (data instanceof SearchIndexableResource) {
+            sb.append('/');
+            sb.append(((SearchIndexableResource) data).xmlResId);
+        } else if (data instanceof SearchIndexableRaw) {
+            final SearchIndexableRaw raw = (SearchIndexableRaw) data;
+            sb.append('/');
+            sb.append(raw.key);
+            sb.append('/');
+            sb.append(raw.title);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the package whose version the data was indexed for: the package providing it, or
+     * Settings for its own raw and in-app data.
+     */
+    private String getVersionedPackageName(SearchIndexableData data) {
+        return TextUtils.isEmpty(data.packageName) ? mContext.getPackageName() : data.packageName;
+    }
+
+    private String getPackageVersion(String packageName, Map<String, String> cache) {
+        String version = cache.get(packageName);
+        if (version == null) {
+            try {
+                final PackageInfo info =
+                        mContext.getPackageManager().getPackageInfo(packageName, 0);
+                version = info.versionCode + ":" + info.lastUpdateTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                version = EMPTY;
+            }
+            cache.put(packageName, version);
+        }
+        return version;
+    }
+
     private static Uri buildUriForXmlResources(String authority) {
         return Uri.parse("content://" + authority + "/" +
                 SearchIndexablesContract.INDEXABLES_XML_RES_PATH);
@@ -721,23 +1045,23 @@ public class Index {
         return sb.toString();
     }
 
-    private void indexOneSearchIndexableData(SQLiteDatabase database, String localeStr,
+    private void indexOneSearchIndexableData(List<Object[]> rows, String localeStr,
             SearchIndexableData data, Map<String, List<String>> nonIndexableKeys) {
         if (data instanceof SearchIndexableResource) {
-            indexOneResource(database, localeStr, (SearchIndexableResource) data, nonIndexableKeys);
+            indexOneResource(rows, localeStr, (SearchIndexableResource) data, nonIndexableKeys);
         } else if (data instanceof SearchIndexableRaw) {
-            indexOneRaw(database, localeStr, (SearchIndexableRaw) data);
+            indexOneRaw(rows, localeStr, (SearchIndexableRaw) data);
         }
     }
 
-    private void indexOneRaw(SQLiteDatabase database, String localeStr,
+    private void indexOneRaw(List<Object[]> rows, String localeStr,
                              SearchIndexableRaw raw) {
         // Should be the same locale as the one we are processing
         if (!raw.locale.toString().equalsIgnoreCase(localeStr)) {
             return;
         }
 
-        updateOneRowWithFilteredData(database, localeStr,
+        updateOneRowWithFilteredData(rows, localeStr,
                 raw.title,
                 raw.summaryOn,
                 raw.summaryOff,
@@ -770,7 +1094,7 @@ public class Index {
         return isIndexableClass(clazz) ? clazz : null;
     }
 
-    private void indexOneResource(SQLiteDatabase database, String localeStr,
+    private void indexOneResource(List<Object[]> rows, String localeStr,
             SearchIndexableResource sir, Map<String, List<String>> nonIndexableKeysFromResource) {
 
         if (sir == null) {
@@ -786,7 +1110,7 @@ public class Index {
                 nonIndexableKeys.addAll(resNonIndxableKeys);
             }
 
-            indexFromResource(sir.context, database, localeStr,
+            indexFromResource(sir.context, rows, localeStr,
                     sir.xmlResId, sir.className, sir.iconResId, sir.rank,
                     sir.intentAction, sir.intentTargetPackage, sir.intentTargetClass,
                     nonIndexableKeys);
@@ -812,7 +1136,7 @@ public class Index {
                     nonIndexableKeys.addAll(providerNonIndexableKeys);
                 }
 
-                indexFromProvider(mContext, database, localeStr, provider, sir.className,
+                indexFromProvider(mContext, rows, localeStr, provider, sir.className,
                         sir.iconResId, sir.rank, sir.enabled, nonIndexableKeys);
             }
         }
@@ -838,7 +1162,7 @@ public class Index {
         return null;
     }
 
-    private void indexFromResource(Context context, SQLiteDatabase database, String localeStr,
+    private void indexFromResource(Context context, List<Object[]> rows, String localeStr,
            int xmlResId, String fragmentName, int iconResId, int rank,
            String intentAction, String intentTargetPackage, String intentTargetClass,
            List<String> nonIndexableKeys) {
@@ -878,7 +1202,7 @@ public class Index {
                 summary = getDataSummary(context, attrs);
                 keywords = getDataKeywords(context, attrs);
 
-                updateOneRowWithFilteredData(database, localeStr, title, summary, null, null,
+                updateOneRowWithFilteredData(rows, localeStr, title, summary, null, null,
                         fragmentName, screenTitle, iconResId, rank,
                         keywords, intentAction, intentTargetPackage, intentTargetClass, true,
                         key, -1 /* default user id */);
@@ -910,7 +1234,7 @@ public class Index {
                     }
 
                     // Insert rows for the child nodes of PreferenceScreen
-                    updateOneRowWithFilteredData(database, localeStr, title, summary, null, entries,
+                    updateOneRowWithFilteredData(rows, localeStr, title, summary, null, entries,
                             fragmentName, screenTitle, iconResId, rank,
                             keywords, intentAction, intentTargetPackage, intentTargetClass,
                             true, key, -1 /* default user id */);
@@ -922,7 +1246,7 @@ public class Index {
                         summaryOn = getDataSummary(context, attrs);
                     }
 
-                    updateOneRowWithFilteredData(database, localeStr, title, summaryOn, summaryOff,
+                    updateOneRowWithFilteredData(rows, localeStr, title, summaryOn, summaryOff,
                             null, fragmentName, screenTitle, iconResId, rank,
                             keywords, intentAction, intentTargetPackage, intentTargetClass,
                             true, key, -1 /* default user id */);
@@ -938,7 +1262,7 @@ public class Index {
         }
     }
 
-    private void indexFromProvider(Context context, SQLiteDatabase database, String localeStr,
+    private void indexFromProvider(Context context, List<Object[]> rows, String localeStr,
             Indexable.SearchIndexProvider provider, String className, int iconResId, int rank,
             boolean enabled, List<String> nonIndexableKeys) {
 
@@ -963,7 +1287,7 @@ public class Index {
                     continue;
                 }
 
-                updateOneRowWithFilteredData(database, localeStr,
+                updateOneRowWithFilteredData(rows, localeStr,
                         raw.title,
                         raw.summaryOn,
                         raw.summaryOff,
@@ -999,7 +1323,7 @@ public class Index {
                 String itemClassName = (TextUtils.isEmpty(item.className))
                         ? className : item.className;
 
-                indexFromResource(context, database, localeStr,
+                indexFromResource(context, rows, localeStr,
                         item.xmlResId, itemClassName, itemIconResId, itemRank,
                         item.intentAction, item.intentTargetPackage,
                         item.intentTargetClass, nonIndexableKeys);
@@ -1007,7 +1331,7 @@ public class Index {
         }
     }
 
-    private void updateOneRowWithFilteredData(SQLiteDatabase database, String locale,
+    private void updateOneRowWithFilteredData(List<Object[]> rows, String locale,
             String title, String summaryOn, String summaryOff, String entries,
             String className,
             String screenTitle, int iconResId, int rank, String keywords,
@@ -1024,7 +1348,7 @@ public class Index {
 
         final String spaceDelimitedKeywords = normalizeKeywords(keywords);
 
-        updateOneRow(database, locale,
+        updateOneRow(rows, locale,
                 updatedTitle, normalizedTitle, updatedSummaryOn, normalizedSummaryOn,
                 updatedSummaryOff, normalizedSummaryOff, entries, className, screenTitle, iconResId,
                 rank, spaceDelimitedKeywords, intentAction, intentTargetPackage, intentTargetClass,
@@ -1046,7 +1370,7 @@ public class Index {
         return (input != null) ? input.replaceAll(LIST_DELIMITERS, SPACE) : EMPTY;
     }
 
-    private void updateOneRow(SQLiteDatabase database, String locale, String updatedTitle,
+    private void updateOneRow(List<Object[]> rows, String locale, String updatedTitle,
             String normalizedTitle, String updatedSummaryOn, String normalizedSummaryOn,
             String updatedSummaryOff, String normalizedSummaryOff, String entries, String className,
             String screenTitle, int iconResId, int rank, String spaceDelimitedKeywords,
@@ -1063,29 +1387,29 @@ public class Index {
         sb.append(screenTitle);
         int docId = sb.toString().hashCode();
 
-        ContentValues values = new ContentValues();
-        values.put(IndexColumns.DOCID, docId);
-        values.put(IndexColumns.LOCALE, locale);
-        values.put(IndexColumns.DATA_RANK, rank);
-        values.put(IndexColumns.DATA_TITLE, updatedTitle);
-        values.put(IndexColumns.DATA_TITLE_NORMALIZED, normalizedTitle);
-        values.put(IndexColumns.DATA_SUMMARY_ON, updatedSummaryOn);
-        values.put(IndexColumns.DATA_SUMMARY_ON_NORMALIZED, normalizedSummaryOn);
-        values.put(IndexColumns.DATA_SUMMARY_OFF, updatedSummaryOff);
-        values.put(IndexColumns.DATA_SUMMARY_OFF_NORMALIZED, normalizedSummaryOff);
-        values.put(IndexColumns.DATA_ENTRIES, entries);
-        values.put(IndexColumns.DATA_KEYWORDS, spaceDelimitedKeywords);
-        values.put(IndexColumns.CLASS_NAME, className);
-        values.put(IndexColumns.SCREEN_TITLE, screenTitle);
-        values.put(IndexColumns.INTENT_ACTION, intentAction);
-        values.put(IndexColumns.INTENT_TARGET_PACKAGE, intentTargetPackage);
-        values.put(IndexColumns.INTENT_TARGET_CLASS, intentTargetClass);
-        values.put(IndexColumns.ICON, iconResId);
-        values.put(IndexColumns.ENABLED, enabled);
-        values.put(IndexColumns.DATA_KEY_REF, key);
-        values.put(IndexColumns.USER_ID, userId);
-
-        database.replaceOrThrow(Tables.TABLE_PREFS_INDEX, null, values);
+        // Values must follow the order of IndexRowWriter.INSERT_COLUMNS
+        rows.add(new Object[] {
+                docId,
+                locale,
+                rank,
+                updatedTitle,
+                normalizedTitle,
+                updatedSummaryOn,
+                normalizedSummaryOn,
+                updatedSummaryOff,
+                normalizedSummaryOff,
+                entries,
+                spaceDelimitedKeywords,
+                className,
+                screenTitle,
+                intentAction,
+                intentTargetPackage,
+                intentTargetClass,
+                iconResId,
+                enabled,
+                key,
+                userId
+        });
     }
 
     private String getDataKey(Context context, AttributeSet attrs) {
@@ -1170,6 +1494,11 @@ public class Index {
      */
     private class UpdateIndexTask extends AsyncTask<UpdateData, Integer, Void> {
 
+        // Number of rows written by this task
+        private int mIndexedRowCount;
+        // Number of rows written since other database users were last let in
+        private int mUnyieldedRowCount;
+
         @Override
         protected void onPreExecute() {
             super.onPreExecute();
@@ -1184,33 +1513,54 @@ public class Index {
 
         @Override
         protected Void doInBackground(UpdateData... params) {
+            update(params[0]);
+            return null;
+        }
+
+        /**
+         * Update the Index with the data, on the calling thread.
+         */
+        private void update(UpdateData updateData) {
             try {
-                final List<SearchIndexableData> dataToUpdate = params[0].dataToUpdate;
-                final List<SearchIndexableData> dataToDelete = params[0].dataToDelete;
-                final Map<String, List<String>> nonIndexableKeys = params[0].nonIndexableKeys;
+                final List<SearchIndexableData> dataToUpdate = updateData.dataToUpdate;
+                final List<SearchIndexableData> dataToDelete = updateData.dataToDelete;
+                final Map<String, List<String>> nonIndexableKeys = updateData.nonIndexableKeys;
 
-                final boolean forceUpdate = params[0].forceUpdate;
-                final boolean fullIndex = params[0].fullIndex;
+                final boolean forceUpdate = updateData.forceUpdate;
+                final boolean fullIndex = updateData.fullIndex;
 
                 final SQLiteDatabase database = getWritableDatabase();
                 if (database == null) {
                     Log.e(LOG_TAG, "Cannot update Index as I cannot get a writable database");
-                    return null;
+                    return;
                 }
                 final String localeStr = Locale.getDefault().toString();
 
+                final Map<String, String> checksums = new HashMap<String, String>();
+                boolean completed = true;
                 try {
                     database.beginTransaction();
                     if (dataToDelete.size() > 0) {
                         processDataToDelete(database, localeStr, dataToDelete);
                     }
                     if (dataToUpdate.size() > 0) {
-                        processDataToUpdate(database, localeStr, dataToUpdate, nonIndexableKeys,
-                                forceUpdate);
+                        completed = processDataToUpdate(database, localeStr, dataToUpdate,
+                                nonIndexableKeys, forceUpdate, checksums);
+                    }
+                    if (completed) {
+                        database.setTransactionSuccessful();
                     }
-                    database.setTransactionSuccessful();
                 } finally {
                     database.endTransaction();
+                    invalidateInMemoryIndex();
+                }
+                if (!completed) {
+                    // Rolled back, everything is indexed again next time
+                    Log.w(LOG_TAG, "Indexing locale '" + localeStr + "' was aborted");
+                    return;
+                }
+                if (checksums.size() > 0) {
+                    IndexDatabaseHelper.setIndexedChecksums(mContext, localeStr, checksums);
                 }
                 if (fullIndex) {
                     IndexDatabaseHelper.setLocaleIndexed(mContext, localeStr);
@@ -1218,37 +1568,241 @@ public class Index {
             } catch (SQLiteFullException e) {
                 Log.e(LOG_TAG, "Unable to index search, out of space", e);
             }
-
-            return null;
         }
 
-        private boolean processDataToUpdate(SQLiteDatabase database, String localeStr,
-                List<SearchIndexableData> dataToUpdate, Map<String, List<String>> nonIndexableKeys,
-                boolean forceUpdate) {
-
-            if (!forceUpdate && IndexDatabaseHelper.isLocaleAlreadyIndexed(mContext, localeStr)) {
-                Log.d(LOG_TAG, "Locale '" + localeStr + "' is already indexed");
-                return true;
+        /**
+         * Index the data that changed since it was last indexed for this locale.
+         *
+         * @param checksums filled with the checksums of the data indexed successfully, to be
+         *         saved once the transaction succeeded
+         * @return false if indexing was aborted, in which case the transaction must not succeed
+         */
+        private boolean processDataToUpdate(SQLiteDatabase database,
+                String localeStr, List<SearchIndexableData> dataToUpdate,
+                Map<String, List<String>> nonIndexableKeys, boolean forceUpdate,
+                Map<String, String> checksums) {
+
+            final List<SearchIndexableData> changedData;
+            final Set<String> replacedClassNames = new HashSet<String>();
+
+            if (forceUpdate) {
+                changedData = dataToUpdate;
+            } else {
+                final boolean localeIndexed =
+                        IndexDatabaseHelper.isLocaleAlreadyIndexed(mContext, localeStr);
+                changedData = getChangedData(localeStr, dataToUpdate, localeIndexed, checksums,
+                        replacedClassNames);
+                if (changedData.size() == 0) {
+                    Log.d(LOG_TAG, "Locale '" + localeStr + "' is already indexed");
+                    return true;
+                }
             }
 
-            boolean result = false;
             final long current = System.currentTimeMillis();
 
+            final boolean completed = indexInParallel(database, localeStr, changedData,
+                    replacedClassNames, nonIndexableKeys, checksums);
+
+            final long now = System.currentTimeMillis();
+            Log.d(LOG_TAG, "Indexing " + changedData.size() + " item(s) for locale '" + localeStr
+                    + "' took " + (now - current) + " millis");
+            return completed;
+        }
+
+        /**
+         * Only keep the data whose provider package or resource changed since the last time it
+         * was indexed. When some data of a class changed, all the data of the class is indexed
+         * again, as its rows are replaced together.
+         *
+         * @param outReplacedClassNames filled with the classes whose rows are already indexed
+         *         and must be replaced
+         */
+        private List<SearchIndexableData> getChangedData(String localeStr,
+                List<SearchIndexableData> dataToUpdate, boolean localeIndexed,
+                Map<String, String> outChecksums, Set<String> outReplacedClassNames) {
+            final List<SearchIndexableData> changedData = new ArrayList<SearchIndexableData>();
+            final Set<String> changedClassNames = new HashSet<String>();
+            final Map<String, String> packageVersions = new HashMap<String, String>();
+
             final int count = dataToUpdate.size();
+            final boolean[] changed = new boolean[count];
             for (int n = 0; n < count; n++) {
                 final SearchIndexableData data = dataToUpdate.get(n);
-                try {
-                    indexOneSearchIndexableData(database, localeStr, data, nonIndexableKeys);
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "Cannot index: " + (data != null ? data.className : data)
-                                    + " for locale: " + localeStr, e);
+                final String key = getChecksumKey(data);
+                if (key == null) {
+                    continue;
+                }
+                final String checksum =
+                        getPackageVersion(getVersionedPackageName(data), packageVersions);
+                outChecksums.put(key, checksum);
+
+                // Unchanged data, or data loaded from a snapshot
+                if (checksum.equals(
+                        IndexDatabaseHelper.getIndexedChecksum(mContext, localeStr, key))) {
+                    continue;
+                }
+                changed[n] = true;
+                if (!TextUtils.isEmpty(data.className)) {
+                    changedClassNames.add(data.className);
+                }
+            }
+            for (int n = 0; n < count; n++) {
+                final SearchIndexableData data = dataToUpdate.get(n);
+                if (data == null) {
+                    continue;
+                }
+                if (changed[n] || changedClassNames.contains(data.className)) {
+                    changedData.add(data);
                 }
             }
+            if (localeIndexed) {
+                outReplacedClassNames.addAll(changedClassNames);
+            }
+            return changedData;
+        }
 
-            final long now = System.currentTimeMillis();
-            Log.d(LOG_TAG, "Indexing locale '" + localeStr + "' took " +
-                    (now - current) + " millis");
-            return result;
+        /**
+         * Parse the data on the indexing threads while this thread inserts the resulting rows
+         * as they become available. The rows of a replaced class are only deleted once all its
+         * data parsed, right before its new rows are inserted. The checksum of the data that
+         * failed to parse is removed from the checksums, so that it is indexed again next time.
+         *
+         * @return false if indexing was aborted before all the rows were written
+         */
+        private boolean indexInParallel(SQLiteDatabase database, final String localeStr,
+                List<SearchIndexableData> dataToUpdate, Set<String> replacedClassNames,
+                final Map<String, List<String>> nonIndexableKeys, Map<String, String> checksums) {
+            final int count = dataToUpdate.size();
+            // The data of each replaced class parsed so far, and how many are left to parse
+            final Map<String, List<ParsedData>> parsedByClass =
+                    new HashMap<String, List<ParsedData>>();
+            final Map<String, Integer> pendingByClass = new HashMap<String, Integer>();
+            for (int n = 0; n < count; n++) {
+                final SearchIndexableData data = dataToUpdate.get(n);
+                final String className = data != null ? data.className : null;
+                if (replacedClassNames.contains(className)) {
+                    final Integer pending = pendingByClass.get(className);
+                    pendingByClass.put(className, pending != null ? pending + 1 : 1);
+                }
+            }
+
+            final CompletionService<ParsedData> completionService =
+                    new ExecutorCompletionService<ParsedData>(mIndexingExecutor);
+            final List<Future<ParsedData>> futures = new ArrayList<Future<ParsedData>>(count);
+            final IndexRowWriter writer = new IndexRowWriter(database);
+            try {
+                for (int n = 0; n < count; n++) {
+                    final SearchIndexableData data = dataToUpdate.get(n);
+                    futures.add(completionService.submit(new Callable<ParsedData>() {
+                        @Override
+                        public ParsedData call() {
+                            return parseOneSearchIndexableData(localeStr, data, nonIndexableKeys);
+                        }
+                    }));
+                }
+
+                for (int n = 0; n < count; n++) {
+                    final ParsedData parsed = completionService.take().get();
+                    final String className = parsed.data != null ? parsed.data.className : null;
+                    final Integer pending = pendingByClass.get(className);
+                    if (pending == null) {
+                        if (parsed.rows == null) {
+                            removeChecksum(checksums, parsed.data);
+                        } else {
+                            writeRows(database, writer, parsed.rows);
+                        }
+                        continue;
+                    }
+                    List<ParsedData> parsedOfClass = parsedByClass.get(className);
+                    if (parsedOfClass == null) {
+                        parsedOfClass = new ArrayList<ParsedData>(pending);
+                        parsedByClass.put(className, parsedOfClass);
+                    }
+                    parsedOfClass.add(parsed);
+                    if (pending > 1) {
+                        pendingByClass.put(className, pending - 1);
+                        continue;
+                    }
+                    pendingByClass.remove(className);
+                    parsedByClass.remove(className);
+                    replaceRows(database, writer, localeStr, className, parsedOfClass, checksums);
+                }
+            } catch (InterruptedException e) {
+                Log.e(LOG_TAG, "Interrupted while indexing locale: " + localeStr, e);
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Cannot index locale: " + localeStr, e);
+                return false;
+            } finally {
+                writer.close();
+                final int futureCount = futures.size();
+                for (int n = 0; n < futureCount; n++) {
+                    futures.get(n).cancel(true);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Replace the indexed rows of the class by the ones parsed from all its data. If any of
+         * its data failed to parse, the indexed rows are kept until it is indexed again.
+         */
+        private void replaceRows(SQLiteDatabase database, IndexRowWriter writer,
+                String localeStr, String className, List<ParsedData> parsedOfClass,
+                Map<String, String> checksums) {
+            final int count = parsedOfClass.size();
+            for (int n = 0; n < count; n++) {
+                if (parsedOfClass.get(n).rows == null) {
+                    for (int i = 0; i < count; i++) {
+                        removeChecksum(checksums, parsedOfClass.get(i).data);
+                    }
+                    return;
+                }
+            }
+            delete(database, localeStr, IndexColumns.CLASS_NAME, className);
+            final List<Object[]> rows = new ArrayList<Object[]>();
+            for (int n = 0; n < count; n++) {
+                rows.addAll(parsedOfClass.get(n).rows);
+            }
+            writeRows(database, writer, rows);
+        }
+
+        private void writeRows(SQLiteDatabase database, IndexRowWriter writer,
+                List<Object[]> rows) {
+            final int rowCount = rows.size();
+            for (int i = 0; i < rowCount; i++) {
+                writer.write(rows.get(i));
+            }
+            mIndexedRowCount += rowCount;
+            mUnyieldedRowCount += rowCount;
+            if (mUnyieldedRowCount >= INSERT_BATCH_SIZE) {
+                // Let the search queries in between two batches, never in the middle of the
+                // rows of one data or class
+                database.yieldIfContendedSafely();
+                mUnyieldedRowCount = 0;
+            }
+        }
+
+        private void removeChecksum(Map<String, String> checksums, SearchIndexableData data) {
+            final String key = getChecksumKey(data);
+            if (key != null) {
+                checksums.remove(key);
+            }
+        }
+
+        private ParsedData parseOneSearchIndexableData(String localeStr,
+                SearchIndexableData data, Map<String, List<String>> nonIndexableKeys) {
+            final List<Object[]> rows = new ArrayList<Object[]>();
+            try {
+                indexOneSearchIndexableData(rows, localeStr, data, nonIndexableKeys);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Cannot index: " + (data != null ? data.className : data)
+                                + " for locale: " + localeStr, e);
+                // Part of its rows may be missing
+                return new ParsedData(data, null);
+            }
+            return new ParsedData(data, rows);
         }
 
         private boolean processDataToDelete(SQLiteDatabase database, String localeStr,
@@ -1287,50 +1841,13 @@ public class Index {
 
             return database.delete(Tables.TABLE_PREFS_INDEX, whereClause, whereArgs);
         }
-    }
-
-    /**
-     * A basic AsyncTask for saving a Search query into the database
-     */
-    private class SaveSearchQueryTask extends AsyncTask<String, Void, Long> {
-
-        @Override
-        protected Long doInBackground(String... params) {
-            final long now = new Date().getTime();
-
-            final ContentValues values = new ContentValues();
-            values.put(IndexDatabaseHelper.SavedQueriesColums.QUERY, params[0]);
-            values.put(IndexDatabaseHelper.SavedQueriesColums.TIME_STAMP, now);
 
-            final SQLiteDatabase database = getWritableDatabase();
-            if (database == null) {
-                Log.e(LOG_TAG, "Cannot save Search queries as I cannot get a writable database");
-                return -1L;
-            }
+        private int delete(SQLiteDatabase database, String localeStr, String columName,
+                String value) {
+            final String whereClause = columName + "=? AND " + IndexColumns.LOCALE + "=?";
+            final String[] whereArgs = new String[] { value, localeStr };
 
-            long lastInsertedRowId = -1L;
-            try {
-                // First, delete all saved queries that are the same
-                database.delete(Tables.TABLE_SAVED_QUERIES,
-                        IndexDatabaseHelper.SavedQueriesColums.QUERY + " = ?",
-                        new String[] { params[0] });
-
-                // Second, insert the saved query
-                lastInsertedRowId =
-                        database.insertOrThrow(Tables.TABLE_SAVED_QUERIES, null, values);
-
-                // Last, remove "old" saved queries
-                final long delta = lastInsertedRowId - MAX_SAVED_SEARCH_QUERY;
-                if (delta > 0) {
-                    int count = database.delete(Tables.TABLE_SAVED_QUERIES, "rowId <= ?",
-                            new String[] { Long.toString(delta) });
-                    Log.d(LOG_TAG, "Deleted '" + count + "' saved Search query(ies)");
-                }
-            } catch (Exception e) {
-                Log.d(LOG_TAG, "Cannot update saved Search queries", e);
-            }
-
-            return lastInsertedRowId;
+            return database.delete(Tables.TABLE_PREFS_INDEX, whereClause, whereArgs);
         }
     }
 }
@@ -17,12 +17,16 @@
 package com.android.settings.search;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Build;
 import android.util.Log;
 
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class IndexDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String TAG = "IndexDatabaseHelper";
@@ -31,6 +35,7 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
     private static final int DATABASE_VERSION = 115;
 
     private static final String INDEX = "index";
+    private static final String CHECKSUM_PREFIX = "checksum:";
 
     public interface Tables {
         public static final String TABLE_PREFS_INDEX = "prefs_index";
@@ -135,6 +140,9 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
 
     private static IndexDatabaseHelper sSingleton;
 
+    // Number of times the tables were dropped, so that what was read from them can be dropped too
+    private static final AtomicInteger sDropCount = new AtomicInteger();
+
     private final Context mContext;
 
     public static synchronized IndexDatabaseHelper getInstance(Context context) {
@@ -218,6 +226,14 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         return version;
     }
 
+    /**
+     * Returns the number of times the tables were dropped by this process, which changes when
+     * the content read from them so far is gone.
+     */
+    static int getDropCount() {
+        return sDropCount.get();
+    }
+
     public static void clearLocalesIndexed(Context context) {
         context.getSharedPreferences(INDEX, 0).edit().clear().commit();
     }
@@ -230,10 +246,33 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         return context.getSharedPreferences(INDEX, 0).getBoolean(locale, false);
     }
 
+    /**
+     * Save the checksums (provider package version) of the indexed data of a locale.
+     *
+     * @param checksums the checksums, keyed by indexable data
+     */
+    public static void setIndexedChecksums(Context context, String locale,
+            Map<String, String> checksums) {
+        final SharedPreferences.Editor editor = context.getSharedPreferences(INDEX, 0).edit();
+        for (Map.Entry<String, String> entry : checksums.entrySet()) {
+            editor.putString(getChecksumKey(locale, entry.getKey()), entry.getValue());
+        }
+        editor.commit();
+    }
+
+    public static String getIndexedChecksum(Context context, String locale, String key) {
+        return context.getSharedPreferences(INDEX, 0).getString(getChecksumKey(locale, key), null);
+    }
+
+    private static String getChecksumKey(String locale, String key) {
+        return CHECKSUM_PREFIX + locale + ":" + key;
+    }
+
     private void dropTables(SQLiteDatabase db) {
         clearLocalesIndexed(mContext);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_META_INDEX);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_PREFS_INDEX);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_SAVED_QUERIES);
+        sDropCount.incrementAndGet();
     }
 }
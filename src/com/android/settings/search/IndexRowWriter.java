@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.android.settings.search.IndexDatabaseHelper.IndexColumns;
+import com.android.settings.search.IndexDatabaseHelper.Tables;
+
+/**
+ * Writes rows into the Index table through a single precompiled statement.
+ *
+ * A row is an array holding one value per {@link #INSERT_COLUMNS} entry, in the same order.
+ * Values are bound by position, so writing a row neither compiles SQL nor allocates.
+ */
+class IndexRowWriter {
+
+    // If you change the order of columns here, you SHOULD change Index.updateOneRow()
+    static final String[] INSERT_COLUMNS = new String[] {
+            IndexColumns.DOCID,                       // 0
+            IndexColumns.LOCALE,                      // 1
+            IndexColumns.DATA_RANK,                   // 2
+            IndexColumns.DATA_TITLE,                  // 3
+            IndexColumns.DATA_TITLE_NORMALIZED,       // 4
+            IndexColumns.DATA_SUMMARY_ON,             // 5
+            IndexColumns.DATA_SUMMARY_ON_NORMALIZED,  // 6
+            IndexColumns.DATA_SUMMARY_OFF,            // 7
+            IndexColumns.DATA_SUMMARY_OFF_NORMALIZED, // 8
+            IndexColumns.DATA_ENTRIES,                // 9
+            IndexColumns.DATA_KEYWORDS,               // 10
+            IndexColumns.CLASS_NAME,                  // 11
+            IndexColumns.SCREEN_TITLE,                // 12
+            IndexColumns.INTENT_ACTION,               // 13
+            IndexColumns.INTENT_TARGET_PACKAGE,       // 14
+            IndexColumns.INTENT_TARGET_CLASS,         // 15
+            IndexColumns.ICON,                        // 16
+            IndexColumns.ENABLED,                     // 17
+            IndexColumns.DATA_KEY_REF,                // 18
+            IndexColumns.USER_ID                      // 19
+    };
+
+    private static final String INSERT_SQL = buildInsertSQL();
+
+    private final SQLiteStatement mStatement;
+
+    /**
+     * @param database the Index database, which should be in a transaction
+     */
+    IndexRowWriter(SQLiteDatabase database) {
+        mStatement = database.compileStatement(INSERT_SQL);
+    }
+
+    private static String buildInsertSQL() {
+        final StringBuilder sb = new StringBuilder("INSERT OR REPLACE INTO ");
+        sb.append(Tables.TABLE_PREFS_INDEX);
+        sb.append(" (");
+        for (int n = 0; n < INSERT_COLUMNS.length; n++) {
+            if (n > 0) {
+                sb.append(", ");
+            }
+            sb.append(INSERT_COLUMNS[n]);
+        }
+        sb.append(") VALUES (");
+        for (int n = 0; n < INSERT_COLUMNS.length; n++) {
+            if (n > 0) {
+                sb.append(", ");
+            }
+            sb.append('?');
+        }
+        sb.append(')');
+        return sb.toString();
+    }
+
+    /**
+     * Insert or replace one row.
+     */
+    void write(Object[] row) {
+        for (int n = 0; n < INSERT_COLUMNS.length; n++) {
+            // Binding indices are 1-based
+            bind(n + 1, row[n]);
+        }
+        mStatement.executeInsert();
+        mStatement.clearBindings();
+    }
+
+    private void bind(int index, Object value) {
+        if (value == null) {
+            mStatement.bindNull(index);
+        } else if (value instanceof Boolean) {
+            mStatement.bindLong(index, ((Boolean) value) ? 1 : 0);
+        } else if (value instanceof Number) {
+            mStatement.bindLong(index, ((Number) value).longValue());
+        } else {
+            mStatement.bindString(index, value.toString());
+        }
+    }
+
+    void close() {
+        mStatement.close();
+    }
+}
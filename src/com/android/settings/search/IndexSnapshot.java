@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.android.settings.search.IndexDatabaseHelper.IndexColumns;
+import com.android.settings.search.IndexDatabaseHelper.Tables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes a versioned binary snapshot of the Index rows of one locale.
+ *
+ * A snapshot only holds the rows of the static XML resources listed in
+ * {@link SearchIndexableResources}, as they are the same for a given build and locale. It is
+ * laid out as a header (magic, format version, build key, locale, column count), the class
+ * names it covers, then the rows, each value being written in the order of
+ * {@link IndexRowWriter#INSERT_COLUMNS} after a one byte type tag.
+ *
+ * The build key identifies the build the rows were generated on, as they hold its resource IDs
+ * and strings; a snapshot made on another build is not loaded.
+ */
+class IndexSnapshot {
+
+    private static final int MAGIC = 0x53494458; // "SIDX"
+    private static final int VERSION = 2;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_STRING = 2;
+
+    private IndexSnapshot() {
+    }
+
+    /**
+     * Write the rows of the given class names for a locale.
+     *
+     * @param buildKey identifies the build the rows are valid for
+     * @return the number of rows written
+     */
+    static int write(SQLiteDatabase database, String buildKey, String locale,
+            List<String> classNames, OutputStream out) throws IOException {
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeUTF(buildKey);
+        data.writeUTF(locale);
+        data.writeInt(IndexRowWriter.INSERT_COLUMNS.length);
+
+        data.writeInt(classNames.size());
+        for (String className : classNames) {
+            data.writeUTF(className);
+        }
+
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        for (String className : classNames) {
+            readRows(database, locale, className, rows);
+        }
+        data.writeInt(rows.size());
+        for (Object[] row : rows) {
+            for (Object value : row) {
+                writeValue(data, value);
+            }
+        }
+        data.flush();
+        return rows.size();
+    }
+
+    private static void readRows(SQLiteDatabase database, String locale, String className,
+            List<Object[]> outRows) {
+        final String[] columns = IndexRowWriter.INSERT_COLUMNS;
+        final Cursor cursor = database.query(Tables.TABLE_PREFS_INDEX, columns,
+                IndexColumns.LOCALE + " = ? AND " + IndexColumns.CLASS_NAME + " = ?",
+                new String[] { locale, className }, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                final Object[] row = new Object[columns.length];
+                for (int n = 0; n < columns.length; n++) {
+                    switch (cursor.getType(n)) {
+                        case Cursor.FIELD_TYPE_NULL:
+                            row[n] = null;
+                            break;
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[n] = cursor.getLong(n);
+                            break;
+                        default:
+                            row[n] = cursor.getString(n);
+                            break;
+                    }
+                }
+                outRows.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void writeValue(DataOutputStream data, Object value) throws IOException {
+        if (value == null) {
+            data.writeByte(TYPE_NULL);
+        } else if (value instanceof Long) {
+            data.writeByte(TYPE_LONG);
+            data.writeLong((Long) value);
+        } else {
+            data.writeByte(TYPE_STRING);
+            data.writeUTF(value.toString());
+        }
+    }
+
+    /**
+     * Insert the rows of a snapshot into the Index.
+     *
+     * @param buildKey the build the snapshot should have been made on
+     * @param locale the locale the snapshot should have been made for
+     * @return the class names covered by the snapshot
+     * @throws IOException if the snapshot cannot be read or is not valid for the build or locale
+     */
+    static List<String> load(InputStream in, String buildKey, String locale,
+            IndexRowWriter writer) throws IOException {
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not an index snapshot");
+        }
+        final int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version: " + version);
+        }
+        final String snapshotBuildKey = data.readUTF();
+        if (!snapshotBuildKey.equals(buildKey)) {
+            throw new IOException("Snapshot is for build '" + snapshotBuildKey + "'");
+        }
+        final String snapshotLocale = data.readUTF();
+        if (!snapshotLocale.equals(locale)) {
+            throw new IOException("Snapshot is for locale '" + snapshotLocale + "'");
+        }
+        final int columnCount = data.readInt();
+        if (columnCount != IndexRowWriter.INSERT_COLUMNS.length) {
+            throw new IOException("Unexpected column count: " + columnCount);
+        }
+
+        final int classCount = data.readInt();
+        final List<String> classNames = new ArrayList<String>(classCount);
+        for (int n = 0; n < classCount; n++) {
+            classNames.add(data.readUTF());
+        }
+
+        final int rowCount = data.readInt();
+        final Object[] row = new Object[columnCount];
+        for (int n = 0; n < rowCount; n++) {
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = readValue(data);
+            }
+            writer.write(row);
+        }
+        return classNames;
+    }
+
+    private static Object readValue(DataInputStream data) throws IOException {
+        final byte type = data.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_LONG:
+                return data.readLong();
+            case TYPE_STRING:
+                return data.readUTF();
+            default:
+                throw new IOException("Unknown value type: " + type);
+        }
+    }
+}
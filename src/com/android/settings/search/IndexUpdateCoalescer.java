@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import java.util.Map;
+
+/**
+ * Collects the class name resources that need to be re-indexed and updates them together.
+ *
+ * Each request restarts a quiet window; once no request came in for the whole window, or
+ * the oldest pending request waited for the maximum delay, all the pending class names are
+ * updated within a single {@link Index} update transaction.
+ */
+public class IndexUpdateCoalescer {
+
+    private static final String TAG = "IndexUpdateCoalescer";
+
+    public static final long DEFAULT_WINDOW_MILLIS = 2000;
+    private static final int MAX_DELAY_WINDOWS = 5;
+
+    private final Index mIndex;
+    private final Handler mHandler;
+    private final long mWindowMillis;
+    private final long mMaxDelayMillis;
+
+    // Class names to update, mapped to true if their data should be deleted first
+    private final ArrayMap<String, Boolean> mPendingRebuilds = new ArrayMap<>();
+    // Class names to update, mapped to true if they should be included in search results
+    private final ArrayMap<String, Boolean> mPendingIncludes = new ArrayMap<>();
+    private long mFirstPendingTime;
+
+    private int mRequestedCount;
+    private int mCoalescedCount;
+    private int mExecutedCount;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public IndexUpdateCoalescer(Index index) {
+        this(index, Looper.getMainLooper(), DEFAULT_WINDOW_MILLIS);
+    }
+
+    public IndexUpdateCoalescer(Index index, Looper looper, long windowMillis) {
+        mIndex = index;
+        mHandler = new Handler(looper);
+        mWindowMillis = windowMillis;
+        mMaxDelayMillis = windowMillis * MAX_DELAY_WINDOWS;
+    }
+
+    /**
+     * Request an update of a class name resource.
+     *
+     * @see Index#updateFromClassNameResource(String, boolean, boolean)
+     */
+    public void requestUpdate(String className, boolean rebuild, boolean includeInSearchResults) {
+        if (className == null) {
+            throw new IllegalArgumentException("class name cannot be null!");
+        }
+        synchronized (mPendingRebuilds) {
+            mRequestedCount++;
+            final long now = SystemClock.uptimeMillis();
+            final Boolean pendingRebuild = mPendingRebuilds.get(className);
+            if (pendingRebuild != null) {
+                mCoalescedCount++;
+                rebuild |= pendingRebuild;
+            }
+            if (mPendingRebuilds.isEmpty()) {
+                mFirstPendingTime = now;
+            }
+            mPendingRebuilds.put(className, rebuild);
+            mPendingIncludes.put(className, includeInSearchResults);
+
+            mHandler.removeCallbacks(mFlushRunnable);
+            final long flushTime = Math.min(now + mWindowMillis,
+                    mFirstPendingTime + mMaxDelayMillis);
+            mHandler.postAtTime(mFlushRunnable, flushTime);
+        }
+    }
+
+    /**
+     * Update all the pending class names now.
+     */
+    public void flush() {
+        final Map<String, Boolean> included = new ArrayMap<>();
+        final Map<String, Boolean> excluded = new ArrayMap<>();
+        synchronized (mPendingRebuilds) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            if (mPendingRebuilds.isEmpty()) {
+                return;
+            }
+            final int count = mPendingRebuilds.size();
+            for (int n = 0; n < count; n++) {
+                final String className = mPendingRebuilds.keyAt(n);
+                final Boolean rebuild = mPendingRebuilds.valueAt(n);
+                if (mPendingIncludes.get(className)) {
+                    included.put(className, rebuild);
+                } else {
+                    excluded.put(className, rebuild);
+                }
+            }
+            mPendingRebuilds.clear();
+            mPendingIncludes.clear();
+        }
+
+        if (!included.isEmpty()) {
+            executeUpdate(included, true);
+        }
+        if (!excluded.isEmpty()) {
+            executeUpdate(excluded, false);
+        }
+    }
+
+    private void executeUpdate(Map<String, Boolean> classNames, boolean includeInSearchResults) {
+        synchronized (mPendingRebuilds) {
+            mExecutedCount++;
+        }
+        Log.d(TAG, "Updating " + classNames.size() + " class name(s): " + classNames.keySet());
+        mIndex.updateFromClassNameResources(classNames, includeInSearchResults);
+    }
+
+    /**
+     * Drop the pending class names without updating them.
+     */
+    public void cancel() {
+        synchronized (mPendingRebuilds) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mPendingRebuilds.clear();
+            mPendingIncludes.clear();
+        }
+    }
+
+    /**
+     * @return the number of update requests received
+     */
+    public int getRequestedCount() {
+        synchronized (mPendingRebuilds) {
+            return mRequestedCount;
+        }
+    }
+
+    /**
+     * @return the number of update requests merged into an already pending request
+     */
+    public int getCoalescedCount() {
+        synchronized (mPendingRebuilds) {
+            return mCoalescedCount;
+        }
+    }
+
+    /**
+     * @return the number of Index updates actually executed
+     */
+    public int getExecutedCount() {
+        synchronized (mPendingRebuilds) {
+            return mExecutedCount;
+        }
+    }
+}
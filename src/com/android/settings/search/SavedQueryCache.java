@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.AsyncTask;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.settings.search.IndexDatabaseHelper.SavedQueriesColums;
+import com.android.settings.search.IndexDatabaseHelper.Tables;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * Keeps the most recent saved Search queries in memory.
+ *
+ * The queries are read once from the saved queries table, then suggestions are answered from
+ * memory, until the table is dropped with the rest of the Index. New queries are added to memory
+ * right away and written to the database in the background, together with the trimming of the
+ * old ones.
+ */
+class SavedQueryCache {
+
+    private static final String LOG_TAG = "SavedQueryCache";
+
+    private static final String[] SUGGESTION_COLUMNS = new String[] {
+            SavedQueriesColums.QUERY
+    };
+
+    private final Context mContext;
+    private final int mMaxSavedQueries;
+    private final int mMaxSuggestions;
+
+    private final Object mLock = new Object();
+    // Query to time stamp, from the least to the most recently used
+    private LinkedHashMap<String, Long> mQueries = new LinkedHashMap<String, Long>();
+    private boolean mLoaded;
+    // Number of times the Index tables had been dropped when the queries were loaded
+    private int mLoadedDropCount;
+
+    // Queries added but not written to the database yet
+    private final List<String> mPendingQueries = new ArrayList<String>();
+    private final List<Long> mPendingTimeStamps = new ArrayList<Long>();
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushPendingQueries();
+        }
+    };
+
+    SavedQueryCache(Context context, int maxSavedQueries, int maxSuggestions) {
+        mContext = context;
+        mMaxSavedQueries = maxSavedQueries;
+        mMaxSuggestions = maxSuggestions;
+    }
+
+    /**
+     * Save a query. Does not wait for the database to be written.
+     */
+    void add(String query) {
+        if (TextUtils.isEmpty(query)) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        synchronized (mLock) {
+            putQuery(mQueries, query, now);
+            mPendingQueries.add(query);
+            mPendingTimeStamps.add(now);
+            if (mFlushScheduled) {
+                return;
+            }
+            mFlushScheduled = true;
+        }
+        AsyncTask.execute(mFlushRunnable);
+    }
+
+    /**
+     * Get the saved queries starting with a prefix, in the order the saved queries table used
+     * to return them: the most recent first for all the queries, the oldest first otherwise.
+     * Should not be called on the main thread, as the first call loads the saved queries from
+     * the database.
+     *
+     * @param prefix the prefix, or an empty string for all the queries
+     * @return a cursor with a single {@link SavedQueriesColums#QUERY} column
+     */
+    Cursor getSuggestions(String prefix) {
+        ensureLoaded();
+
+        final MatrixCursor cursor = new MatrixCursor(SUGGESTION_COLUMNS);
+        final List<String> queries;
+        synchronized (mLock) {
+            queries = new ArrayList<String>(mQueries.keySet());
+        }
+        int count = 0;
+        if (TextUtils.isEmpty(prefix)) {
+            for (ListIterator<String> it = queries.listIterator(queries.size());
+                    it.hasPrevious() && count < mMaxSuggestions; count++) {
+                cursor.addRow(new Object[] { it.previous() });
+            }
+        } else {
+            for (Iterator<String> it = queries.iterator();
+                    it.hasNext() && count < mMaxSuggestions; ) {
+                final String query = it.next();
+                if (query.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                    cursor.addRow(new Object[] { query });
+                    count++;
+                }
+            }
+        }
+        return cursor;
+    }
+
+    private void ensureLoaded() {
+        synchronized (mLock) {
+            if (mLoaded && mLoadedDropCount == IndexDatabaseHelper.getDropCount()) {
+                return;
+            }
+        }
+
+        final LinkedHashMap<String, Long> loaded = new LinkedHashMap<String, Long>();
+        int dropCount = IndexDatabaseHelper.getDropCount();
+        Cursor cursor = null;
+        try {
+            // Opening the database may drop the tables
+            final SQLiteDatabase database =
+                    IndexDatabaseHelper.getInstance(mContext).getReadableDatabase();
+            dropCount = IndexDatabaseHelper.getDropCount();
+            cursor = database.query(Tables.TABLE_SAVED_QUERIES,
+                    new String[] { SavedQueriesColums.QUERY, SavedQueriesColums.TIME_STAMP },
+                    null, null, null, null, "rowId ASC");
+            while (cursor.moveToNext()) {
+                putQuery(loaded, cursor.getString(0), cursor.getLong(1));
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Cannot load saved Search queries", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        synchronized (mLock) {
+            if (mLoaded && mLoadedDropCount == dropCount) {
+                return;
+            }
+            if (!mLoaded) {
+                // Queries added while loading are more recent than the saved ones
+                for (Map.Entry<String, Long> entry : mQueries.entrySet()) {
+                    putQuery(loaded, entry.getKey(), entry.getValue());
+                }
+            } else {
+                // The table was dropped, only the queries not written yet are still to come
+                final int count = mPendingQueries.size();
+                for (int n = 0; n < count; n++) {
+                    putQuery(loaded, mPendingQueries.get(n), mPendingTimeStamps.get(n));
+                }
+            }
+            mQueries = loaded;
+            mLoaded = true;
+            mLoadedDropCount = dropCount;
+        }
+    }
+
+    private void putQuery(LinkedHashMap<String, Long> queries, String query, long timeStamp) {
+        // Re-inserting moves the query to the most recent position
+        queries.remove(query);
+        queries.put(query, timeStamp);
+
+        final Iterator<String> it = queries.keySet().iterator();
+        while (queries.size() > mMaxSavedQueries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private void flushPendingQueries() {
+        final List<String> queries;
+        final List<Long> timeStamps;
+        synchronized (mLock) {
+            queries = new ArrayList<String>(mPendingQueries);
+            timeStamps = new ArrayList<Long>(mPendingTimeStamps);
+            mPendingQueries.clear();
+            mPendingTimeStamps.clear();
+            mFlushScheduled = false;
+        }
+        if (queries.isEmpty()) {
+            return;
+        }
+
+        final SQLiteDatabase database;
+        try {
+            database = IndexDatabaseHelper.getInstance(mContext).getWritableDatabase();
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Cannot save Search queries as I cannot get a writable database", e);
+            return;
+        }
+
+        try {
+            database.beginTransaction();
+            long lastInsertedRowId = -1L;
+            final int count = queries.size();
+            for (int n = 0; n < count; n++) {
+                final String query = queries.get(n);
+
+                // First, delete all saved queries that are the same
+                database.delete(Tables.TABLE_SAVED_QUERIES, SavedQueriesColums.QUERY + " = ?",
+                        new String[] { query });
+
+                // Second, insert the saved query
+                final ContentValues values = new ContentValues();
+                values.put(SavedQueriesColums.QUERY, query);
+                values.put(SavedQueriesColums.TIME_STAMP, timeStamps.get(n));
+                lastInsertedRowId =
+                        database.insertOrThrow(Tables.TABLE_SAVED_QUERIES, null, values);
+            }
+
+            // Last, remove "old" saved queries
+            final long delta = lastInsertedRowId - mMaxSavedQueries;
+            if (delta > 0) {
+                int deleted = database.delete(Tables.TABLE_SAVED_QUERIES, "rowId <= ?",
+                        new String[] { Long.toString(delta) });
+                Log.d(LOG_TAG, "Deleted '" + deleted + "' saved Search query(ies)");
+            }
+            database.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.d(LOG_TAG, "Cannot update saved Search queries", e);
+        } finally {
+            database.endTransaction();
+        }
+    }
+}
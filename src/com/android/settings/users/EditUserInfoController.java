@@ -130,6 +130,9 @@ public class EditUserInfoController {
             drawable = CircleFramedDrawable.getInstance(activity, mSavedPhoto);
         } else {
             drawable = currentUserIcon;
+            if (drawable == null) {
+                drawable = UserIconCache.get(activity).getIcon(info.id);
+            }
             if (drawable == null) {
                 drawable = Utils.getUserIcon(activity, mUserManager, info);
             }
@@ -29,6 +29,7 @@ import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.AsyncTask;
@@ -51,7 +52,6 @@ import android.widget.TextView;
 
 import com.android.settings.R;
 import com.android.settingslib.RestrictedLockUtils;
-import com.android.settingslib.drawable.CircleFramedDrawable;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -254,8 +254,19 @@ public class EditUserPhotoController {
 
     private void onPhotoCropped(final Uri data, final boolean cropped) {
         new AsyncTask<Void, Void, Bitmap>() {
+            private Bitmap mEncircledPhoto;
+
             @Override
             protected Bitmap doInBackground(Void... params) {
+                final Bitmap photo = decodePhoto();
+                if (photo != null) {
+                    // Framed here rather than on the main thread, the way the user list has it
+                    mEncircledPhoto = UserIconCache.encircle(mContext, photo);
+                }
+                return photo;
+            }
+
+            private Bitmap decodePhoto() {
                 if (cropped) {
                     InputStream imageStream = null;
                     try {
@@ -309,8 +320,8 @@ public class EditUserPhotoController {
             protected void onPostExecute(Bitmap bitmap) {
                 if (bitmap != null) {
                     mNewUserPhotoBitmap = bitmap;
-                    mNewUserPhotoDrawable = CircleFramedDrawable
-                            .getInstance(mImageView.getContext(), mNewUserPhotoBitmap);
+                    mNewUserPhotoDrawable = new BitmapDrawable(
+                            mImageView.getContext().getResources(), mEncircledPhoto);
                     mImageView.setImageDrawable(mNewUserPhotoDrawable);
                 }
                 new File(mContext.getCacheDir(), TAKE_PICTURE_FILE_NAME).delete();
@@ -43,6 +43,19 @@ public class RestrictedProfileSettings extends AppRestrictionsFragment
 
     private EditUserInfoController mEditUserInfoController =
             new EditUserInfoController();
+    private UserIconCache mUserIconCache;
+
+    private final UserIconCache.Listener mUserIconListener = new UserIconCache.Listener() {
+        @Override
+        public void onUserIconChanged(int userId) {
+            if (userId == mUser.getIdentifier()) {
+                final Drawable icon = mUserIconCache.getIcon(userId);
+                if (icon != null) {
+                    mUserIconView.setImageDrawable(icon);
+                }
+            }
+        }
+    };
 
     @Override
     public void onCreate(Bundle icicle) {
@@ -53,6 +66,7 @@ public class RestrictedProfileSettings extends AppRestrictionsFragment
         }
 
         init(icicle);
+        mUserIconCache = UserIconCache.get(getActivity());
     }
 
     @Override
@@ -83,11 +97,22 @@ public class RestrictedProfileSettings extends AppRestrictionsFragment
             finishFragment();
         } else {
             ((TextView) mHeaderView.findViewById(android.R.id.title)).setText(info.name);
-            ((ImageView) mHeaderView.findViewById(android.R.id.icon)).setImageDrawable(
-                    com.android.settingslib.Utils.getUserIcon(getActivity(), mUserManager, info));
+            mUserIconCache.addListener(mUserIconListener);
+            Drawable icon = mUserIconCache.getIcon(info.id);
+            if (icon == null) {
+                // Shown until the icon is loaded
+                icon = mUserIconCache.getDefaultIcon();
+            }
+            mUserIconView.setImageDrawable(icon);
         }
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        mUserIconCache.removeListener(mUserIconListener);
+    }
+
     @Override
     public void startActivityForResult(Intent intent, int requestCode) {
         mEditUserInfoController.startingActivityForResult();
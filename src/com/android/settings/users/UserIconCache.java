@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.users;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.ArraySet;
+import android.util.LruCache;
+import android.util.SparseIntArray;
+
+import com.android.settings.Utils;
+import com.android.settingslib.drawable.CircleFramedDrawable;
+
+/**
+ * The avatars of the users, encircled and sized for display, shared by the user screens.
+ *
+ * Icons are decoded on a background pool. Each user has a photo version, bumped when its
+ * info changes, and an icon loaded for an older version is still returned until the new one
+ * is loaded, so that screens don't flash the default avatar. Only used on the main thread.
+ */
+class UserIconCache {
+
+    private static final int MAX_SIZE_BYTES = 4 * 1024 * 1024;
+
+    private static UserIconCache sInstance;
+
+    interface Listener {
+        /**
+         * The icon of the user was loaded, or changed while loading: ask for it again.
+         */
+        void onUserIconChanged(int userId);
+    }
+
+    private final Context mContext;
+    private final UserManager mUserManager;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArraySet<Listener> mListeners = new ArraySet<>();
+    // Photo version of each user, bumped each time its info changes
+    private final SparseIntArray mVersions = new SparseIntArray();
+    // Users whose icon is being loaded, with the photo version being loaded
+    private final SparseIntArray mLoading = new SparseIntArray();
+    private Bitmap mDefaultIcon;
+
+    private final LruCache<Integer, Entry> mIcons = new LruCache<Integer, Entry>(MAX_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(Integer userId, Entry entry) {
+            return entry.bitmap.getByteCount();
+        }
+    };
+
+    private final BroadcastReceiver mUserChangeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final int userId = intent.getIntExtra(Intent.EXTRA_USER_HANDLE, UserHandle.USER_NULL);
+            if (userId == UserHandle.USER_NULL) {
+                return;
+            }
+            if (Intent.ACTION_USER_REMOVED.equals(intent.getAction())) {
+                mIcons.remove(userId);
+            }
+            invalidate(userId);
+        }
+    };
+
+    private UserIconCache(Context context) {
+        mContext = context;
+        mUserManager = UserManager.get(context);
+        IntentFilter filter = new IntentFilter(Intent.ACTION_USER_INFO_CHANGED);
+        filter.addAction(Intent.ACTION_USER_REMOVED);
+        context.registerReceiverAsUser(mUserChangeReceiver, UserHandle.ALL, filter, null,
+                mHandler);
+    }
+
+    static UserIconCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new UserIconCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Returns the icon of the user, or null if it isn't loaded yet, in which case the listeners
+     * are told once it is. An outdated icon is returned while the current one loads.
+     */
+    Drawable getIcon(int userId) {
+        final Entry entry = mIcons.get(userId);
+        final int version = mVersions.get(userId);
+        if (entry == null || entry.version != version) {
+            load(userId);
+        }
+        return entry != null ? new BitmapDrawable(mContext.getResources(), entry.bitmap) : null;
+    }
+
+    /**
+     * Returns the default avatar, to show until the icon of a user is loaded.
+     */
+    Drawable getDefaultIcon() {
+        if (mDefaultIcon == null) {
+            mDefaultIcon = encircle(mContext,
+                    Utils.getDefaultUserIconAsBitmap(UserHandle.USER_NULL));
+        }
+        return new BitmapDrawable(mContext.getResources(), mDefaultIcon);
+    }
+
+    /**
+     * Load the icon of the user again the next time it is asked for, as its info changed.
+     */
+    void invalidate(int userId) {
+        mVersions.put(userId, mVersions.get(userId) + 1);
+    }
+
+    private void load(final int userId) {
+        final int version = mVersions.get(userId);
+        if (mLoading.indexOfKey(userId) >= 0) {
+            // The listeners ask again when the load in progress completes, if it was outdated
+            return;
+        }
+        mLoading.put(userId, version);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = mUserManager.getUserIcon(userId);
+                if (bitmap == null) {
+                    bitmap = Utils.getDefaultUserIconAsBitmap(userId);
+                }
+                final Bitmap icon = encircle(mContext, bitmap);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLoaded(userId, version, icon);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onLoaded(int userId, int version, Bitmap icon) {
+        mLoading.delete(userId);
+        if (version == mVersions.get(userId)) {
+            mIcons.put(userId, new Entry(version, icon));
+        }
+        final ArraySet<Listener> listeners = new ArraySet<>(mListeners);
+        for (Listener listener : listeners) {
+            if (mListeners.contains(listener)) {
+                listener.onUserIconChanged(userId);
+            }
+        }
+    }
+
+    /**
+     * Returns the photo framed in a circle, at the size avatars are displayed at.
+     */
+    static Bitmap encircle(Context context, Bitmap photo) {
+        final Drawable circled = CircleFramedDrawable.getInstance(context, photo);
+        final int width = circled.getIntrinsicWidth();
+        final int height = circled.getIntrinsicHeight();
+        final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        circled.setBounds(0, 0, width, height);
+        circled.draw(new Canvas(bitmap));
+        return bitmap;
+    }
+
+    private static class Entry {
+        final int version;
+        final Bitmap bitmap;
+
+        Entry(int version, Bitmap bitmap) {
+            this.version = version;
+            this.bitmap = bitmap;
+        }
+    }
+}
@@ -30,7 +30,6 @@ import android.content.SharedPreferences;
 import android.content.pm.ResolveInfo;
 import android.content.pm.UserInfo;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
 import android.os.Bundle;
@@ -46,7 +45,6 @@ import android.support.v7.preference.PreferenceGroup;
 import android.support.v7.preference.PreferenceScreen;
 import android.provider.Settings.Global;
 import android.util.Log;
-import android.util.SparseArray;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -69,7 +67,6 @@ import com.android.settings.search.Indexable;
 import com.android.settings.search.SearchIndexableRaw;
 import com.android.settingslib.RestrictedLockUtils;
 import com.android.settingslib.RestrictedSwitchPreference;
-import com.android.settingslib.drawable.CircleFramedDrawable;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -146,14 +143,11 @@ public class UserSettings extends SettingsPreferenceFragment
     private boolean mShouldUpdateUserList = true;
     private final Object mUserLock = new Object();
     private UserManager mUserManager;
-    private SparseArray<Bitmap> mUserIcons = new SparseArray<Bitmap>();
+    private UserIconCache mUserIconCache;
 
     private EditUserInfoController mEditUserInfoController =
             new EditUserInfoController();
 
-    // A place to cache the generated default avatar
-    private Drawable mDefaultIconDrawable;
-
     private Handler mHandler = new Handler() {
         @Override
         public void handleMessage(Message msg) {
@@ -179,13 +173,30 @@ public class UserSettings extends SettingsPreferenceFragment
             } else if (intent.getAction().equals(Intent.ACTION_USER_INFO_CHANGED)) {
                 int userHandle = intent.getIntExtra(Intent.EXTRA_USER_HANDLE, -1);
                 if (userHandle != -1) {
-                    mUserIcons.remove(userHandle);
+                    // Don't depend on the cache seeing the change before the list is updated
+                    mUserIconCache.invalidate(userHandle);
                 }
             }
             mHandler.sendEmptyMessage(MESSAGE_UPDATE_LIST);
         }
     };
 
+    private final UserIconCache.Listener mUserIconListener = new UserIconCache.Listener() {
+        @Override
+        public void onUserIconChanged(int userId) {
+            if (getActivity() == null) return;
+            // Only the icon of that user changed, no need to update the whole list
+            final Preference pref = userId == UserHandle.myUserId()
+                    ? mMePreference : findPreference("id=" + userId);
+            if (pref != null) {
+                final Drawable icon = mUserIconCache.getIcon(userId);
+                if (icon != null) {
+                    pref.setIcon(icon);
+                }
+            }
+        }
+    };
+
     @Override
     protected int getMetricsCategory() {
         return MetricsEvent.USER;
@@ -207,6 +218,7 @@ public class UserSettings extends SettingsPreferenceFragment
         final Context context = getActivity();
         mUserCaps = UserCapabilities.create(context);
         mUserManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
+        mUserIconCache = UserIconCache.get(context);
         if (!mUserCaps.mEnabled) {
             return;
         }
@@ -240,6 +252,7 @@ public class UserSettings extends SettingsPreferenceFragment
         IntentFilter filter = new IntentFilter(Intent.ACTION_USER_REMOVED);
         filter.addAction(Intent.ACTION_USER_INFO_CHANGED);
         context.registerReceiverAsUser(mUserChangeReceiver, UserHandle.ALL, filter, null, mHandler);
+        mUserIconCache.addListener(mUserIconListener);
         loadProfile();
         updateUserList();
         mShouldUpdateUserList = false;
@@ -275,6 +288,7 @@ public class UserSettings extends SettingsPreferenceFragment
         if (!mUserCaps.mEnabled) return;
 
         getActivity().unregisterReceiver(mUserChangeReceiver);
+        mUserIconCache.removeListener(mUserIconListener);
     }
 
     @Override
@@ -349,11 +363,9 @@ public class UserSettings extends SettingsPreferenceFragment
     private void finishLoadProfile(String profileName) {
         if (getActivity() == null) return;
         mMePreference.setTitle(getString(R.string.user_you, profileName));
-        int myUserId = UserHandle.myUserId();
-        Bitmap b = mUserManager.getUserIcon(myUserId);
-        if (b != null) {
-            mMePreference.setIcon(encircle(b));
-            mUserIcons.put(myUserId, b);
+        Drawable icon = mUserIconCache.getIcon(UserHandle.myUserId());
+        if (icon != null) {
+            mMePreference.setIcon(icon);
         }
     }
 
@@ -718,7 +730,6 @@ public class UserSettings extends SettingsPreferenceFragment
         final Context context = getActivity();
 
         final boolean voiceCapable = Utils.isVoiceCapable(context);
-        final ArrayList<Integer> missingIcons = new ArrayList<>();
         final ArrayList<UserPreference> userPreferences = new ArrayList<>();
         userPreferences.add(mMePreference);
 
@@ -773,13 +784,12 @@ public class UserSettings extends SettingsPreferenceFragment
                 pref.setSummary(R.string.user_summary_restricted_profile);
             }
             if (user.iconPath != null) {
-                if (mUserIcons.get(user.id) == null) {
-                    // Icon not loaded yet, print a placeholder
-                    missingIcons.add(user.id);
-                    pref.setIcon(getEncircledDefaultIcon());
-                } else {
-                    setPhotoId(pref, user);
+                Drawable icon = mUserIconCache.getIcon(user.id);
+                if (icon == null) {
+                    // Icon not loaded yet, print a placeholder until the cache has it
+                    icon = getEncircledDefaultIcon();
                 }
+                pref.setIcon(icon);
             } else {
                 // Icon not available yet, print a placeholder
                 pref.setIcon(getEncircledDefaultIcon());
@@ -817,11 +827,6 @@ public class UserSettings extends SettingsPreferenceFragment
 
         getActivity().invalidateOptionsMenu();
 
-        // Load the icons
-        if (missingIcons.size() > 0) {
-            loadIconsAsync(missingIcons);
-        }
-
         PreferenceScreen preferenceScreen = getPreferenceScreen();
         preferenceScreen.removeAll();
 
@@ -891,39 +896,8 @@ public class UserSettings extends SettingsPreferenceFragment
         return maxUsersAndGuest - managedProfiles;
     }
 
-    private void loadIconsAsync(List<Integer> missingIcons) {
-        new AsyncTask<List<Integer>, Void, Void>() {
-            @Override
-            protected void onPostExecute(Void result) {
-                updateUserList();
-            }
-
-            @Override
-            protected Void doInBackground(List<Integer>... values) {
-                for (int userId : values[0]) {
-                    Bitmap bitmap = mUserManager.getUserIcon(userId);
-                    if (bitmap == null) {
-                        bitmap = Utils.getDefaultUserIconAsBitmap(userId);
-                    }
-                    mUserIcons.append(userId, bitmap);
-                }
-                return null;
-            }
-        }.execute(missingIcons);
-    }
-
     private Drawable getEncircledDefaultIcon() {
-        if (mDefaultIconDrawable == null) {
-            mDefaultIconDrawable = encircle(Utils.getDefaultUserIconAsBitmap(UserHandle.USER_NULL));
-        }
-        return mDefaultIconDrawable;
-    }
-
-    private void setPhotoId(Preference pref, UserInfo user) {
-        Bitmap bitmap = mUserIcons.get(user.id);
-        if (bitmap != null) {
-            pref.setIcon(encircle(bitmap));
-        }
+        return mUserIconCache.getDefaultIcon();
     }
 
     @Override
@@ -967,11 +941,6 @@ public class UserSettings extends SettingsPreferenceFragment
         return (user.flags & UserInfo.FLAG_INITIALIZED) != 0;
     }
 
-    private Drawable encircle(Bitmap icon) {
-        Drawable circled = CircleFramedDrawable.getInstance(getActivity(), icon);
-        return circled;
-    }
-
     @Override
     public void onClick(View v) {
         if (v.getTag() instanceof UserPreference) {
@@ -234,8 +234,8 @@ public class ChartDataUsageView extends ChartView {
             mSweepLimit.setValidRange(0L, newMax);
 
             if (changed) {
-                mSeries.invalidatePath();
-                mDetailSeries.invalidatePath();
+                mSeries.invalidateVertPath();
+                mDetailSeries.invalidateVertPath();
             }
 
             mGrid.invalidate();
@@ -56,6 +56,13 @@ public class ChartNetworkSeriesView extends View {
 
     private NetworkStatsHistory mStats;
 
+    // The bound history decoded once, so that the path can be generated again for new axis
+    // bounds without going through the history: the start of each bucket, and the total of
+    // all the buckets up to each one.
+    private int mBucketCount;
+    private long[] mBucketStart = new long[0];
+    private long[] mCumulative = new long[0];
+
     private Path mPathStroke;
     private Path mPathFill;
     private Path mPathEstimate;
@@ -143,6 +150,7 @@ public class ChartNetworkSeriesView extends View {
 
     public void bindNetworkStats(NetworkStatsHistory stats) {
         mStats = stats;
+        decodeStats();
         invalidatePath();
         invalidate();
     }
@@ -162,6 +170,31 @@ public class ChartNetworkSeriesView extends View {
         invalidate();
     }
 
+    /**
+     * Only the vertical axis changed: the visible total stays, the path only has to be mapped
+     * again.
+     */
+    public void invalidateVertPath() {
+        mPathValid = false;
+        invalidate();
+    }
+
+    private void decodeStats() {
+        mBucketCount = mStats != null ? mStats.size() : 0;
+        if (mBucketStart.length < mBucketCount) {
+            mBucketStart = new long[mBucketCount];
+            mCumulative = new long[mBucketCount];
+        }
+        long total = 0;
+        NetworkStatsHistory.Entry entry = null;
+        for (int i = 0; i < mBucketCount; i++) {
+            entry = mStats.getValues(i, entry);
+            total += entry.rxBytes + entry.txBytes;
+            mBucketStart[i] = entry.bucketStart;
+            mCumulative[i] = total;
+        }
+    }
+
     /**
      * Erase any existing {@link Path} and generate series outline based on
      * currently bound {@link NetworkStatsHistory} data.
@@ -196,43 +229,60 @@ public class ChartNetworkSeriesView extends View {
         // currently it only accepts first full bucket.
 
         long totalData = 0;
+        // Total of the buckets before the first one on screen.
+        long totalBefore = -1;
 
-        NetworkStatsHistory.Entry entry = null;
+        // The series is cumulative, so within one pixel only the last point is worth drawing:
+        // it is kept pending until a bucket ends on another pixel.
+        boolean pending = false;
+        float pendingX = 0;
+        float pendingY = 0;
 
+        final long bucketDuration = mStats.getBucketDuration();
         final int start = mStats.getIndexBefore(mStart);
         final int end = mStats.getIndexAfter(mEnd);
-        for (int i = start; i <= end; i++) {
-            entry = mStats.getValues(i, entry);
-
-            final long startTime = entry.bucketStart;
-            final long endTime = startTime + entry.bucketDuration;
+        for (int i = start; i <= end && i < mBucketCount; i++) {
+            final long startTime = mBucketStart[i];
+            final long endTime = startTime + bucketDuration;
 
-            final float startX = mHoriz.convertToPoint(startTime);
             final float endX = mHoriz.convertToPoint(endTime);
 
             // skip until we find first stats on screen
             if (endX < 0) continue;
 
             // increment by current bucket total
-            totalData += entry.rxBytes + entry.txBytes;
+            if (totalBefore < 0) {
+                totalBefore = i > 0 ? mCumulative[i - 1] : 0;
+            }
+            totalData = mCumulative[i] - totalBefore;
 
             final float startY = lastY;
             final float endY = mVert.convertToPoint(totalData);
 
             if (lastTime != startTime) {
                 // gap in buckets; line to start of current bucket
-                mPathStroke.lineTo(startX, startY);
-                mPathFill.lineTo(startX, startY);
+                if (pending) {
+                    lineTo(pendingX, pendingY);
+                    pending = false;
+                }
+                lineTo(mHoriz.convertToPoint(startTime), startY);
             }
 
             // always draw to end of current bucket
-            mPathStroke.lineTo(endX, endY);
-            mPathFill.lineTo(endX, endY);
+            if (pending && (int) endX != (int) pendingX) {
+                lineTo(pendingX, pendingY);
+            }
+            pending = true;
+            pendingX = endX;
+            pendingY = endY;
 
             lastX = endX;
             lastY = endY;
             lastTime = endTime;
         }
+        if (pending) {
+            lineTo(pendingX, pendingY);
+        }
 
         // when data falls short, extend to requested end time
         if (lastTime < mEndTime) {
@@ -256,11 +306,12 @@ public class ChartNetworkSeriesView extends View {
         mMax = totalData;
 
         if (ESTIMATE_ENABLED) {
+            NetworkStatsHistory.Entry entry = null;
+
             // build estimated data
             mPathEstimate.moveTo(lastX, lastY);
 
             final long now = System.currentTimeMillis();
-            final long bucketDuration = mStats.getBucketDuration();
 
             // long window is average over two weeks
             entry = mStats.getValues(lastTime - WEEK_IN_MILLIS * 2, lastTime, now, entry);
@@ -291,6 +342,11 @@ public class ChartNetworkSeriesView extends View {
         invalidate();
     }
 
+    private void lineTo(float x, float y) {
+        mPathStroke.lineTo(x, y);
+        mPathFill.lineTo(x, y);
+    }
+
     public void setEndTime(long endTime) {
         mEndTime = endTime;
     }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi;
+
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import java.util.ArrayList;
+
+/**
+ * The changes between two snapshots of the access point list, by access point key: the access
+ * points that appeared, disappeared, moved relative to the others, changed signal level and
+ * got connected or disconnected.
+ *
+ * Moves are kept to a minimum: the access points in both snapshots that keep their relative
+ * order (the longest such run) are not considered moved, only the others are.
+ */
+class AccessPointListDiff {
+
+    final ArrayList<String> inserted = new ArrayList<>();
+    final ArrayList<String> removed = new ArrayList<>();
+    final ArrayList<String> moved = new ArrayList<>();
+    final ArrayList<String> levelChanged = new ArrayList<>();
+    final ArrayList<String> activeChanged = new ArrayList<>();
+
+    private AccessPointListDiff() {
+    }
+
+    boolean isEmpty() {
+        return inserted.isEmpty() && removed.isEmpty() && moved.isEmpty()
+                && levelChanged.isEmpty() && activeChanged.isEmpty();
+    }
+
+    /**
+     * Whether access points appeared or disappeared, as opposed to only moving around.
+     */
+    boolean hasMembershipChanges() {
+        return !inserted.isEmpty() || !removed.isEmpty();
+    }
+
+    static AccessPointListDiff compute(Snapshot before, Snapshot after) {
+        final AccessPointListDiff diff = new AccessPointListDiff();
+        for (int i = 0; i < before.keys.size(); i++) {
+            final String key = before.keys.get(i);
+            if (!after.levels.containsKey(key)) {
+                diff.removed.add(key);
+            }
+        }
+
+        // Position in the old snapshot of each access point kept, in the new order.
+        final ArrayList<String> kept = new ArrayList<>();
+        final ArrayMap<String, Integer> oldPositions = new ArrayMap<>(before.keys.size());
+        for (int i = 0; i < before.keys.size(); i++) {
+            oldPositions.put(before.keys.get(i), i);
+        }
+        final int[] positions = new int[after.keys.size()];
+        for (int i = 0; i < after.keys.size(); i++) {
+            final String key = after.keys.get(i);
+            final Integer oldPosition = oldPositions.get(key);
+            if (oldPosition == null) {
+                diff.inserted.add(key);
+                continue;
+            }
+            positions[kept.size()] = oldPosition;
+            kept.add(key);
+            if (!before.levels.get(key).equals(after.levels.get(key))) {
+                diff.levelChanged.add(key);
+            }
+            if (before.active.contains(key) != after.active.contains(key)) {
+                diff.activeChanged.add(key);
+            }
+        }
+
+        final boolean[] inOrder = longestIncreasingRun(positions, kept.size());
+        for (int i = 0; i < kept.size(); i++) {
+            if (!inOrder[i]) {
+                diff.moved.add(kept.get(i));
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * Marks the longest increasing subsequence of the first count values.
+     */
+    private static boolean[] longestIncreasingRun(int[] values, int count) {
+        // tails[l] is the index of the smallest value ending a run of length l + 1.
+        final int[] tails = new int[count];
+        final int[] previous = new int[count];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (values[tails[mid]] < values[i]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+        final boolean[] inRun = new boolean[count];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            inRun[i] = true;
+        }
+        return inRun;
+    }
+
+    /**
+     * The keys of the access points in list order, with their signal level, and the ones that
+     * are connected or connecting.
+     */
+    static class Snapshot {
+        final ArrayList<String> keys = new ArrayList<>();
+        final ArrayMap<String, Integer> levels = new ArrayMap<>();
+        final ArraySet<String> active = new ArraySet<>();
+
+        /**
+         * Add an inactive access point at the end of the list, unless its key is already in it.
+         */
+        boolean add(String key, int level) {
+            return add(key, level, false);
+        }
+
+        /**
+         * Add an access point at the end of the list, unless its key is already in it.
+         */
+        boolean add(String key, int level, boolean isActive) {
+            if (levels.containsKey(key)) {
+                return false;
+            }
+            keys.add(key);
+            levels.put(key, level);
+            if (isActive) {
+                active.add(key);
+            }
+            return true;
+        }
+
+        int size() {
+            return keys.size();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi;
+
+import android.os.Handler;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the frames drawn by a window while it is tracked, and how many of them took longer
+ * than a frame interval, to tell how smooth a screen stays while its list updates.
+ */
+class FrameTimeMetrics implements Window.OnFrameMetricsAvailableListener {
+
+    private static final long JANK_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private Window mWindow;
+
+    private int mFrames;
+    private int mJankyFrames;
+    private int mDroppedReports;
+    private long mTotalNanos;
+    private long mMaxNanos;
+
+    /**
+     * Start counting the frames of the window, reported on the handler.
+     */
+    void start(Window window, Handler handler) {
+        stop();
+        mWindow = window;
+        mWindow.addOnFrameMetricsAvailableListener(this, handler);
+    }
+
+    void stop() {
+        if (mWindow != null) {
+            mWindow.removeOnFrameMetricsAvailableListener(this);
+            mWindow = null;
+        }
+    }
+
+    @Override
+    public synchronized void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics,
+            int dropCountSinceLastInvocation) {
+        final long nanos = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+        mFrames++;
+        mDroppedReports += dropCountSinceLastInvocation;
+        mTotalNanos += nanos;
+        if (nanos > JANK_NANOS) {
+            mJankyFrames++;
+        }
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+    }
+
+    synchronized int getFrameCount() {
+        return mFrames;
+    }
+
+    synchronized int getJankyFrameCount() {
+        return mJankyFrames;
+    }
+
+    synchronized long getAverageFrameMicros() {
+        return mFrames > 0 ? mTotalNanos / mFrames / 1000 : 0;
+    }
+
+    synchronized long getMaxFrameMicros() {
+        return mMaxNanos / 1000;
+    }
+
+    synchronized void reset() {
+        mFrames = 0;
+        mJankyFrames = 0;
+        mDroppedReports = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mFrames + " frames, " + mJankyFrames + " janky, avg "
+                + getAverageFrameMicros() + " us, max " + getMaxFrameMicros() + " us, "
+                + mDroppedReports + " reports dropped";
+    }
+}
@@ -36,14 +36,17 @@ import android.net.wifi.WifiManager;
 import android.net.wifi.WpsInfo;
 import android.nfc.NfcAdapter;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Process;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceViewHolder;
 import android.text.Spannable;
 import android.text.TextUtils;
 import android.text.style.TextAppearanceSpan;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
@@ -116,6 +119,10 @@ public class WifiSettings extends RestrictedSettingsFragment
 
     private static final String PREF_KEY_EMPTY_WIFI_LIST = "wifi_empty_list";
 
+    // Access points only moving around, as their signal level changes, are reordered at most
+    // this often. Connecting or disconnecting reorders right away.
+    private static final long REORDER_INTERVAL = 3000;
+
     protected WifiManager mWifiManager;
     private WifiManager.ActionListener mConnectListener;
     private WifiManager.ActionListener mSaveListener;
@@ -156,6 +163,22 @@ public class WifiSettings extends RestrictedSettingsFragment
 
     private MenuItem mScanMenuItem;
 
+    // The access points shown, by key, and the snapshot they were last ordered from.
+    private final ArrayMap<String, LongPressAccessPointPreference> mAccessPointPrefs =
+            new ArrayMap<>();
+    private AccessPointListDiff.Snapshot mShownAccessPoints = new AccessPointListDiff.Snapshot();
+    private long mLastReorderTime;
+    private final Handler mHandler = new Handler();
+    private final Runnable mReorderRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mLastReorderTime = 0;
+            onAccessPointsChanged();
+        }
+    };
+
+    private final FrameTimeMetrics mFrameMetrics = new FrameTimeMetrics();
+
     /* End of "used in Wifi Setup context" */
 
     public WifiSettings() {
@@ -319,6 +342,8 @@ public class WifiSettings extends RestrictedSettingsFragment
 
         mWifiTracker.startTracking();
         activity.invalidateOptionsMenu();
+        mFrameMetrics.reset();
+        mFrameMetrics.start(activity.getWindow(), new Handler(mBgThread.getLooper()));
     }
 
     @Override
@@ -329,6 +354,18 @@ public class WifiSettings extends RestrictedSettingsFragment
         }
 
         mWifiTracker.stopTracking();
+        mHandler.removeCallbacks(mReorderRunnable);
+        mFrameMetrics.stop();
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Access point list: " + mFrameMetrics);
+        }
+    }
+
+    /**
+     * Frame times of the window while the access point list was shown, since last resumed.
+     */
+    FrameTimeMetrics getFrameMetrics() {
+        return mFrameMetrics;
     }
 
     @Override
@@ -606,71 +643,39 @@ public class WifiSettings extends RestrictedSettingsFragment
             if (!isUiRestrictedByOnlyAdmin()) {
                 addMessagePreference(R.string.wifi_empty_list_user_restricted);
             }
-            getPreferenceScreen().removeAll();
+            removeAllPreferences();
             return;
         }
         final int wifiState = mWifiManager.getWifiState();
 
         switch (wifiState) {
             case WifiManager.WIFI_STATE_ENABLED:
-                // AccessPoints are automatically sorted with TreeSet.
-                final Collection<AccessPoint> accessPoints =
-                        mWifiTracker.getAccessPoints();
-
-                boolean hasAvailableAccessPoints = false;
-                int index = 0;
-                cacheRemoveAllPrefs(getPreferenceScreen());
-                for (AccessPoint accessPoint : accessPoints) {
-                    // Ignore access points that are out of range.
-                    if (accessPoint.getLevel() != -1) {
-                        String key = accessPoint.getBssid();
-                        if (TextUtils.isEmpty(key)) {
-                            key = accessPoint.getSsidStr();
-                        }
-                        hasAvailableAccessPoints = true;
-                        LongPressAccessPointPreference pref = (LongPressAccessPointPreference)
-                                getCachedPreference(key);
-                        if (pref != null) {
-                            pref.setOrder(index++);
-                            continue;
-                        }
-                        LongPressAccessPointPreference
-                                preference = new LongPressAccessPointPreference(accessPoint,
-                                getPrefContext(), mUserBadgeCache, false,
-                                R.drawable.ic_wifi_signal_0, this);
-                        preference.setKey(key);
-                        preference.setOrder(index++);
-                        if (mOpenSsid != null && mOpenSsid.equals(accessPoint.getSsidStr())
-                                && !accessPoint.isSaved()
-                                && accessPoint.getSecurity() != AccessPoint.SECURITY_NONE) {
-                            onPreferenceTreeClick(preference);
-                            mOpenSsid = null;
-                        }
-                        getPreferenceScreen().addPreference(preference);
-                        accessPoint.setListener(this);
-                        preference.refresh();
-                    }
-                }
-                removeCachedPrefs(getPreferenceScreen());
+                final boolean hasAvailableAccessPoints = updateAccessPointPreferences();
+                final Preference emptyPref = findPreference(PREF_KEY_EMPTY_WIFI_LIST);
                 if (!hasAvailableAccessPoints) {
                     setProgressBarVisible(true);
-                    Preference pref = new Preference(getContext()) {
-                        @Override
-                        public void onBindViewHolder(PreferenceViewHolder holder) {
-                            super.onBindViewHolder(holder);
-                            // Show a line on each side of add network.
-                            holder.setDividerAllowedBelow(true);
-                        }
-                    };
-                    pref.setSelectable(false);
-                    pref.setSummary(R.string.wifi_empty_list_wifi_on);
-                    pref.setOrder(0);
-                    pref.setKey(PREF_KEY_EMPTY_WIFI_LIST);
-                    getPreferenceScreen().addPreference(pref);
+                    if (emptyPref == null) {
+                        Preference pref = new Preference(getContext()) {
+                            @Override
+                            public void onBindViewHolder(PreferenceViewHolder holder) {
+                                super.onBindViewHolder(holder);
+                                // Show a line on each side of add network.
+                                holder.setDividerAllowedBelow(true);
+                            }
+                        };
+                        pref.setSelectable(false);
+                        pref.setSummary(R.string.wifi_empty_list_wifi_on);
+                        pref.setOrder(0);
+                        pref.setKey(PREF_KEY_EMPTY_WIFI_LIST);
+                        getPreferenceScreen().addPreference(pref);
+                    }
                     mAddPreference.setOrder(1);
                     getPreferenceScreen().addPreference(mAddPreference);
                 } else {
-                    mAddPreference.setOrder(index++);
+                    if (emptyPref != null) {
+                        getPreferenceScreen().removePreference(emptyPref);
+                    }
+                    mAddPreference.setOrder(mShownAccessPoints.size());
                     getPreferenceScreen().addPreference(mAddPreference);
                     setProgressBarVisible(false);
                 }
@@ -680,7 +685,7 @@ public class WifiSettings extends RestrictedSettingsFragment
                 break;
 
             case WifiManager.WIFI_STATE_ENABLING:
-                getPreferenceScreen().removeAll();
+                removeAllPreferences();
                 setProgressBarVisible(true);
                 break;
 
@@ -699,12 +704,112 @@ public class WifiSettings extends RestrictedSettingsFragment
         }
     }
 
+    /**
+     * Bring the access point preferences in line with the access points in range, touching
+     * only the ones that appeared, disappeared or moved since the last update. Access points
+     * that only moved, without being connected or disconnected, are reordered at most every
+     * {@link #REORDER_INTERVAL}.
+     *
+     * @return whether any access point is in range.
+     */
+    private boolean updateAccessPointPreferences() {
+        // AccessPoints are automatically sorted with TreeSet.
+        final Collection<AccessPoint> accessPoints = mWifiTracker.getAccessPoints();
+        final AccessPointListDiff.Snapshot snapshot = new AccessPointListDiff.Snapshot();
+        final ArrayMap<String, AccessPoint> inRange = new ArrayMap<>();
+        for (AccessPoint accessPoint : accessPoints) {
+            // Ignore access points that are out of range.
+            if (accessPoint.getLevel() == -1) {
+                continue;
+            }
+            String key = accessPoint.getBssid();
+            if (TextUtils.isEmpty(key)) {
+                key = accessPoint.getSsidStr();
+            }
+            if (snapshot.add(key, accessPoint.getLevel(), accessPoint.isActive())) {
+                inRange.put(key, accessPoint);
+            }
+        }
+
+        final AccessPointListDiff diff =
+                AccessPointListDiff.compute(mShownAccessPoints, snapshot);
+        if (diff.isEmpty()) {
+            return snapshot.size() > 0;
+        }
+
+        for (int i = 0; i < diff.removed.size(); i++) {
+            final Preference pref = mAccessPointPrefs.remove(diff.removed.get(i));
+            if (pref != null) {
+                getPreferenceScreen().removePreference(pref);
+            }
+        }
+
+        // Signal levels are shown by the preferences themselves, through onLevelChanged(), so
+        // changes in level only matter when they reorder the list. An access point that got
+        // connected moves to the top without waiting.
+        if (!diff.hasMembershipChanges() && diff.activeChanged.isEmpty()) {
+            if (diff.moved.isEmpty()) {
+                mShownAccessPoints = snapshot;
+                return snapshot.size() > 0;
+            }
+            final long sinceReorder = SystemClock.elapsedRealtime() - mLastReorderTime;
+            if (sinceReorder < REORDER_INTERVAL) {
+                mHandler.removeCallbacks(mReorderRunnable);
+                mHandler.postDelayed(mReorderRunnable, REORDER_INTERVAL - sinceReorder);
+                return snapshot.size() > 0;
+            }
+        }
+
+        mHandler.removeCallbacks(mReorderRunnable);
+        for (int i = 0; i < snapshot.size(); i++) {
+            final String key = snapshot.keys.get(i);
+            LongPressAccessPointPreference preference = mAccessPointPrefs.get(key);
+            if (preference != null) {
+                // No-op unless it moved
+                preference.setOrder(i);
+                continue;
+            }
+            final AccessPoint accessPoint = inRange.get(key);
+            preference = new LongPressAccessPointPreference(accessPoint, getPrefContext(),
+                    mUserBadgeCache, false, R.drawable.ic_wifi_signal_0, this);
+            preference.setKey(key);
+            preference.setOrder(i);
+            if (mOpenSsid != null && mOpenSsid.equals(accessPoint.getSsidStr())
+                    && !accessPoint.isSaved()
+                    && accessPoint.getSecurity() != AccessPoint.SECURITY_NONE) {
+                onPreferenceTreeClick(preference);
+                mOpenSsid = null;
+            }
+            mAccessPointPrefs.put(key, preference);
+            getPreferenceScreen().addPreference(preference);
+            accessPoint.setListener(this);
+            preference.refresh();
+        }
+        if (!diff.moved.isEmpty()) {
+            mLastReorderTime = SystemClock.elapsedRealtime();
+        }
+        mShownAccessPoints = snapshot;
+        return snapshot.size() > 0;
+    }
+
+    /**
+     * Remove every preference, and forget the access points shown.
+     */
+    private void removeAllPreferences() {
+        mHandler.removeCallbacks(mReorderRunnable);
+        mAccessPointPrefs.clear();
+        mShownAccessPoints = new AccessPointListDiff.Snapshot();
+        if (getPreferenceScreen().getPreferenceCount() > 0) {
+            getPreferenceScreen().removeAll();
+        }
+    }
+
     private void setOffMessage() {
         if (isUiRestricted()) {
             if (!isUiRestrictedByOnlyAdmin()) {
                 addMessagePreference(R.string.wifi_empty_list_user_restricted);
             }
-            getPreferenceScreen().removeAll();
+            removeAllPreferences();
             return;
         }
 
@@ -747,13 +852,13 @@ public class WifiSettings extends RestrictedSettingsFragment
         boldSpan.setSpan(
                 new TextAppearanceSpan(getActivity(), android.R.style.TextAppearance_Medium), 0,
                 briefText.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-        getPreferenceScreen().removeAll();
+        removeAllPreferences();
     }
 
     private void addMessagePreference(int messageId) {
         TextView emptyTextView = getEmptyTextView();
         if (emptyTextView != null) emptyTextView.setText(messageId);
-        getPreferenceScreen().removeAll();
+        removeAllPreferences();
     }
 
     protected void setProgressBarVisible(boolean visible) {
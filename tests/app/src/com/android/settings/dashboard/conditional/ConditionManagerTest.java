@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard.conditional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import android.content.Context;
+import android.os.PersistableBundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Checks that the condition states read back are the ones written, in the binary format and
+ * when migrating from the legacy XML format.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ConditionManagerTest {
+
+    private final ArrayMap<String, PersistableBundle> mStates = new ArrayMap<>();
+    private File mXmlFile;
+    private AtomicFile mBinaryFile;
+
+    @Before
+    public void setUp() {
+        final Context context = InstrumentationRegistry.getContext();
+        final long now = System.currentTimeMillis();
+        mStates.put("AirplaneModeCondition", createState(true, false, now));
+        mStates.put("HotspotCondition", createState(false, true, now - 1000));
+        mStates.put("DndCondition", createState(false, false, Long.MIN_VALUE));
+
+        mXmlFile = new File(context.getCacheDir(), "condition_state_test.xml");
+        mBinaryFile = new AtomicFile(new File(context.getCacheDir(), "condition_state_test.bin"));
+    }
+
+    @After
+    public void tearDown() {
+        mXmlFile.delete();
+        mBinaryFile.delete();
+    }
+
+    @Test
+    public void testWriteStatesThenReadStates() throws Exception {
+        ConditionManager.writeStates(mBinaryFile, mStates);
+
+        assertStatesEqual(mStates, ConditionManager.readStates(mBinaryFile));
+    }
+
+    @Test
+    public void testWriteStatesReplacesPreviousStates() throws Exception {
+        ConditionManager.writeStates(mBinaryFile, mStates);
+        final ArrayMap<String, PersistableBundle> states = new ArrayMap<>();
+        states.put("DndCondition", createState(true, true, 42));
+        ConditionManager.writeStates(mBinaryFile, states);
+
+        assertStatesEqual(states, ConditionManager.readStates(mBinaryFile));
+    }
+
+    @Test
+    public void testMigrateLegacyStates() throws Exception {
+        ConditionStateBenchmark.writeXml(mXmlFile, mStates);
+
+        final ArrayMap<String, PersistableBundle> migrated =
+                ConditionManager.migrateLegacyStates(mXmlFile, mBinaryFile);
+
+        assertStatesEqual(mStates, migrated);
+        assertStatesEqual(mStates, ConditionManager.readStates(mBinaryFile));
+        assertFalse(mXmlFile.exists());
+    }
+
+    @Test
+    public void testMigrateLegacyStatesWithPackageNames() throws Exception {
+        final ArrayMap<String, PersistableBundle> legacyStates = new ArrayMap<>();
+        for (int i = 0; i < mStates.size(); i++) {
+            legacyStates.put(Condition.class.getPackage().getName() + "." + mStates.keyAt(i),
+                    mStates.valueAt(i));
+        }
+        ConditionStateBenchmark.writeXml(mXmlFile, legacyStates);
+
+        ConditionManager.migrateLegacyStates(mXmlFile, mBinaryFile);
+
+        assertStatesEqual(mStates, ConditionManager.readStates(mBinaryFile));
+    }
+
+    private static PersistableBundle createState(boolean silence, boolean active,
+            long lastState) {
+        final PersistableBundle bundle = new PersistableBundle();
+        bundle.putBoolean("silence", silence);
+        bundle.putBoolean("active", active);
+        bundle.putLong("last_state", lastState);
+        return bundle;
+    }
+
+    private static void assertStatesEqual(ArrayMap<String, PersistableBundle> expected,
+            ArrayMap<String, PersistableBundle> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (int i = 0; i < expected.size(); i++) {
+            final String name = expected.keyAt(i);
+            final PersistableBundle expectedState = expected.valueAt(i);
+            final PersistableBundle actualState = actual.get(name);
+            assertNotNull(name, actualState);
+            assertEquals(name, expectedState.keySet(), actualState.keySet());
+            for (String key : expectedState.keySet()) {
+                assertEquals(name + " " + key, expectedState.get(key), actualState.get(key));
+            }
+        }
+    }
+}
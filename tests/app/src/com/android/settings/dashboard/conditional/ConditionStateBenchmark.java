@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard.conditional;
+
+import static org.junit.Assert.assertEquals;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.PersistableBundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.Xml;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.File;
+import java.io.FileWriter;
+
+/**
+ * Compares how long reading the saved condition state takes, at startup, in the legacy XML
+ * format and in the binary format.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ConditionStateBenchmark {
+
+    private static final String TAG = "ConditionStateBenchmark";
+
+    private static final int ITERATIONS = 50;
+
+    private final ArrayMap<String, PersistableBundle> mStates = new ArrayMap<>();
+    private File mXmlFile;
+    private AtomicFile mBinaryFile;
+
+    @Before
+    public void setUp() throws Exception {
+        final Context context = InstrumentationRegistry.getContext();
+        final String[] names = {
+                "AirplaneModeCondition", "HotspotCondition", "DndCondition",
+                "BatterySaverCondition", "CellularDataCondition", "BackgroundDataCondition",
+                "WorkModeCondition", "NightDisplayCondition",
+        };
+        for (int i = 0; i < names.length; i++) {
+            PersistableBundle bundle = new PersistableBundle();
+            bundle.putBoolean("silence", i % 2 == 0);
+            bundle.putBoolean("active", i % 3 == 0);
+            bundle.putLong("last_state", System.currentTimeMillis() - i * 1000);
+            mStates.put(names[i], bundle);
+        }
+
+        mXmlFile = new File(context.getCacheDir(), "condition_state.xml");
+        writeXml(mXmlFile, mStates);
+        mBinaryFile = new AtomicFile(new File(context.getCacheDir(), "condition_state.bin"));
+        ConditionManager.writeStates(mBinaryFile, mStates);
+    }
+
+    @After
+    public void tearDown() {
+        mXmlFile.delete();
+        mBinaryFile.delete();
+    }
+
+    @Test
+    public void readStates_reportsMicrosPerFormat() throws Exception {
+        // Warm up the parsers
+        assertEquals(mStates.size(), ConditionManager.readLegacyStates(mXmlFile).size());
+        assertEquals(mStates.size(), ConditionManager.readStates(mBinaryFile).size());
+
+        long xmlNanos = 0;
+        long binaryNanos = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            ConditionManager.readLegacyStates(mXmlFile);
+            xmlNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            ConditionManager.readStates(mBinaryFile);
+            binaryNanos += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        final long xmlMicros = xmlNanos / ITERATIONS / 1000;
+        final long binaryMicros = binaryNanos / ITERATIONS / 1000;
+        Log.i(TAG, "Read " + mStates.size() + " conditions in " + xmlMicros + " us from XML, "
+                + binaryMicros + " us from binary");
+
+        final Bundle results = new Bundle();
+        results.putLong("xml_micros", xmlMicros);
+        results.putLong("binary_micros", binaryMicros);
+        results.putLong("xml_bytes", mXmlFile.length());
+        results.putLong("binary_bytes", mBinaryFile.getBaseFile().length());
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, results);
+    }
+
+    /**
+     * Write the states the way ConditionManager used to.
+     */
+    static void writeXml(File file, ArrayMap<String, PersistableBundle> states)
+            throws Exception {
+        XmlSerializer serializer = Xml.newSerializer();
+        FileWriter writer = new FileWriter(file);
+        serializer.setOutput(writer);
+        serializer.startDocument("UTF-8", true);
+        serializer.startTag("", "cs");
+        for (int i = 0; i < states.size(); i++) {
+            serializer.startTag("", "c");
+            serializer.attribute("", "cls", states.keyAt(i));
+            states.valueAt(i).saveToXml(serializer);
+            serializer.endTag("", "c");
+        }
+        serializer.endTag("", "cs");
+        serializer.flush();
+        writer.close();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.provider.SearchIndexableData;
+import android.provider.SearchIndexableResource;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Generates the Index snapshot of the device locale for the build under test.
+ *
+ * Run it on the target build for each shipped locale, then copy the generated
+ * {@code <locale>.snapshot} files into {@code search_snapshot/search_index/}, from where
+ * Android.mk packages them as assets.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class IndexSnapshotGenerator {
+
+    private static final String TAG = "IndexSnapshotGenerator";
+
+    @Test
+    public void generateSnapshot() throws Exception {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final Index index = Index.getInstance(context);
+
+        final List<SearchIndexableData> data = new ArrayList<>();
+        for (SearchIndexableResource res : SearchIndexableResources.values()) {
+            if (res.xmlResId > SearchIndexableResources.NO_DATA_RES_ID) {
+                res.context = context;
+                data.add(res);
+            }
+        }
+        index.updateSynchronously(data);
+
+        final File file = new File(context.getExternalFilesDir(null),
+                Locale.getDefault().toString() + ".snapshot");
+        final FileOutputStream out = new FileOutputStream(file);
+        final int rows;
+        try {
+            rows = index.exportSnapshot(out);
+        } finally {
+            out.close();
+        }
+        assertTrue("Nothing was written", rows > 0);
+        Log.i(TAG, "Wrote " + rows + " rows to " + file);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import static org.junit.Assert.assertTrue;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.provider.SearchIndexableData;
+import android.provider.SearchIndexableResource;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how many rows per second a full re-index of {@link SearchIndexableResources} writes.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class IndexingPerformanceTest {
+
+    private static final String TAG = "IndexingPerformanceTest";
+
+    private static final int ITERATIONS = 5;
+
+    @Test
+    public void fullReindex_reportsRowsPerSecond() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final Index index = Index.getInstance(context);
+
+        final List<SearchIndexableData> data = new ArrayList<>();
+        for (SearchIndexableResource res : SearchIndexableResources.values()) {
+            res.context = context;
+            data.add(res);
+        }
+
+        // Warm up the resources and the statement cache
+        index.updateSynchronously(data);
+
+        long totalRows = 0;
+        long totalMillis = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long start = SystemClock.elapsedRealtime();
+            totalRows += index.updateSynchronously(data);
+            totalMillis += SystemClock.elapsedRealtime() - start;
+        }
+        assertTrue("Nothing was indexed", totalRows > 0);
+
+        final long rowsPerSecond = totalRows * 1000 / Math.max(1, totalMillis);
+        Log.i(TAG, "Indexed " + (totalRows / ITERATIONS) + " rows in "
+                + (totalMillis / ITERATIONS) + " millis: " + rowsPerSecond + " rows/s");
+
+        final Bundle results = new Bundle();
+        results.putLong("rows", totalRows / ITERATIONS);
+        results.putLong("millis", totalMillis / ITERATIONS);
+        results.putLong("rows_per_second", rowsPerSecond);
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, results);
+    }
+}
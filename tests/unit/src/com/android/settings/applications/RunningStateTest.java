@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.ActivityManager;
+import android.os.Debug;
+import android.os.Process;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RunningStateTest extends AndroidTestCase {
+    private static final int BACKGROUND_PROCESS_COUNT = 20;
+    private static final int UPDATE_COUNT = 10;
+
+    private RunningState mState;
+    private RunningState.PssReader mOriginalPssReader;
+    private FakePssReader mPssReader;
+
+    private final List<ActivityManager.RunningServiceInfo> mServices =
+            new ArrayList<ActivityManager.RunningServiceInfo>();
+    private final List<ActivityManager.RunningAppProcessInfo> mProcesses =
+            new ArrayList<ActivityManager.RunningAppProcessInfo>();
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mState = RunningState.getInstance(getContext());
+        mOriginalPssReader = mState.mPssReader;
+        mPssReader = new FakePssReader();
+        mState.mPssReader = mPssReader;
+        mState.clearItems();
+
+        final String processName = getContext().getApplicationInfo().processName;
+        ActivityManager.RunningAppProcessInfo foreground =
+                new ActivityManager.RunningAppProcessInfo(processName, Process.myPid(), null);
+        foreground.uid = Process.myUid();
+        foreground.importance = ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
+        mProcesses.add(foreground);
+        addBackgroundProcesses(BACKGROUND_PROCESS_COUNT);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        // The instance is shared with the rest of the process, don't leave the fake items in it.
+        mState.clearItems();
+        mState.mPssReader = mOriginalPssReader;
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testStableUpdateDoesNotAllocate() {
+        // Build the items, then let every process get its size formatted.
+        mState.update(getContext(), mServices, mProcesses);
+        for (int i = 0; i < BACKGROUND_PROCESS_COUNT; i++) {
+            mState.update(getContext(), mServices, mProcesses);
+        }
+
+        int changedCount = 0;
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < UPDATE_COUNT; i++) {
+            if (mState.update(getContext(), mServices, mProcesses)) {
+                changedCount++;
+            }
+        }
+        Debug.stopAllocCounting();
+        final int allocCount = Debug.getThreadAllocCount();
+
+        assertEquals(0, changedCount);
+        assertEquals(0, allocCount);
+    }
+
+    @SmallTest
+    public void testRebuildAllocationsDoNotGrowWithProcessCount() {
+        final int fewProcessesAllocCount = measureRebuildAllocations();
+
+        addBackgroundProcesses(BACKGROUND_PROCESS_COUNT);
+        final int manyProcessesAllocCount = measureRebuildAllocations();
+
+        // The process infos and background items are reused, only the lists that changed
+        // are copied.
+        assertEquals(fewProcessesAllocCount, manyProcessesAllocCount);
+    }
+
+    @SmallTest
+    public void testStableUpdateRefreshesAllSizes() {
+        mState.update(getContext(), mServices, mProcesses);
+
+        mPssReader.mPss = 2048;
+        // Every process gets its memory refreshed within a full rotation.
+        final int updates = (BACKGROUND_PROCESS_COUNT + RunningState.PSS_REFRESH_BATCH)
+                / RunningState.PSS_REFRESH_BATCH + 1;
+        for (int i = 0; i < updates; i++) {
+            mState.update(getContext(), mServices, mProcesses);
+        }
+
+        assertEquals(BACKGROUND_PROCESS_COUNT * 2048L * 1024, mState.mBackgroundProcessMemory);
+    }
+
+    /**
+     * Returns the allocations of updates that each rebuild the items, as the first background
+     * process keeps moving in and out of the background.
+     */
+    private int measureRebuildAllocations() {
+        // Build the items, and grow the pools and lists for both states.
+        mState.update(getContext(), mServices, mProcesses);
+        for (int i = 0; i < 4; i++) {
+            toggleFirstBackgroundProcess();
+            mState.update(getContext(), mServices, mProcesses);
+        }
+
+        final int sequence = mState.mSequence;
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < UPDATE_COUNT; i++) {
+            toggleFirstBackgroundProcess();
+            mState.update(getContext(), mServices, mProcesses);
+        }
+        Debug.stopAllocCounting();
+        final int allocCount = Debug.getThreadAllocCount();
+
+        assertEquals(UPDATE_COUNT, mState.mSequence - sequence);
+        return allocCount;
+    }
+
+    private void toggleFirstBackgroundProcess() {
+        final ActivityManager.RunningAppProcessInfo process = mProcesses.get(1);
+        process.importance = process.importance
+                == ActivityManager.RunningAppProcessInfo.IMPORTANCE_BACKGROUND
+                ? ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE
+                : ActivityManager.RunningAppProcessInfo.IMPORTANCE_BACKGROUND;
+    }
+
+    private void addBackgroundProcesses(int count) {
+        final String processName = getContext().getApplicationInfo().processName;
+        final int first = mProcesses.size() - 1;
+        for (int i = first; i < first + count; i++) {
+            ActivityManager.RunningAppProcessInfo background =
+                    new ActivityManager.RunningAppProcessInfo(processName + ":bg" + i,
+                            Process.myPid() + 1000 + i, null);
+            background.uid = Process.myUid();
+            background.importance = ActivityManager.RunningAppProcessInfo.IMPORTANCE_BACKGROUND;
+            mProcesses.add(background);
+        }
+    }
+
+    private static class FakePssReader implements RunningState.PssReader {
+        long mPss = 1024;
+
+        @Override
+        public void getProcessPss(int[] pids, long[] outPss) {
+            for (int i = 0; i < pids.length; i++) {
+                outPss[i] = mPss;
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+
+public class AccessPointListDiffTest extends AndroidTestCase {
+
+    @SmallTest
+    public void testCompute_sameList_isEmpty() {
+        AccessPointListDiff diff = AccessPointListDiff.compute(
+                snapshot("a", 3, "b", 2, "c", 1), snapshot("a", 3, "b", 2, "c", 1));
+        assertTrue(diff.isEmpty());
+    }
+
+    @SmallTest
+    public void testCompute_insertsAndRemoves() {
+        AccessPointListDiff diff = AccessPointListDiff.compute(
+                snapshot("a", 3, "b", 2, "c", 1), snapshot("a", 3, "d", 2, "c", 1));
+        assertEquals(Arrays.asList("d"), diff.inserted);
+        assertEquals(Arrays.asList("b"), diff.removed);
+        assertTrue(diff.moved.isEmpty());
+        assertTrue(diff.hasMembershipChanges());
+    }
+
+    @SmallTest
+    public void testCompute_singleMove_onlyMovesOne() {
+        AccessPointListDiff diff = AccessPointListDiff.compute(
+                snapshot("a", 3, "b", 2, "c", 2, "d", 1),
+                snapshot("d", 4, "a", 3, "b", 2, "c", 2));
+        assertEquals(Arrays.asList("d"), diff.moved);
+        assertEquals(Arrays.asList("d"), diff.levelChanged);
+        assertFalse(diff.hasMembershipChanges());
+    }
+
+    @SmallTest
+    public void testCompute_levelChangeWithoutMove() {
+        AccessPointListDiff diff = AccessPointListDiff.compute(
+                snapshot("a", 3, "b", 2), snapshot("a", 3, "b", 1));
+        assertEquals(Arrays.asList("b"), diff.levelChanged);
+        assertTrue(diff.moved.isEmpty());
+        assertFalse(diff.isEmpty());
+    }
+
+    @SmallTest
+    public void testCompute_activeChange() {
+        AccessPointListDiff.Snapshot before = snapshot("a", 3, "b", 2);
+        AccessPointListDiff.Snapshot after = new AccessPointListDiff.Snapshot();
+        after.add("b", 2, true);
+        after.add("a", 3);
+        AccessPointListDiff diff = AccessPointListDiff.compute(before, after);
+        assertEquals(Arrays.asList("b"), diff.activeChanged);
+        assertEquals(1, diff.moved.size());
+        assertFalse(diff.hasMembershipChanges());
+    }
+
+    @SmallTest
+    public void testSnapshotAdd_ignoresDuplicateKeys() {
+        AccessPointListDiff.Snapshot snapshot = new AccessPointListDiff.Snapshot();
+        assertTrue(snapshot.add("a", 3));
+        assertFalse(snapshot.add("a", 1));
+        assertEquals(1, snapshot.size());
+    }
+
+    private static AccessPointListDiff.Snapshot snapshot(Object... keysAndLevels) {
+        AccessPointListDiff.Snapshot snapshot = new AccessPointListDiff.Snapshot();
+        for (int i = 0; i < keysAndLevels.length; i += 2) {
+            snapshot.add((String) keysAndLevels[i], (Integer) keysAndLevels[i + 1]);
+        }
+        return snapshot;
+    }
+}